@@ -23,9 +23,24 @@ package com.docdoku.api;
 import com.docdoku.api.client.ApiClient;
 import com.docdoku.api.client.ApiException;
 import com.docdoku.api.client.ApiResponse;
+import com.docdoku.api.http.AdaptiveLimiter;
+import com.docdoku.api.http.ConcurrencyLimitInterceptor;
+import com.docdoku.api.http.DeadlineInterceptor;
+import com.docdoku.api.http.HedgingInterceptor;
+import com.docdoku.api.http.LoadBalancer;
+import com.docdoku.api.http.PriorityDispatcher;
+import com.docdoku.api.http.ResilienceInterceptor;
+import com.docdoku.api.http.TrafficShaper;
+import com.docdoku.api.json.DateTypeAdapter;
+import com.docdoku.api.json.InterningTypeAdapterFactory;
+import com.docdoku.api.json.ModelTypeAdapterFactory;
 import com.docdoku.api.models.AccountDTO;
 import com.docdoku.api.models.LoginRequestDTO;
+import com.docdoku.api.models.PlatformHealthDTO;
 import com.docdoku.api.services.AuthApi;
+import com.docdoku.api.services.PlatformsApi;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.squareup.okhttp.Credentials;
 import com.squareup.okhttp.Interceptor;
 import com.squareup.okhttp.Response;
@@ -33,6 +48,12 @@ import com.squareup.okhttp.Response;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -58,11 +79,186 @@ public class DocDokuPLMClientFactory {
     public static ApiClient createClient(String host, boolean debug) {
         ApiClient client = new ApiClient();
         client.setDateFormat(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss"));
+        return initClient(client, host, debug);
+    }
+
+    /**
+     * Create a guest client safe for concurrent use, no debug
+     **/
+    public static SharedApiClient createSharedClient(String host) {
+        return createSharedClient(host, false);
+    }
+
+    /**
+     * Create a guest client safe for concurrent use, control debug
+     **/
+    public static SharedApiClient createSharedClient(String host, boolean debug) {
+        return initClient(new SharedApiClient(), host, debug);
+    }
+
+    private static <C extends ApiClient> C initClient(C client, String host, boolean debug) {
         client.setBasePath(host);
         client.setDebugging(debug);
+        client.getJSON().setGson(createGson(client));
         return client;
     }
 
+    /**
+     * Create the gson instance used by a client.
+     * <p>
+     * DTOs are (de)serialized with streaming adapters instead of the gson reflective adapter
+     **/
+    public static Gson createGson(ApiClient client) {
+        return createGson(client, false);
+    }
+
+    /**
+     * Create the gson instance used by a client, control interning
+     * <p>
+     * With interning, repeated strings and users decoded by this client share a single instance.
+     * Such DTOs must then be considered read only.
+     **/
+    public static Gson createGson(ApiClient client, boolean interning) {
+        GsonBuilder builder = new GsonBuilder()
+                .registerTypeAdapter(Date.class, new DateTypeAdapter(client));
+        if (interning) {
+            InterningTypeAdapterFactory interningFactory = new InterningTypeAdapterFactory();
+            // Registered last so that it wraps the model adapters
+            builder.registerTypeAdapterFactory(new ModelTypeAdapterFactory(interningFactory.getStringInterner()))
+                    .registerTypeAdapterFactory(interningFactory);
+        } else {
+            builder.registerTypeAdapterFactory(new ModelTypeAdapterFactory());
+        }
+        return builder.create();
+    }
+
+    /**
+     * Enable interning on an existing client, useful before fetching large lists
+     **/
+    public static ApiClient enableInterning(ApiClient client) {
+        client.getJSON().setGson(createGson(client, true));
+        return client;
+    }
+
+    /**
+     * Bound the concurrent requests of a client with a limit tuned from their latency, useful when
+     * the client is used by many threads
+     *
+     * @return the limiter, whose current limit can be monitored
+     **/
+    public static AdaptiveLimiter enableAdaptiveConcurrency(ApiClient client) {
+        AdaptiveLimiter limiter = new AdaptiveLimiter();
+        client.getHttpClient().interceptors().add(new ConcurrencyLimitInterceptor(limiter));
+        return limiter;
+    }
+
+    /**
+     * Cap the request rate and bandwidth of a client, no limit is set until the returned shaper is
+     * configured. Requests are throttled before they count against the adaptive concurrency limit,
+     * and before they take a lane slot when enabled after the priority lanes.
+     **/
+    public static TrafficShaper enableTrafficShaping(ApiClient client) {
+        TrafficShaper shaper = new TrafficShaper();
+        client.getHttpClient().interceptors().add(0, shaper);
+        return shaper;
+    }
+
+    /**
+     * Send a second copy of the metadata GET requests slower than usual and keep the first response,
+     * within a budget of a few percent of the requests. When enabled before the priority lanes, each
+     * lane hedges through its own connections, a request and its hedge taking a single lane slot.
+     *
+     * @return the interceptor, whose delay and budget can be set
+     **/
+    public static HedgingInterceptor enableHedging(ApiClient client) {
+        HedgingInterceptor hedging = new HedgingInterceptor(client.getHttpClient());
+        client.getHttpClient().interceptors().add(0, hedging);
+        return hedging;
+    }
+
+    /**
+     * Serve interactive metadata requests, bulk metadata requests and file transfers in separate
+     * lanes. The interceptors added before are run by all requests, the ones added after by each lane.
+     *
+     * @return the dispatcher, whose lane budgets can be set before the first request
+     **/
+    public static PriorityDispatcher enablePriorityLanes(ApiClient client) {
+        PriorityDispatcher dispatcher = new PriorityDispatcher(client.getHttpClient());
+        client.getHttpClient().interceptors().add(0, dispatcher);
+        return dispatcher;
+    }
+
+    /**
+     * Retry the requests failing on a transient error and fail fast while a server is down. Each
+     * attempt runs the interceptors added before, so that a request waiting to be retried does not
+     * hold a lane or a concurrency permit. With load balancing, the circuit breakers are checked on
+     * the node each request is routed to.
+     *
+     * @return the interceptor, whose retry policies can be configured
+     **/
+    public static ResilienceInterceptor enableResilience(ApiClient client) {
+        ResilienceInterceptor resilience = new ResilienceInterceptor();
+        client.getHttpClient().interceptors().add(0, resilience);
+        routeCircuitBreakers(client);
+        return resilience;
+    }
+
+    /**
+     * Bound the requests of a client by a deadline: once it expires, no request is sent and the ones
+     * in flight are cancelled. Enabled last, the deadline also bounds retries and hedges.
+     *
+     * @return the interceptor, whose deadline is to be set
+     **/
+    public static DeadlineInterceptor enableDeadline(ApiClient client) {
+        DeadlineInterceptor deadline = new DeadlineInterceptor(client.getHttpClient());
+        client.getHttpClient().interceptors().add(0, deadline);
+        return deadline;
+    }
+
+    /**
+     * Spread the requests of a client over several server nodes, the base path of the client being
+     * one of them. The health of each node is checked every 10 seconds. Enabled last, after the
+     * adaptive concurrency, each retry is routed again.
+     *
+     * @param basePaths the base paths of all the nodes
+     * @return the balancer, whose health checks can be stopped
+     **/
+    public static LoadBalancer enableLoadBalancing(ApiClient client, List<String> basePaths) {
+        Map<String, PlatformsApi> platforms = new HashMap<>();
+        for (String basePath : basePaths) {
+            platforms.put(basePath, new PlatformsApi(createClient(basePath)));
+        }
+        LoadBalancer balancer = new LoadBalancer(basePaths, basePath -> {
+            PlatformHealthDTO health = platforms.get(basePath).getPlatformHealthStatus();
+            return "ok".equals(health.getStatus());
+        });
+        client.getHttpClient().interceptors().add(balancer);
+        routeCircuitBreakers(client);
+        return balancer.startHealthChecks(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Move the circuit breakers after the load balancer, so that each node has its own
+     */
+    private static void routeCircuitBreakers(ApiClient client) {
+        List<Interceptor> interceptors = client.getHttpClient().interceptors();
+        ResilienceInterceptor resilience = null;
+        LoadBalancer balancer = null;
+        for (Interceptor interceptor : interceptors) {
+            if (interceptor instanceof ResilienceInterceptor) {
+                resilience = (ResilienceInterceptor) interceptor;
+            } else if (interceptor instanceof LoadBalancer) {
+                balancer = (LoadBalancer) interceptor;
+            }
+        }
+        if (resilience != null && balancer != null) {
+            Interceptor breakers = resilience.getRoutedCircuitBreakers();
+            if (!interceptors.contains(breakers)) {
+                interceptors.add(interceptors.indexOf(balancer) + 1, breakers);
+            }
+        }
+    }
+
     /**
      * Create a basic client, no debug
      * <p>
@@ -110,6 +306,44 @@ public class DocDokuPLMClientFactory {
             }
         });
 
+        return connectJWT(client, login, password);
+    }
+
+    /**
+     * Create a jwt client safe for concurrent use, no debug
+     **/
+    public static SharedApiClient createSharedJWTClient(String host, String login, String password) {
+        return createSharedJWTClient(host, login, password, false);
+    }
+
+    /**
+     * Create a jwt client safe for concurrent use, control debug
+     * <p>
+     * The token is resolved on each request, renewed tokens are picked up by all threads
+     **/
+    public static SharedApiClient createSharedJWTClient(String host, String login, String password, boolean debug) {
+
+        final SharedApiClient client = createSharedClient(host, debug);
+        final AtomicReference<String> token = new AtomicReference<>();
+        client.setAuthorization(() -> {
+            String jwt = token.get();
+            return jwt != null ? "Bearer " + jwt : null;
+        });
+
+        client.getHttpClient().networkInterceptors().add(chain -> {
+            Response response = chain.proceed(chain.request());
+            String jwt = response.header("jwt");
+            if (jwt != null && !jwt.isEmpty()) {
+                LOGGER.log(Level.FINEST, "JWT token received " + jwt);
+                token.set(jwt);
+            }
+            return response;
+        });
+
+        return connectJWT(client, login, password);
+    }
+
+    private static <C extends ApiClient> C connectJWT(C client, String login, String password) {
         try {
             connect(client, login, password);
             LOGGER.log(Level.FINEST, "Connected");
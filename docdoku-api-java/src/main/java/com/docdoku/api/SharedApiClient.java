@@ -0,0 +1,339 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api;
+
+import com.docdoku.api.client.ApiClient;
+import com.docdoku.api.client.ApiException;
+import com.docdoku.api.client.Pair;
+import com.docdoku.api.client.ProgressRequestBody;
+import com.docdoku.api.client.ProgressResponseBody;
+import com.docdoku.api.http.LoadBalancer;
+import com.docdoku.api.http.Priority;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * An ApiClient which can be shared by concurrent threads.
+ * <p>
+ * Default headers are kept in an immutable map replaced on each change, dates are handled with
+ * immutable {@link DateTimeFormatter}s instead of the shared SimpleDateFormat, and the
+ * Authorization header can be resolved for each request. {@link #setDateFormat} has no effect on
+ * this client.
+ * <p>
+ * Downloaded files can be written in a directory chosen for each call, see {@link #downloadInto}, and
+ * the progress of synchronous transfers can be followed, see {@link #upload}. Requests are tagged
+ * with the {@link Priority} given to {@link #withPriority}. When a {@link LoadBalancer} is installed,
+ * they also carry the affinity key given to {@link #withAffinity}.
+ */
+public class SharedApiClient extends ApiClient {
+
+    private static final DateTimeFormatter DATETIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String DOWNLOAD_PREFIX = ".download";
+    private static final String DOWNLOAD_SUFFIX = ".tmp";
+    private static final int DOWNLOAD_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> DOWNLOAD_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DOWNLOAD_BUFFER_SIZE));
+
+    private final ZoneId zone;
+
+    // Not initialized here: the parent constructor already adds the User-Agent header
+    private volatile Map<String, String> defaultHeaders;
+    private volatile Supplier<String> authorization;
+    private final ThreadLocal<Path> downloadDirectory = new ThreadLocal<>();
+    private final ThreadLocal<ProgressResponseBody.ProgressListener> downloadListener = new ThreadLocal<>();
+    private final ThreadLocal<ProgressRequestBody.ProgressRequestListener> uploadListener = new ThreadLocal<>();
+    private final ThreadLocal<Priority> priority = new ThreadLocal<>();
+    private final ThreadLocal<String> affinity = new ThreadLocal<>();
+
+    public SharedApiClient() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * @param zone time zone of the dates exchanged without offset
+     */
+    public SharedApiClient(ZoneId zone) {
+        super();
+        this.zone = zone;
+    }
+
+    @Override
+    public synchronized ApiClient addDefaultHeader(String key, String value) {
+        Map<String, String> headers = new LinkedHashMap<>(getDefaultHeaders());
+        headers.put(key, value);
+        defaultHeaders = Collections.unmodifiableMap(headers);
+        return this;
+    }
+
+    /**
+     * Get a snapshot of the default headers
+     */
+    public Map<String, String> getDefaultHeaders() {
+        Map<String, String> headers = defaultHeaders;
+        return headers != null ? headers : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * Resolve the Authorization header on each request, overriding any default Authorization header.
+     * The supplier may return null to send no credentials.
+     */
+    public SharedApiClient setAuthorization(Supplier<String> authorization) {
+        this.authorization = authorization;
+        return this;
+    }
+
+    @Override
+    public void processHeaderParams(Map<String, String> headerParams, Request.Builder reqBuilder) {
+        Priority requestPriority = priority.get();
+        if (requestPriority != null) {
+            reqBuilder.tag(requestPriority);
+        }
+        String affinityKey = affinity.get();
+        if (affinityKey != null && isBalanced()) {
+            reqBuilder.header(LoadBalancer.AFFINITY_HEADER, affinityKey);
+        }
+        for (Map.Entry<String, String> param : headerParams.entrySet()) {
+            reqBuilder.header(param.getKey(), parameterToString(param.getValue()));
+        }
+        for (Map.Entry<String, String> header : getDefaultHeaders().entrySet()) {
+            if (!headerParams.containsKey(header.getKey())) {
+                reqBuilder.header(header.getKey(), parameterToString(header.getValue()));
+            }
+        }
+        Supplier<String> provider = authorization;
+        if (provider != null && !headerParams.containsKey(AUTHORIZATION)) {
+            String credentials = provider.get();
+            if (credentials != null) {
+                reqBuilder.header(AUTHORIZATION, credentials);
+            } else {
+                reqBuilder.removeHeader(AUTHORIZATION);
+            }
+        }
+    }
+
+    /**
+     * Tell whether a balancer reads the affinity header, which is never sent to the server
+     */
+    private boolean isBalanced() {
+        for (Interceptor interceptor : getHttpClient().interceptors()) {
+            if (interceptor instanceof LoadBalancer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Date parseDatetime(String str) {
+        if (str == null) {
+            return null;
+        }
+        TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(str, OffsetDateTime::from, LocalDateTime::from);
+        Instant instant = parsed instanceof OffsetDateTime
+                ? ((OffsetDateTime) parsed).toInstant()
+                : ((LocalDateTime) parsed).atZone(zone).toInstant();
+        return Date.from(instant);
+    }
+
+    @Override
+    public String formatDatetime(Date datetime) {
+        return DATETIME_FORMAT.format(datetime.toInstant().atZone(zone));
+    }
+
+    @Override
+    public Date parseDate(String str) {
+        if (str == null) {
+            return null;
+        }
+        return Date.from(LocalDate.parse(str, DateTimeFormatter.ISO_LOCAL_DATE).atStartOfDay(zone).toInstant());
+    }
+
+    @Override
+    public String formatDate(Date date) {
+        return DateTimeFormatter.ISO_LOCAL_DATE.format(date.toInstant().atZone(zone));
+    }
+
+    /**
+     * A synchronous operation of the generated API
+     */
+    @FunctionalInterface
+    public interface Operation<T> {
+        T call() throws ApiException;
+    }
+
+    /**
+     * Run a download operation, writing the response body to a new temp file of the given directory.
+     * <p>
+     * Downloading next to its destination lets the file be renamed in place instead of being copied
+     * from the temp folder, which may be on another file system.
+     *
+     * @return the downloaded temp file, to be moved by the caller
+     */
+    public File downloadInto(Path directory, Operation<File> download) throws ApiException {
+        return downloadInto(directory, null, download);
+    }
+
+    /**
+     * Run a download operation as {@link #downloadInto(Path, Operation)}, reporting the bytes received
+     * to the given listener
+     */
+    public File downloadInto(Path directory, ProgressResponseBody.ProgressListener listener, Operation<File> download) throws ApiException {
+        return withValue(downloadDirectory, directory, () -> withValue(downloadListener, listener, download));
+    }
+
+    /**
+     * Run an operation, reporting the bytes of its request body to the given listener
+     */
+    public <T> T upload(ProgressRequestBody.ProgressRequestListener listener, Operation<T> upload) throws ApiException {
+        return withValue(uploadListener, listener, upload);
+    }
+
+    /**
+     * Run operations with a given priority, file transfers keeping theirs
+     */
+    public <T> T withPriority(Priority requestPriority, Operation<T> operation) throws ApiException {
+        return withValue(priority, requestPriority, operation);
+    }
+
+    /**
+     * Run operations whose requests must reach the same server node, when a {@link LoadBalancer}
+     * spreads the requests of this client
+     */
+    public <T> T withAffinity(String affinityKey, Operation<T> operation) throws ApiException {
+        return withValue(affinity, affinityKey, operation);
+    }
+
+    private static <V, T> T withValue(ThreadLocal<V> local, V value, Operation<T> operation) throws ApiException {
+        V previous = local.get();
+        local.set(value);
+        try {
+            return operation.call();
+        } finally {
+            if (previous != null) {
+                local.set(previous);
+            } else {
+                local.remove();
+            }
+        }
+    }
+
+    @Override
+    public Call buildCall(String path, String method, List<Pair> queryParams, Object body, Map<String, String> headerParams,
+                          Map<String, Object> formParams, String[] authNames,
+                          ProgressRequestBody.ProgressRequestListener progressRequestListener) throws ApiException {
+        ProgressRequestBody.ProgressRequestListener listener = progressRequestListener != null ? progressRequestListener : uploadListener.get();
+        return super.buildCall(path, method, queryParams, body, headerParams, formParams, authNames, listener);
+    }
+
+    @Override
+    public <T> T handleResponse(Response response, Type returnType) throws ApiException {
+        if (returnType == null && response.isSuccessful() && response.body() != null) {
+            // The generated client leaves the body of void responses open, holding its connection
+            try {
+                response.body().close();
+            } catch (IOException e) {
+                // Nothing was expected from it
+            }
+        }
+        return super.handleResponse(response, returnType);
+    }
+
+    @Override
+    public File downloadFileFromResponse(Response response) throws ApiException {
+        Path directory = downloadDirectory.get();
+        if (directory == null) {
+            return super.downloadFileFromResponse(response);
+        }
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, DOWNLOAD_PREFIX, DOWNLOAD_SUFFIX);
+            long contentLength = response.body().contentLength();
+            try (ReadableByteChannel source = Channels.newChannel(response.body().byteStream());
+                 FileChannel target = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                transfer(source, target, contentLength, downloadListener.get());
+            }
+            return temp.toFile();
+        } catch (IOException e) {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+            throw new ApiException(e);
+        }
+    }
+
+    private static void transfer(ReadableByteChannel source, FileChannel target, long contentLength,
+                                 ProgressResponseBody.ProgressListener listener) throws IOException {
+        ByteBuffer buffer = DOWNLOAD_BUFFER.get();
+        buffer.clear();
+        long total = 0;
+        int read;
+        // The source hands out small reads: write only once the buffer is full
+        while ((read = source.read(buffer)) != -1) {
+            total += read;
+            if (listener != null) {
+                listener.update(total, contentLength, false);
+            }
+            if (!buffer.hasRemaining()) {
+                flush(buffer, target);
+            }
+        }
+        flush(buffer, target);
+        if (listener != null) {
+            listener.update(total, contentLength, true);
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel target) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        buffer.clear();
+    }
+}
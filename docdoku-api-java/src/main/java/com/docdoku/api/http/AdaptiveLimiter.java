@@ -0,0 +1,185 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit of concurrent requests tuned from their latency.
+ * <p>
+ * The limit follows the gradient between a long term average latency and the latency of each
+ * response: it grows while latencies stay flat and shrinks as they rise, queueing builds up on the
+ * server. It is also cut multiplicatively when the server reports an overload (429, 503) or a
+ * request times out. The limit only grows while at least half of it is used.
+ */
+public class AdaptiveLimiter {
+
+    private static final int DEFAULT_INITIAL_LIMIT = 4;
+    private static final int DEFAULT_MIN_LIMIT = 1;
+    private static final int DEFAULT_MAX_LIMIT = 64;
+
+    // Latency increase tolerated before shrinking the limit
+    private static final double TOLERANCE = 1.5;
+    // Decrease on overload
+    private static final double BACKOFF = 0.75;
+    // Weight of a new estimate in the limit
+    private static final double SMOOTHING = 0.2;
+    // Samples averaged by the long term latency
+    private static final int BASELINE_WINDOW = 100;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private double baselineRtt;
+
+    public AdaptiveLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits: " + minLimit + ", " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Wait until a request can be sent
+     */
+    public Permit acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return new Permit();
+    }
+
+    /**
+     * @return the current limit of concurrent requests
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the count of requests in progress
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    private void onSample(long rtt, boolean overloaded) {
+        lock.lock();
+        try {
+            double previous = limit;
+            if (overloaded) {
+                limit = Math.max(minLimit, limit * BACKOFF);
+            } else {
+                baselineRtt = baselineRtt == 0 ? rtt : baselineRtt + (rtt - baselineRtt) / BASELINE_WINDOW;
+                // Let the baseline recover quickly once an overload is over
+                if (baselineRtt > 2 * rtt) {
+                    baselineRtt *= 0.95;
+                }
+                if (inFlight * 2 < limit) {
+                    return;
+                }
+                double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baselineRtt / Math.max(rtt, 1)));
+                double estimate = limit * gradient + Math.sqrt(limit);
+                limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + estimate * SMOOTHING));
+            }
+            if ((int) limit > (int) previous) {
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onRelease() {
+        lock.lock();
+        try {
+            inFlight--;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A request allowed by the limiter, to be released once its response is consumed
+     */
+    public final class Permit {
+
+        private final long start = System.nanoTime();
+        private final AtomicBoolean sampled = new AtomicBoolean();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        /**
+         * Record the latency of the request, on its response or failure
+         *
+         * @param overloaded whether the server reported an overload or the request timed out
+         */
+        public void record(boolean overloaded) {
+            if (sampled.compareAndSet(false, true)) {
+                onSample(System.nanoTime() - start, overloaded);
+            }
+        }
+
+        /**
+         * Release the permit, further calls have no effect
+         */
+        public void release() {
+            if (done.compareAndSet(false, true)) {
+                onRelease();
+            }
+        }
+    }
+}
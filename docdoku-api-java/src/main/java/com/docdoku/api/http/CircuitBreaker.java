@@ -0,0 +1,97 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of a server.
+ * <p>
+ * After a number of consecutive failures the circuit opens: requests fail at once instead of piling
+ * up timeouts. Once the open duration is over, a single probe request is let through, which closes
+ * the circuit on success or opens it again on failure.
+ */
+public class CircuitBreaker {
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private int failures;
+    private boolean open;
+    private boolean probing;
+    private long openUntil;
+
+    public CircuitBreaker(String name, int failureThreshold, long openDuration, TimeUnit unit) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Invalid failure threshold: " + failureThreshold);
+        }
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = unit.toNanos(openDuration);
+    }
+
+    /**
+     * Check that a request can be sent, it must then be reported as a success or a failure
+     *
+     * @return whether the request is the probe of a half open circuit, a probe ending without any
+     * outcome must be released
+     * @throws CircuitOpenException if the circuit is open, or half open with a probe in progress
+     */
+    public synchronized boolean checkClosed() throws CircuitOpenException {
+        if (!open) {
+            return false;
+        }
+        long remaining = openUntil - System.nanoTime();
+        if (remaining > 0 || probing) {
+            throw new CircuitOpenException(name, Math.max(0, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        }
+        probing = true;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        failures = 0;
+        open = false;
+        probing = false;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (probing || failures >= failureThreshold) {
+            open = true;
+            openUntil = System.nanoTime() + openNanos;
+        }
+        probing = false;
+    }
+
+    /**
+     * Release a probe which neither succeeded nor failed, cancelled or interrupted for instance.
+     * The circuit stays half open, the next request probes the server again.
+     */
+    public synchronized void release() {
+        probing = false;
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Bound the concurrent requests of a client with an {@link AdaptiveLimiter}.
+ * <p>
+ * A request holds its permit until its response body is consumed or closed, so that large
+ * downloads count as long as they last. Error responses release it as soon as they arrive. The latency given to the limiter is the time to the
+ * response headers.
+ */
+public class ConcurrencyLimitInterceptor implements Interceptor {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    private final AdaptiveLimiter limiter;
+
+    public ConcurrencyLimitInterceptor(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        AdaptiveLimiter.Permit permit;
+        try {
+            permit = limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        }
+
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (SocketTimeoutException e) {
+            permit.record(true);
+            permit.release();
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // Not a sign of overload, no latency to learn from
+            permit.release();
+            throw e;
+        }
+
+        int code = response.code();
+        permit.record(code == TOO_MANY_REQUESTS || code == SERVICE_UNAVAILABLE);
+        return ReleasingResponseBody.wrap(response, permit::release);
+    }
+}
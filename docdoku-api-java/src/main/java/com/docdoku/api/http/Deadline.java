@@ -0,0 +1,59 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time after which the requests of an operation must not be sent, nor waited for
+ */
+public final class Deadline {
+
+    private final long expiresAt;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public static Deadline after(long duration, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * @return the remaining time, zero once expired
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline is expired
+     */
+    public void check() throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException();
+        }
+    }
+}
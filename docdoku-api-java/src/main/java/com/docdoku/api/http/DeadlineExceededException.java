@@ -0,0 +1,40 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a request is sent or waited for after the deadline of its operation
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException() {
+        super("Deadline exceeded");
+    }
+
+    public DeadlineExceededException(Throwable cause) {
+        this();
+        initCause(cause);
+    }
+}
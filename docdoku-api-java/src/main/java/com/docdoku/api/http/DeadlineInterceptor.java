@@ -0,0 +1,238 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bound all the requests of a client by a {@link Deadline}.
+ * <p>
+ * No request is sent once the deadline is expired. The timeouts of a request are cut down to the
+ * remaining time, and the requests still in flight at the deadline, response bodies included, are
+ * cancelled. Retries and hedges give up rather than wait past the deadline.
+ * <p>
+ * Requests are sent by a copy of the client made on first use, running the interceptors which
+ * follow this one. The following interceptors sending a request through calls of their own, such
+ * as the priority lanes or the hedges, create these calls with {@link #newCall(OkHttpClient, Request)}
+ * so that they are bounded and cancelled as well.
+ */
+public class DeadlineInterceptor implements Interceptor {
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private static ScheduledExecutorService scheduler;
+
+    private final OkHttpClient client;
+    private final Set<Scope> inFlight = ConcurrentHashMap.newKeySet();
+    private OkHttpClient deadlineClient;
+    private volatile Deadline deadline;
+    private ScheduledFuture<?> expiry;
+
+    /**
+     * @param client the client this interceptor is added to
+     */
+    public DeadlineInterceptor(OkHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Set the deadline of the next requests, null for none
+     */
+    public synchronized DeadlineInterceptor setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+        if (expiry != null) {
+            expiry.cancel(false);
+            expiry = null;
+        }
+        if (deadline != null) {
+            expiry = getScheduler().schedule(this::cancelInFlight, deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        }
+        return this;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * The deadline of the request sent by the current thread, if any
+     */
+    static Deadline current() {
+        Scope current = CURRENT.get();
+        return current != null ? current.deadline : null;
+    }
+
+    /**
+     * Tell whether the current request can wait for the given time before its deadline
+     */
+    static boolean canWait(long duration, TimeUnit unit) {
+        Deadline current = current();
+        return current == null || current.remaining(unit) > duration;
+    }
+
+    /**
+     * Create a call of another client sending the current request, or a copy of it. Within a
+     * deadline, the timeouts of the call are cut down to the remaining time and the call is cancelled
+     * with the request.
+     */
+    static Call newCall(OkHttpClient client, Request request) {
+        Scope current = CURRENT.get();
+        if (current == null) {
+            return client.newCall(request);
+        }
+        Call call = bounded(client, current.deadline.remaining(TimeUnit.MILLISECONDS)).newCall(request);
+        current.add(call);
+        return call;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Deadline deadline = this.deadline;
+        if (deadline == null) {
+            return chain.proceed(request);
+        }
+        deadline.check();
+
+        Scope scope = new Scope(deadline);
+        inFlight.add(scope);
+        Call call = bounded(getClient(), deadline.remaining(TimeUnit.MILLISECONDS)).newCall(request);
+        scope.add(call);
+        Scope previous = CURRENT.get();
+        CURRENT.set(scope);
+        Response response;
+        try {
+            response = call.execute();
+        } catch (IOException e) {
+            inFlight.remove(scope);
+            if (deadline.isExpired() && !(e instanceof DeadlineExceededException)) {
+                throw new DeadlineExceededException(e);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            inFlight.remove(scope);
+            throw e;
+        } finally {
+            CURRENT.set(previous);
+        }
+
+        return ReleasingResponseBody.wrap(response, () -> inFlight.remove(scope));
+    }
+
+    private void cancelInFlight() {
+        for (Scope scope : inFlight) {
+            scope.cancel();
+        }
+    }
+
+    /**
+     * Client running the following interceptors
+     */
+    private synchronized OkHttpClient getClient() {
+        if (deadlineClient == null) {
+            deadlineClient = client.clone();
+            List<Interceptor> interceptors = deadlineClient.interceptors();
+            interceptors.clear();
+            List<Interceptor> following = client.interceptors();
+            interceptors.addAll(following.subList(following.indexOf(this) + 1, following.size()));
+        }
+        return deadlineClient;
+    }
+
+    /**
+     * Client whose timeouts do not exceed the remaining time
+     */
+    private static OkHttpClient bounded(OkHttpClient client, long remaining) {
+        long timeout = Math.max(1, remaining);
+        if (exceeds(client.getConnectTimeout(), timeout)
+                || exceeds(client.getReadTimeout(), timeout)
+                || exceeds(client.getWriteTimeout(), timeout)) {
+            OkHttpClient shortened = client.clone();
+            shortened.setConnectTimeout(Math.min(limit(client.getConnectTimeout()), timeout), TimeUnit.MILLISECONDS);
+            shortened.setReadTimeout(Math.min(limit(client.getReadTimeout()), timeout), TimeUnit.MILLISECONDS);
+            shortened.setWriteTimeout(Math.min(limit(client.getWriteTimeout()), timeout), TimeUnit.MILLISECONDS);
+            return shortened;
+        }
+        return client;
+    }
+
+    private static boolean exceeds(int timeout, long remaining) {
+        return limit(timeout) > remaining;
+    }
+
+    // A timeout of zero means none
+    private static long limit(int timeout) {
+        return timeout == 0 ? Long.MAX_VALUE : timeout;
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "dplm-deadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Calls sending a request within a deadline: its own call, and the calls of the following
+     * interceptors
+     */
+    private static class Scope {
+
+        private final Deadline deadline;
+        private final List<Call> calls = new CopyOnWriteArrayList<>();
+
+        Scope(Deadline deadline) {
+            this.deadline = deadline;
+        }
+
+        void add(Call call) {
+            calls.add(call);
+            if (deadline.isExpired()) {
+                // Expired while the call was registered, it may have missed the cancellation
+                call.cancel();
+            }
+        }
+
+        void cancel() {
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Send a second copy of a slow metadata GET request, and keep the first response.
+ * <p>
+ * The copy is sent once the request has waited longer than a fixed delay or, by default, than
+ * the 95th percentile of the latest latencies. The other request is then cancelled. Hedges are
+ * paid from a budget earned by each request, so that they stay a small share of the traffic.
+ * <p>
+ * Requests are sent by a copy of the client made on first use, sharing its connections and
+ * running the interceptors which follow this one. A priority lane hedges through its own client,
+ * see {@link #forClient(OkHttpClient)}.
+ */
+public class HedgingInterceptor implements Interceptor {
+
+    private static final Logger LOGGER = Logger.getLogger(HedgingInterceptor.class.getName());
+
+    private static final int WINDOW_SIZE = 1000;
+    private static final int MIN_SAMPLES = 20;
+    private static final long TOKEN = 1000;
+
+    private final OkHttpClient client;
+    private final State state;
+    private OkHttpClient hedgeClient;
+
+    /**
+     * @param client the client this interceptor is added to
+     */
+    public HedgingInterceptor(OkHttpClient client) {
+        this(client, new State());
+    }
+
+    private HedgingInterceptor(OkHttpClient client, State state) {
+        this.client = client;
+        this.state = state;
+    }
+
+    /**
+     * A copy of this interceptor for another client, such as a priority lane, which sends the
+     * requests and their hedges through that client. Copies share the delay and the budget.
+     *
+     * @param client the client the copy is added to
+     */
+    public HedgingInterceptor forClient(OkHttpClient client) {
+        return new HedgingInterceptor(client, state);
+    }
+
+    /**
+     * Hedge after a fixed delay instead of the observed percentile
+     */
+    public HedgingInterceptor setDelay(long delay, TimeUnit unit) {
+        state.fixedDelay = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Hedge after the given percentile of the latest latencies, between 0 and 1
+     */
+    public HedgingInterceptor setPercentile(double percentile) {
+        state.latencies = new LatencyWindow(WINDOW_SIZE, percentile);
+        state.fixedDelay = -1;
+        return this;
+    }
+
+    /**
+     * Set the budget of hedges
+     *
+     * @param ratio the hedges allowed per request, 0.05 by default
+     * @param burst the hedges that can be saved for a burst of slow requests, 10 by default
+     */
+    public HedgingInterceptor setBudget(double ratio, int burst) {
+        state.earnedPerRequest = (long) (ratio * TOKEN);
+        state.maxCredit = burst * TOKEN;
+        return this;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!"GET".equals(request.method()) || Requests.isBinary(request)) {
+            return chain.proceed(request);
+        }
+        earn();
+        long delay = getDelay();
+        if (delay < 0) {
+            long start = System.nanoTime();
+            Response response = chain.proceed(request);
+            state.latencies.record(System.nanoTime() - start);
+            return response;
+        }
+
+        OkHttpClient hedgeClient = getHedgeClient();
+        Deadline deadline = DeadlineInterceptor.current();
+        Race race = new Race();
+        Call primary = race.start(DeadlineInterceptor.newCall(hedgeClient, request));
+        Call hedge = null;
+        try {
+            Response response = race.await(Math.min(delay, remaining(deadline)), false);
+            if (response == null && deadline != null) {
+                deadline.check();
+            }
+            if (response == null) {
+                if (tryPay()) {
+                    LOGGER.log(Level.FINE, "Hedging " + request.urlString());
+                    hedge = race.start(DeadlineInterceptor.newCall(hedgeClient, request));
+                }
+                response = race.await(remaining(deadline), true);
+                if (response == null) {
+                    throw new DeadlineExceededException();
+                }
+            }
+            return response;
+        } finally {
+            race.cancelLosers(primary, hedge);
+        }
+    }
+
+    private static long remaining(Deadline deadline) {
+        return deadline != null ? deadline.remaining(TimeUnit.NANOSECONDS) : Long.MAX_VALUE;
+    }
+
+    private void earn() {
+        long max = state.maxCredit;
+        long earned = state.earnedPerRequest;
+        state.credit.getAndUpdate(c -> Math.min(max, c + earned));
+    }
+
+    private boolean tryPay() {
+        long current;
+        do {
+            current = state.credit.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!state.credit.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    /**
+     * @return the delay in nanoseconds before a hedge, or -1 until enough latencies are known
+     */
+    private long getDelay() {
+        long fixedDelay = state.fixedDelay;
+        if (fixedDelay >= 0) {
+            return fixedDelay;
+        }
+        LatencyWindow window = state.latencies;
+        return window.getCount() < MIN_SAMPLES ? -1 : window.getValue();
+    }
+
+    private synchronized OkHttpClient getHedgeClient() {
+        if (hedgeClient == null) {
+            Dispatcher dispatcher = new Dispatcher(Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "dplm-hedge");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            // Concurrency is bounded by the interceptors which follow
+            dispatcher.setMaxRequests(Integer.MAX_VALUE);
+            dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+
+            hedgeClient = client.clone();
+            hedgeClient.setDispatcher(dispatcher);
+            List<Interceptor> interceptors = hedgeClient.interceptors();
+            interceptors.clear();
+            List<Interceptor> following = client.interceptors();
+            interceptors.addAll(following.subList(following.indexOf(this) + 1, following.size()));
+        }
+        return hedgeClient;
+    }
+
+    /**
+     * Settings, latencies and budget shared by the copies of an interceptor
+     */
+    private static class State {
+
+        private volatile long fixedDelay = -1;
+        private volatile LatencyWindow latencies = new LatencyWindow(WINDOW_SIZE, 0.95);
+        private volatile long earnedPerRequest = 50;
+        private volatile long maxCredit = 10 * TOKEN;
+        private final AtomicLong credit = new AtomicLong();
+    }
+
+    /**
+     * Requests racing for the first response
+     */
+    private class Race {
+
+        private final long start = System.nanoTime();
+        private Call winner;
+        private Response response;
+        private IOException failure;
+        private int started;
+        private int failed;
+
+        Call start(Call call) {
+            synchronized (this) {
+                started++;
+            }
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Request request, IOException e) {
+                    synchronized (Race.this) {
+                        failed++;
+                        if (failure == null) {
+                            failure = e;
+                        }
+                        Race.this.notifyAll();
+                    }
+                }
+
+                @Override
+                public void onResponse(Response response) throws IOException {
+                    synchronized (Race.this) {
+                        if (winner == null) {
+                            winner = call;
+                            Race.this.response = response;
+                            state.latencies.record(System.nanoTime() - start);
+                            Race.this.notifyAll();
+                            return;
+                        }
+                    }
+                    discard(response);
+                }
+            });
+            return call;
+        }
+
+        /**
+         * Wait for the first response
+         *
+         * @param all wait for all requests to fail before throwing a failure
+         * @return the response, or null if none came within the given nanoseconds
+         */
+        synchronized Response await(long nanos, boolean all) throws IOException {
+            long deadline = System.nanoTime() + nanos;
+            try {
+                while (response == null) {
+                    if (failure != null && (!all || failed == started)) {
+                        throw failure;
+                    }
+                    long remaining = nanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a response");
+            }
+            return response;
+        }
+
+        synchronized void cancelLosers(Call... calls) {
+            for (Call call : calls) {
+                if (call != null && call != winner) {
+                    call.cancel();
+                }
+            }
+        }
+    }
+
+    private static void discard(Response response) {
+        ResponseBody body = response.body();
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot close discarded response", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import java.util.Arrays;
+
+/**
+ * Percentile of the latest latencies of a class of requests.
+ * <p>
+ * Latencies are kept in a ring buffer, the percentile is computed again every few samples so that
+ * reading it is cheap.
+ */
+public class LatencyWindow {
+
+    private static final int REFRESH_PERIOD = 32;
+
+    private final long[] samples;
+    private final double percentile;
+    private int count;
+    private int next;
+    private volatile long value = -1;
+
+    /**
+     * @param size       the number of latest latencies kept
+     * @param percentile the percentile to track, between 0 and 1
+     */
+    public LatencyWindow(int size, double percentile) {
+        if (size < 1 || percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("Invalid window: " + size + ", " + percentile);
+        }
+        this.samples = new long[size];
+        this.percentile = percentile;
+    }
+
+    public synchronized void record(long latency) {
+        samples[next] = latency;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+        if (next % REFRESH_PERIOD == 0 || count < REFRESH_PERIOD) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            value = sorted[(int) Math.ceil(percentile * count) - 1];
+        }
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the percentile of the recorded latencies, or -1 if none was recorded
+     */
+    public long getValue() {
+        return value;
+    }
+}
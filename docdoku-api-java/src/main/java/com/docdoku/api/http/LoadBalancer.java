@@ -0,0 +1,275 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spread the requests of a client over several server nodes.
+ * <p>
+ * Requests sent to the base path of any node are routed to the available node with the fewest
+ * outstanding requests among two picked at random. A request carrying an {@link #AFFINITY_HEADER}
+ * always goes to the same node for the same key, as long as this node is available. A node is
+ * unavailable when its health check fails, or for a while after a connection to it failed; the
+ * request is then sent to another node, as it is when the circuit breaker of the node is open.
+ */
+public class LoadBalancer implements Interceptor {
+
+    /**
+     * Header holding the affinity key of a request, removed before the request is sent
+     */
+    public static final String AFFINITY_HEADER = "X-DocDoku-Affinity";
+
+    private static final Logger LOGGER = Logger.getLogger(LoadBalancer.class.getName());
+
+    private static final long SUSPENSION = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Health check of a node
+     */
+    @FunctionalInterface
+    public interface HealthCheck {
+        boolean isHealthy(String basePath) throws Exception;
+    }
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final HealthCheck healthCheck;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param basePaths   the base paths of the nodes, such as http://host:8080/eplm/api, as given to their clients
+     * @param healthCheck the check run on each node by {@link #startHealthChecks(long, TimeUnit)}
+     */
+    public LoadBalancer(List<String> basePaths, HealthCheck healthCheck) {
+        if (basePaths.isEmpty()) {
+            throw new IllegalArgumentException("No node to balance");
+        }
+        for (String basePath : basePaths) {
+            nodes.add(new Node(basePath));
+        }
+        this.healthCheck = healthCheck;
+    }
+
+    /**
+     * Check the health of all nodes now, then periodically until {@link #stopHealthChecks()}
+     */
+    public synchronized LoadBalancer startHealthChecks(long period, TimeUnit unit) {
+        stopHealthChecks();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dplm-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkHealth, 0, period, unit);
+        return this;
+    }
+
+    public synchronized void stopHealthChecks() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the base paths of the nodes currently available
+     */
+    public List<String> getAvailableNodes() {
+        List<String> available = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.isAvailable()) {
+                available.add(node.basePath);
+            }
+        }
+        return available;
+    }
+
+    private void checkHealth() {
+        for (Node node : nodes) {
+            boolean healthy;
+            try {
+                healthy = healthCheck.isHealthy(node.basePath);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Health check of " + node.basePath + " failed", e);
+                healthy = false;
+            }
+            if (healthy != node.healthy) {
+                LOGGER.log(Level.INFO, "Node " + node.basePath + (healthy ? " is up" : " is down"));
+            }
+            node.healthy = healthy;
+            if (healthy) {
+                node.suspendedUntil = 0;
+            }
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String url = request.urlString();
+        Node origin = findNode(url);
+        if (origin == null) {
+            return chain.proceed(request);
+        }
+        String affinity = request.header(AFFINITY_HEADER);
+        if (affinity != null) {
+            request = request.newBuilder().removeHeader(AFFINITY_HEADER).build();
+        }
+        String path = url.substring(origin.basePath.length());
+
+        Set<Node> tried = new HashSet<>();
+        while (true) {
+            Node node = affinity != null ? pickByAffinity(affinity, tried) : pickLeastLoaded(tried);
+            Request routed = node == origin ? request : request.newBuilder().url(node.basePath + path).build();
+            node.outstanding.incrementAndGet();
+            Response response;
+            try {
+                response = chain.proceed(routed);
+            } catch (IOException e) {
+                node.outstanding.decrementAndGet();
+                boolean open = e instanceof CircuitOpenException;
+                if (!open && !isUnreachable(e)) {
+                    throw e;
+                }
+                // Nothing was sent, the request can go to another node whatever its method
+                if (!open) {
+                    node.suspendedUntil = System.nanoTime() + SUSPENSION;
+                }
+                tried.add(node);
+                if (tried.size() == nodes.size()) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, "Node " + node.basePath + (open ? " has an open circuit" : " is unreachable")
+                        + ", failing over", e);
+                continue;
+            } catch (RuntimeException e) {
+                node.outstanding.decrementAndGet();
+                throw e;
+            }
+            return ReleasingResponseBody.wrap(response, node.outstanding::decrementAndGet);
+        }
+    }
+
+    private Node findNode(String url) {
+        for (Node node : nodes) {
+            if (url.startsWith(node.basePath)
+                    && (url.length() == node.basePath.length() || "/?".indexOf(url.charAt(node.basePath.length())) >= 0)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Nodes not tried yet, the available ones or all of them if none is
+     */
+    private List<Node> candidates(Set<Node> tried) {
+        List<Node> available = new ArrayList<>();
+        List<Node> others = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!tried.contains(node)) {
+                (node.isAvailable() ? available : others).add(node);
+            }
+        }
+        return available.isEmpty() ? others : available;
+    }
+
+    /**
+     * Power of two choices: the least loaded of two random nodes
+     */
+    private Node pickLeastLoaded(Set<Node> tried) {
+        List<Node> candidates = candidates(tried);
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Node a = candidates.get(first);
+        Node b = candidates.get(second);
+        return a.outstanding.get() <= b.outstanding.get() ? a : b;
+    }
+
+    /**
+     * Rendezvous hashing: the node with the highest score for the key, so that only the keys of an
+     * unavailable node move
+     */
+    private Node pickByAffinity(String affinity, Set<Node> tried) {
+        Node best = null;
+        long bestScore = 0;
+        for (Node node : candidates(tried)) {
+            long score = mix((long) affinity.hashCode() << 32 | node.basePath.hashCode() & 0xFFFFFFFFL);
+            if (best == null || Long.compareUnsigned(score, bestScore) > 0) {
+                best = node;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static long mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ h >>> 29;
+    }
+
+    private static boolean isUnreachable(IOException e) {
+        return e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException;
+    }
+
+    private static class Node {
+
+        private final String basePath;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile long suspendedUntil;
+
+        Node(String basePath) {
+            this.basePath = basePath;
+        }
+
+        boolean isAvailable() {
+            return healthy && (suspendedUntil == 0 || System.nanoTime() - suspendedUntil >= 0);
+        }
+    }
+}
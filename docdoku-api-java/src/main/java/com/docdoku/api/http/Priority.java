@@ -0,0 +1,56 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Request;
+
+/**
+ * Priority classes of requests, each served by its own lane of a {@link PriorityDispatcher}
+ */
+public enum Priority {
+
+    /**
+     * Metadata requests someone or something is waiting for, the default
+     */
+    INTERACTIVE,
+
+    /**
+     * Metadata requests sent in bulk, which can wait
+     */
+    BULK_METADATA,
+
+    /**
+     * File uploads and downloads
+     */
+    TRANSFER;
+
+    /**
+     * Priority of a request: file transfers are found from the request itself, other requests may be
+     * tagged with their priority
+     */
+    public static Priority of(Request request) {
+        if (Requests.isBinary(request)) {
+            return TRANSFER;
+        }
+        Object tag = request.tag();
+        return tag instanceof Priority ? (Priority) tag : INTERACTIVE;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serve each {@link Priority} class of requests in its own lane.
+ * <p>
+ * A lane has its own budget of concurrent requests and its own connection pool, so that small
+ * interactive calls never wait behind large transfers. Requests are sent by a copy of the client
+ * made on first use of the lane, running the interceptors which follow this one. Interactive
+ * requests skip the {@link ConcurrencyLimitInterceptor}: they are few, and must not queue behind
+ * bulk traffic. A {@link HedgingInterceptor} which follows is copied into each lane, so that
+ * hedges stay within the lane.
+ */
+public class PriorityDispatcher implements Interceptor {
+
+    private static final long KEEP_ALIVE = TimeUnit.MINUTES.toMillis(5);
+
+    private final OkHttpClient client;
+    private final Map<Priority, Integer> budgets = new EnumMap<>(Priority.class);
+    private final Map<Priority, Lane> lanes = new EnumMap<>(Priority.class);
+
+    /**
+     * @param client the client this dispatcher is added to
+     */
+    public PriorityDispatcher(OkHttpClient client) {
+        this.client = client;
+        budgets.put(Priority.INTERACTIVE, 4);
+        budgets.put(Priority.BULK_METADATA, 16);
+        budgets.put(Priority.TRANSFER, 8);
+    }
+
+    /**
+     * Set the maximum concurrent requests of a lane, before its first request
+     */
+    public synchronized PriorityDispatcher setBudget(Priority priority, int requests) {
+        if (requests < 1) {
+            throw new IllegalArgumentException("Invalid budget: " + requests);
+        }
+        budgets.put(priority, requests);
+        return this;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Lane lane = getLane(Priority.of(request));
+        try {
+            lane.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        }
+
+        Response response;
+        try {
+            response = DeadlineInterceptor.newCall(lane.client, request).execute();
+        } catch (IOException | RuntimeException e) {
+            lane.permits.release();
+            throw e;
+        }
+        return ReleasingResponseBody.wrap(response, lane.permits::release);
+    }
+
+    private synchronized Lane getLane(Priority priority) {
+        return lanes.computeIfAbsent(priority, this::createLane);
+    }
+
+    private Lane createLane(Priority priority) {
+        int budget = budgets.get(priority);
+        OkHttpClient laneClient = client.clone();
+        laneClient.setConnectionPool(new ConnectionPool(budget, KEEP_ALIVE));
+
+        List<Interceptor> interceptors = laneClient.interceptors();
+        interceptors.clear();
+        List<Interceptor> following = client.interceptors();
+        for (Interceptor interceptor : following.subList(following.indexOf(this) + 1, following.size())) {
+            if (interceptor instanceof HedgingInterceptor) {
+                // Hedges are sent through the connections and interceptors of the lane
+                interceptor = ((HedgingInterceptor) interceptor).forClient(laneClient);
+            }
+            if (priority != Priority.INTERACTIVE || !(interceptor instanceof ConcurrencyLimitInterceptor)) {
+                interceptors.add(interceptor);
+            }
+        }
+        return new Lane(laneClient, new Semaphore(budget, true));
+    }
+
+    private static class Lane {
+
+        private final OkHttpClient client;
+        private final Semaphore permits;
+
+        Lane(OkHttpClient client, Semaphore permits) {
+            this.client = client;
+            this.permits = permits;
+        }
+    }
+}
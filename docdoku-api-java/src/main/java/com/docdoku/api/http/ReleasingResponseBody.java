@@ -0,0 +1,117 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Response body running a release action once, when exhausted or closed
+ */
+class ReleasingResponseBody extends ResponseBody {
+
+    private static final int NO_CONTENT = 204;
+
+    private final ResponseBody delegate;
+    private final Runnable release;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private BufferedSource source;
+
+    ReleasingResponseBody(ResponseBody delegate, Runnable release) {
+        this.delegate = delegate;
+        this.release = release;
+    }
+
+    /**
+     * Run a release action once the body of a response is exhausted or closed. Error and empty
+     * bodies are read at once and the action run right away: the generated client may report an
+     * error without ever closing its body.
+     */
+    static Response wrap(Response response, Runnable release) throws IOException {
+        ResponseBody body = response.body();
+        if (body == null) {
+            release.run();
+            return response;
+        }
+        if (!response.isSuccessful() || response.code() == NO_CONTENT || body.contentLength() == 0) {
+            byte[] content;
+            try {
+                content = body.bytes();
+            } finally {
+                release.run();
+            }
+            return response.newBuilder().body(ResponseBody.create(body.contentType(), content)).build();
+        }
+        return response.newBuilder().body(new ReleasingResponseBody(body, release)).build();
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public synchronized BufferedSource source() throws IOException {
+        if (source == null) {
+            source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    try {
+                        long read = super.read(sink, byteCount);
+                        if (read == -1) {
+                            release();
+                        }
+                        return read;
+                    } catch (IOException e) {
+                        release();
+                        throw e;
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    release();
+                    super.close();
+                }
+            });
+        }
+        return source;
+    }
+
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+
+/**
+ * Classification of the requests of the generated client
+ */
+final class Requests {
+
+    private Requests() {
+    }
+
+    /**
+     * A request transfers a file when it uploads a multipart body or accepts anything but JSON
+     */
+    static boolean isBinary(Request request) {
+        if (isUpload(request)) {
+            return true;
+        }
+        String accept = request.header("Accept");
+        return accept != null && !accept.contains("json");
+    }
+
+    static boolean isUpload(Request request) {
+        RequestBody body = request.body();
+        return body != null && body.contentType() != null && "multipart".equals(body.contentType().type());
+    }
+
+    static boolean isJson(MediaType type) {
+        return type == null || type.subtype().contains("json");
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Retry the requests failing on a transient error, and stop sending requests to a server that is
+ * down.
+ * <p>
+ * Network errors, 429 and 502 to 504 responses are retried after an exponential backoff with full
+ * jitter, or after the delay asked by a Retry-After header. Only requests that can safely be sent
+ * twice are retried: GET, HEAD and OPTIONS always, PUT and DELETE when enabled, file uploads when
+ * enabled, and the other requests when their method and path are declared safe.
+ * <p>
+ * Each host has a {@link CircuitBreaker} fed with the network errors and the 502 to 504 responses,
+ * requests to a host whose circuit is open fail at once with a {@link CircuitOpenException}. When
+ * the requests are routed to another host by a following interceptor, such as a
+ * {@link LoadBalancer}, the breakers are checked after it by {@link #getRoutedCircuitBreakers()}.
+ * <p>
+ * No retry waits past the {@link Deadline} of the request. Errors while reading a response body
+ * happen once the response is returned and are not retried.
+ */
+public class ResilienceInterceptor implements Interceptor {
+
+    private static final Logger LOGGER = Logger.getLogger(ResilienceInterceptor.class.getName());
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int BAD_GATEWAY = 502;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final int GATEWAY_TIMEOUT = 504;
+
+    private static final long MAX_RETRY_AFTER = TimeUnit.MINUTES.toMillis(1);
+
+    private volatile int maxAttempts = 4;
+    private volatile long baseDelay = 200;
+    private volatile long maxDelay = TimeUnit.SECONDS.toMillis(10);
+    private volatile boolean retryWrites;
+    private volatile boolean retryUploads;
+    private final List<SafeOperation> safeOperations = new CopyOnWriteArrayList<>();
+
+    private volatile int failureThreshold = 5;
+    private volatile long openDuration = TimeUnit.SECONDS.toMillis(30);
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Interceptor routedBreakers = new RoutedCircuitBreakers();
+    private volatile boolean routed;
+
+    /**
+     * Set the number of attempts of a request, including the first one
+     */
+    public ResilienceInterceptor setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid number of attempts: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Set the backoff before the first retry, doubled on each retry up to the maximum
+     */
+    public ResilienceInterceptor setBackoff(long baseDelay, long maxDelay, TimeUnit unit) {
+        this.baseDelay = unit.toMillis(baseDelay);
+        this.maxDelay = unit.toMillis(maxDelay);
+        return this;
+    }
+
+    /**
+     * Retry PUT and DELETE requests, which the REST API is expected to make idempotent
+     */
+    public ResilienceInterceptor setRetryWrites(boolean retryWrites) {
+        this.retryWrites = retryWrites;
+        return this;
+    }
+
+    /**
+     * Retry file uploads, an upload replacing the file previously uploaded under the same name
+     */
+    public ResilienceInterceptor setRetryUploads(boolean retryUploads) {
+        this.retryUploads = retryUploads;
+        return this;
+    }
+
+    /**
+     * Declare the requests of a method on the matching paths safe to retry
+     *
+     * @param pathPattern regular expression matching the whole path of the url
+     */
+    public ResilienceInterceptor declareSafe(String method, String pathPattern) {
+        safeOperations.add(new SafeOperation(method, Pattern.compile(pathPattern)));
+        return this;
+    }
+
+    /**
+     * Set the consecutive failures opening the circuit of a host, and how long it stays open
+     */
+    public ResilienceInterceptor setCircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Invalid failure threshold: " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = unit.toMillis(openDuration);
+        breakers.clear();
+        return this;
+    }
+
+    public CircuitBreaker getCircuitBreaker(String host) {
+        return breakers.computeIfAbsent(host,
+                h -> new CircuitBreaker(h, failureThreshold, openDuration, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Check the circuit breakers on the host each request is actually sent to: the returned
+     * interceptor is to be added after the interceptors routing the requests, this one then only
+     * retries them.
+     */
+    public Interceptor getRoutedCircuitBreakers() {
+        routed = true;
+        return routedBreakers;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        CircuitBreaker breaker = routed ? null : getCircuitBreaker(request.url().getHost());
+        int attempts = isRetryable(request) ? maxAttempts : 1;
+
+        for (int attempt = 1; ; attempt++) {
+            Response response;
+            try {
+                response = breaker != null ? proceed(chain, request, breaker) : chain.proceed(request);
+            } catch (IOException e) {
+                if (!isTransient(e)) {
+                    throw e;
+                }
+                long delay = backoff(attempt, baseDelay, maxDelay);
+                if (attempt >= attempts || !DeadlineInterceptor.canWait(delay, TimeUnit.MILLISECONDS)) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, "Retrying " + request.method() + " " + request.urlString(), e);
+                sleep(delay);
+                continue;
+            }
+
+            int code = response.code();
+            boolean unavailable = isUnavailable(code);
+            if (attempt >= attempts || !unavailable && code != TOO_MANY_REQUESTS) {
+                return response;
+            }
+            long delay = retryAfter(response.header("Retry-After"));
+            if (delay < 0) {
+                delay = backoff(attempt, baseDelay, maxDelay);
+            }
+            if (!DeadlineInterceptor.canWait(delay, TimeUnit.MILLISECONDS)) {
+                return response;
+            }
+            discard(response);
+            LOGGER.log(Level.FINE, "Retrying " + request.method() + " " + request.urlString() + " after " + code);
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Send a request through a circuit breaker, fed with its outcome
+     */
+    private static Response proceed(Chain chain, Request request, CircuitBreaker breaker) throws IOException {
+        boolean probe = breaker.checkClosed();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            if (isTransient(e)) {
+                breaker.onFailure();
+            } else if (probe) {
+                breaker.release();
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            if (probe) {
+                breaker.release();
+            }
+            throw e;
+        }
+        if (isUnavailable(response.code())) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+        return response;
+    }
+
+    private static boolean isUnavailable(int code) {
+        return code == BAD_GATEWAY || code == SERVICE_UNAVAILABLE || code == GATEWAY_TIMEOUT;
+    }
+
+    private boolean isRetryable(Request request) {
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+                return true;
+            case "PUT":
+            case "DELETE":
+                if (retryWrites) {
+                    return true;
+                }
+                break;
+            default:
+                if (retryUploads && Requests.isUpload(request)) {
+                    return true;
+                }
+        }
+        String path = request.url().getPath();
+        for (SafeOperation operation : safeOperations) {
+            if (operation.matches(request.method(), path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTransient(IOException e) {
+        // Interruptions and open circuits must not be retried, timeouts are
+        return !(e instanceof CircuitOpenException)
+                && (!(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException);
+    }
+
+    /**
+     * Full jitter: a random delay up to the exponential backoff of the attempt
+     */
+    static long backoff(int attempt, long baseDelay, long maxDelay) {
+        long ceiling = baseDelay << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelay) {
+            ceiling = maxDelay;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return the delay in milliseconds given in seconds by a Retry-After header, or -1
+     */
+    static long retryAfter(String header) {
+        if (header == null) {
+            return -1;
+        }
+        try {
+            long seconds = Long.parseLong(header.trim());
+            return seconds < 0 ? -1 : Math.min(TimeUnit.SECONDS.toMillis(seconds), MAX_RETRY_AFTER);
+        } catch (NumberFormatException e) {
+            // An HTTP date, let the backoff decide
+            return -1;
+        }
+    }
+
+    private static void discard(Response response) {
+        ResponseBody body = response.body();
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot close discarded response", e);
+            }
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Circuit breakers of the hosts the requests are routed to
+     */
+    private class RoutedCircuitBreakers implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            return proceed(chain, request, getCircuitBreaker(request.url().getHost()));
+        }
+    }
+
+    private static class SafeOperation {
+
+        private final String method;
+        private final Pattern path;
+
+        SafeOperation(String method, Pattern path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        boolean matches(String method, String path) {
+            return this.method.equalsIgnoreCase(method) && this.path.matcher(path).matches();
+        }
+    }
+}
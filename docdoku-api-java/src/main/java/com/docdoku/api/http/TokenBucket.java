@@ -0,0 +1,84 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by any number of threads without locking.
+ * <p>
+ * The bucket is kept as the time at which it will be full again (generic cell rate algorithm): a
+ * caller reserves its tokens with a single compare-and-set, then sleeps until they are due.
+ * Concurrent callers are thus served in turn, each waiting for its own share of the rate.
+ */
+public class TokenBucket {
+
+    private final double nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    /**
+     * Bucket holding one second of tokens
+     */
+    public TokenBucket(double tokensPerSecond) {
+        this(tokensPerSecond, tokensPerSecond);
+    }
+
+    /**
+     * @param burst count of tokens which can be taken at once after a pause
+     */
+    public TokenBucket(double tokensPerSecond, double burst) {
+        if (tokensPerSecond <= 0 || burst < 0) {
+            throw new IllegalArgumentException("Invalid rate: " + tokensPerSecond + ", burst " + burst);
+        }
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / tokensPerSecond;
+        this.burstNanos = (long) (burst * nanosPerToken);
+    }
+
+    /**
+     * Take tokens, waiting until they are available
+     */
+    public void acquire(long tokens) throws InterruptedException {
+        long delay = reserve(tokens);
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    /**
+     * Take tokens without waiting, possibly more than the bucket holds
+     *
+     * @return the delay in nanoseconds before the tokens are actually available
+     */
+    public long reserve(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+        long now = System.nanoTime();
+        while (true) {
+            long previous = fullAt.get();
+            // An idle bucket does not hold more than its burst
+            long next = (previous - now > 0 ? previous : now) + cost;
+            if (fullAt.compareAndSet(previous, next)) {
+                return Math.max(0, next - now - burstNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Cap the request rate and the bandwidth of a client.
+ * <p>
+ * Metadata and binary traffic have separate budgets, so that a bulk download does not slow down
+ * the other requests. A request is binary when it uploads a multipart body or accepts anything but
+ * JSON, a response when it is binary or its content is not JSON. Budgets are token buckets shared
+ * by all threads of the client, a budget of zero or less means no limit.
+ */
+public class TrafficShaper implements Interceptor {
+
+    // Largest write throttled at once, so that uploads flow evenly
+    private static final long MAX_WRITE = 8192;
+
+    private volatile TokenBucket metadataRequests;
+    private volatile TokenBucket binaryRequests;
+    private volatile TokenBucket metadataBytes;
+    private volatile TokenBucket binaryBytes;
+
+    /**
+     * Set the maximum requests per second
+     */
+    public TrafficShaper setRequestRates(double metadata, double binary) {
+        metadataRequests = metadata > 0 ? new TokenBucket(metadata) : null;
+        binaryRequests = binary > 0 ? new TokenBucket(binary) : null;
+        return this;
+    }
+
+    /**
+     * Set the maximum bytes per second, sent and received
+     */
+    public TrafficShaper setBandwidths(long metadata, long binary) {
+        metadataBytes = metadata > 0 ? new TokenBucket(metadata) : null;
+        binaryBytes = binary > 0 ? new TokenBucket(binary) : null;
+        return this;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean binary = Requests.isBinary(request);
+        acquire(binary ? binaryRequests : metadataRequests, 1);
+
+        TokenBucket requestBytes = binary ? binaryBytes : metadataBytes;
+        if (requestBytes != null && request.body() != null) {
+            request = request.newBuilder().method(request.method(), new ShapedRequestBody(request.body(), requestBytes)).build();
+        }
+        Response response = chain.proceed(request);
+
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+        TokenBucket responseBytes = binary || !Requests.isJson(body.contentType()) ? binaryBytes : metadataBytes;
+        if (responseBytes == null) {
+            return response;
+        }
+        return response.newBuilder().body(new ShapedResponseBody(body, responseBytes)).build();
+    }
+
+    private static void acquire(TokenBucket bucket, long tokens) throws InterruptedIOException {
+        if (bucket == null) {
+            return;
+        }
+        try {
+            bucket.acquire(tokens);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    private static class ShapedRequestBody extends RequestBody {
+
+        private final RequestBody delegate;
+        private final TokenBucket bucket;
+
+        ShapedRequestBody(RequestBody delegate, TokenBucket bucket) {
+            this.delegate = delegate;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink shaped = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    long remaining = byteCount;
+                    while (remaining > 0) {
+                        long count = Math.min(remaining, MAX_WRITE);
+                        acquire(bucket, count);
+                        super.write(source, count);
+                        remaining -= count;
+                    }
+                }
+            });
+            delegate.writeTo(shaped);
+            shaped.flush();
+        }
+    }
+
+    private static class ShapedResponseBody extends ResponseBody {
+
+        private final ResponseBody delegate;
+        private final TokenBucket bucket;
+        private BufferedSource source;
+
+        ShapedResponseBody(ResponseBody delegate, TokenBucket bucket) {
+            this.delegate = delegate;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public synchronized BufferedSource source() throws IOException {
+            if (source == null) {
+                source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long read = super.read(sink, byteCount);
+                        if (read > 0) {
+                            acquire(bucket, read);
+                        }
+                        return read;
+                    }
+                });
+            }
+            return source;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.json;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Binds constructors, getters and setters to functional interfaces through {@link LambdaMetafactory}.
+ * <p>
+ * Reflection is only used once at binding time, invocations are then plain interface calls.
+ */
+final class Accessors {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Accessors() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Supplier<T> constructor(Class<T> type) throws ReflectiveOperationException {
+        MethodHandle target = LOOKUP.findConstructor(type, MethodType.methodType(void.class));
+        try {
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get",
+                    MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class),
+                    target,
+                    MethodType.methodType(type));
+            return (Supplier<T>) site.getTarget().invokeExact();
+        } catch (Throwable t) {
+            throw new ReflectiveOperationException("Cannot bind constructor of " + type.getName(), t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Function<Object, Object> getter(Method method) throws ReflectiveOperationException {
+        MethodHandle target = LOOKUP.unreflect(method);
+        try {
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    target,
+                    MethodType.methodType(boxed(method.getReturnType()), method.getDeclaringClass()));
+            return (Function<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable t) {
+            throw new ReflectiveOperationException("Cannot bind getter " + method, t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static BiConsumer<Object, Object> setter(Method method) throws ReflectiveOperationException {
+        MethodHandle target = LOOKUP.unreflect(method);
+        Class<?> parameterType = boxed(method.getParameterTypes()[0]);
+        try {
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    target,
+                    MethodType.methodType(void.class, method.getDeclaringClass(), parameterType));
+            return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable t) {
+            throw new ReflectiveOperationException("Cannot bind setter " + method, t);
+        }
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A DTO property bound to its JSON name, its accessors and its value codec.
+ * <p>
+ * Strings, numbers and booleans are read and written straight from the stream,
+ * other values are delegated to the gson adapter of the declared type. Decoded strings may be
+ * canonicalized through an {@link Interner}.
+ */
+final class BoundProperty {
+
+    private enum Kind {
+        STRING, INTEGER, LONG, DOUBLE, FLOAT, BOOLEAN, OBJECT
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final Function<Object, Object> getter;
+    private final BiConsumer<Object, Object> setter;
+    private final TypeAdapter<Object> adapter;
+    private final Interner<String> strings;
+
+    private BoundProperty(String name, Kind kind, Function<Object, Object> getter,
+                          BiConsumer<Object, Object> setter, TypeAdapter<Object> adapter, Interner<String> strings) {
+        this.name = name;
+        this.kind = kind;
+        this.getter = getter;
+        this.setter = setter;
+        this.adapter = adapter;
+        this.strings = strings;
+    }
+
+    @SuppressWarnings("unchecked")
+    static BoundProperty bind(Gson gson, Class<?> owner, Field field, Interner<String> strings) throws ReflectiveOperationException {
+        SerializedName serializedName = field.getAnnotation(SerializedName.class);
+        String name = serializedName != null ? serializedName.value() : field.getName();
+        Class<?> type = field.getType();
+
+        Method getter = findGetter(owner, field);
+        Method setter = owner.getMethod("set" + capitalize(field.getName()), type);
+
+        Kind kind = kindOf(type);
+        TypeAdapter<Object> adapter = kind == Kind.OBJECT
+                ? (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(field.getGenericType()))
+                : null;
+
+        return new BoundProperty(name, kind, Accessors.getter(getter), Accessors.setter(setter), adapter, strings);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void read(JsonReader in, Object instance) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            setter.accept(instance, null);
+            return;
+        }
+        switch (kind) {
+            case STRING:
+                String value = in.peek() == JsonToken.BOOLEAN ? Boolean.toString(in.nextBoolean()) : in.nextString();
+                setter.accept(instance, strings != null ? strings.intern(value) : value);
+                break;
+            case INTEGER:
+                setter.accept(instance, in.nextInt());
+                break;
+            case LONG:
+                setter.accept(instance, in.nextLong());
+                break;
+            case DOUBLE:
+                setter.accept(instance, in.nextDouble());
+                break;
+            case FLOAT:
+                setter.accept(instance, (float) in.nextDouble());
+                break;
+            case BOOLEAN:
+                setter.accept(instance, in.peek() == JsonToken.STRING
+                        ? Boolean.parseBoolean(in.nextString())
+                        : in.nextBoolean());
+                break;
+            default:
+                setter.accept(instance, adapter.read(in));
+                break;
+        }
+    }
+
+    void write(JsonWriter out, Object instance) throws IOException {
+        Object value = getter.apply(instance);
+        if (value == null) {
+            if (out.getSerializeNulls()) {
+                out.name(name);
+                out.nullValue();
+            }
+            return;
+        }
+        out.name(name);
+        switch (kind) {
+            case STRING:
+                out.value((String) value);
+                break;
+            case INTEGER:
+            case LONG:
+                out.value(((Number) value).longValue());
+                break;
+            case DOUBLE:
+            case FLOAT:
+                out.value((Number) value);
+                break;
+            case BOOLEAN:
+                out.value(((Boolean) value).booleanValue());
+                break;
+            default:
+                adapter.write(out, value);
+                break;
+        }
+    }
+
+    private static Kind kindOf(Class<?> type) {
+        if (type == String.class) {
+            return Kind.STRING;
+        } else if (type == Integer.class || type == int.class) {
+            return Kind.INTEGER;
+        } else if (type == Long.class || type == long.class) {
+            return Kind.LONG;
+        } else if (type == Double.class || type == double.class) {
+            return Kind.DOUBLE;
+        } else if (type == Float.class || type == float.class) {
+            return Kind.FLOAT;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return Kind.BOOLEAN;
+        }
+        return Kind.OBJECT;
+    }
+
+    private static Method findGetter(Class<?> owner, Field field) throws NoSuchMethodException {
+        String suffix = capitalize(field.getName());
+        try {
+            return owner.getMethod("get" + suffix);
+        } catch (NoSuchMethodException e) {
+            return owner.getMethod("is" + suffix);
+        }
+    }
+
+    private static String capitalize(String fieldName) {
+        return Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.json;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded canonicalizing table.
+ * <p>
+ * Values are stored in a fixed size, direct mapped table: an equal value found at the hash slot
+ * is returned instead of the given one, otherwise the given value takes the slot. Memory used by
+ * the table never grows, colliding values simply evict each other.
+ *
+ * @param <T> the interned type, which must be immutable or never mutated once interned
+ */
+public final class Interner<T> {
+
+    private final AtomicReferenceArray<T> table;
+    private final int mask;
+
+    public Interner(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.table = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the canonical instance for the given value
+     *
+     * @param value the value to canonicalize, may be null
+     * @return an equal instance previously interned, or the value itself
+     */
+    public T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        int hash = value.hashCode();
+        int index = (hash ^ (hash >>> 16)) & mask;
+        T cached = table.get(index);
+        if (cached != null && cached.hashCode() == hash && cached.equals(value)) {
+            return cached;
+        }
+        table.lazySet(index, value);
+        return value;
+    }
+
+    public int capacity() {
+        return table.length();
+    }
+}
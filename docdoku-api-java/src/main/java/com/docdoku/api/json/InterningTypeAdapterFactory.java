@@ -0,0 +1,114 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.json;
+
+import com.docdoku.api.models.UserDTO;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This factory canonicalizes strings and nested value objects while decoding.
+ * <p>
+ * Large list responses repeat the same users, workspace ids, types and so on. With this factory
+ * registered, equal values decoded from the same client share a single instance, kept in bounded
+ * {@link Interner} tables.
+ * <p>
+ * Interned DTOs are shared between all the objects that reference them: they must be treated as
+ * read only, copy them before any modification.
+ */
+public class InterningTypeAdapterFactory implements TypeAdapterFactory {
+
+    public static final int DEFAULT_STRINGS_CAPACITY = 1 << 14;
+    public static final int DEFAULT_VALUES_CAPACITY = 1 << 12;
+
+    private static final Set<Class<?>> DEFAULT_VALUE_TYPES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.<Class<?>>asList(UserDTO.class)));
+
+    private final Set<Class<?>> valueTypes;
+    private final Interner<String> strings;
+    private final Interner<Object> values;
+
+    public InterningTypeAdapterFactory() {
+        this(DEFAULT_VALUE_TYPES, DEFAULT_STRINGS_CAPACITY, DEFAULT_VALUES_CAPACITY);
+    }
+
+    /**
+     * @param valueTypes      DTO types to canonicalize, in addition to strings
+     * @param stringsCapacity size of the strings table
+     * @param valuesCapacity  size of the value objects table
+     */
+    public InterningTypeAdapterFactory(Set<Class<?>> valueTypes, int stringsCapacity, int valuesCapacity) {
+        this.valueTypes = new HashSet<>(valueTypes);
+        this.strings = new Interner<>(stringsCapacity);
+        this.values = new Interner<>(valuesCapacity);
+    }
+
+    /**
+     * The strings table, to be shared with adapters that read strings without gson
+     */
+    public Interner<String> getStringInterner() {
+        return strings;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType == String.class) {
+            return (TypeAdapter<T>) new InterningTypeAdapter<>(gson.getDelegateAdapter(this, (TypeToken<String>) type), strings);
+        }
+        if (valueTypes.contains(rawType)) {
+            return new InterningTypeAdapter<>(gson.getDelegateAdapter(this, type), (Interner<T>) values);
+        }
+        return null;
+    }
+
+    private static class InterningTypeAdapter<T> extends TypeAdapter<T> {
+
+        private final TypeAdapter<T> delegate;
+        private final Interner<T> interner;
+
+        InterningTypeAdapter(TypeAdapter<T> delegate, Interner<T> interner) {
+            this.delegate = delegate;
+            this.interner = interner;
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            return interner.intern(delegate.read(in));
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            delegate.write(out, value);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Streaming adapter for a single DTO class.
+ * <p>
+ * Properties are bound once from the class declaration, following the same rules as the gson
+ * reflective adapter (serialized names, static and transient fields excluded).
+ *
+ * @param <T> the DTO type
+ */
+final class ModelTypeAdapter<T> extends TypeAdapter<T> {
+
+    private final Supplier<T> constructor;
+    private final BoundProperty[] properties;
+    private final Map<String, BoundProperty> propertiesByName;
+
+    private ModelTypeAdapter(Supplier<T> constructor, List<BoundProperty> properties) {
+        this.constructor = constructor;
+        this.properties = properties.toArray(new BoundProperty[properties.size()]);
+        this.propertiesByName = new HashMap<>(properties.size() * 2);
+        for (BoundProperty property : properties) {
+            propertiesByName.put(property.getName(), property);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> TypeAdapter<T> bind(Gson gson, Class<? super T> type, Interner<String> strings) throws ReflectiveOperationException {
+        Supplier<T> constructor = Accessors.constructor((Class<T>) type);
+        List<BoundProperty> properties = new ArrayList<>();
+
+        for (Class<?> declaring = type; declaring != null && declaring != Object.class; declaring = declaring.getSuperclass()) {
+            for (Field field : declaring.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                properties.add(BoundProperty.bind(gson, type, field, strings));
+            }
+        }
+
+        return new ModelTypeAdapter<>(constructor, properties);
+    }
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        T instance = constructor.get();
+        in.beginObject();
+        while (in.hasNext()) {
+            BoundProperty property = propertiesByName.get(in.nextName());
+            if (property == null) {
+                in.skipValue();
+            } else {
+                property.read(in, instance);
+            }
+        }
+        in.endObject();
+        return instance;
+    }
+
+    @Override
+    public void write(JsonWriter out, T value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (BoundProperty property : properties) {
+            property.write(out, value);
+        }
+        out.endObject();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This factory provides dedicated streaming adapters for the generated DTOs of
+ * the <code>com.docdoku.api.models</code> package, in place of the Gson reflective adapter.
+ * <p>
+ * Each DTO adapter is bound once, on first use, then reads and writes JSON tokens
+ * directly through generated accessors.
+ */
+public class ModelTypeAdapterFactory implements TypeAdapterFactory {
+
+    private static final Logger LOGGER = Logger.getLogger(ModelTypeAdapterFactory.class.getName());
+
+    private static final String MODELS_PACKAGE = "com.docdoku.api.models";
+
+    private final Interner<String> strings;
+
+    public ModelTypeAdapterFactory() {
+        this(null);
+    }
+
+    /**
+     * @param strings table used to canonicalize decoded string properties, null to disable
+     */
+    public ModelTypeAdapterFactory(Interner<String> strings) {
+        this.strings = strings;
+    }
+
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+
+        if (!isModel(rawType)) {
+            return null;
+        }
+
+        try {
+            return ModelTypeAdapter.bind(gson, rawType, strings);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Let gson fall back on its reflective adapter
+            LOGGER.log(Level.FINE, "Cannot bind a streaming adapter for " + rawType.getName(), e);
+            return null;
+        }
+    }
+
+    private static boolean isModel(Class<?> rawType) {
+        return !rawType.isEnum()
+                && !rawType.isInterface()
+                && rawType.getPackage() != null
+                && MODELS_PACKAGE.equals(rawType.getPackage().getName());
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Flattened bill of materials of a product structure: the total quantity of each part under a
+ * root, amounts being multiplied along each path and summed over all the paths to the part.
+ * <p>
+ * Quantities reached through an optional link are kept apart from the mandatory ones. A part is
+ * flagged as a substitute when one of its links uses it in place of a nominal part.
+ * <p>
+ * Parts are grouped in levels where all the assemblies using a part come before it. The parts of
+ * a level pull their quantities from their assemblies independently, large levels being split
+ * between the threads of a fork-join pool.
+ */
+public class BomRollup {
+
+    private static final int SPLIT_THRESHOLD = 2048;
+
+    private final ProductStructureGraph graph;
+    private final int root;
+    private final int[] nodes;
+    private final double[] quantities;
+    private final double[] optionalQuantities;
+    private final boolean[] substitutes;
+    private final String[] units;
+
+    private final int[] parentOffsets;
+    private final int[] parentEdges;
+    private final int[] parents;
+
+    private BomRollup(ProductStructureGraph graph, int root) {
+        this.graph = graph;
+        this.root = root;
+        int size = graph.size();
+        this.quantities = new double[size];
+        this.optionalQuantities = new double[size];
+        this.substitutes = new boolean[size];
+        this.units = new String[size];
+
+        int[] reached = new int[size];
+        int[] count = {0};
+        graph.depthFirst(root, node -> reached[count[0]++] = node);
+        this.nodes = Arrays.copyOfRange(reached, 1, count[0]);
+
+        // Links from each part to the assemblies using it, in the compressed sparse row layout
+        parentOffsets = new int[size + 1];
+        for (int i = 0; i < count[0]; i++) {
+            int node = reached[i];
+            for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                parentOffsets[graph.getChild(edge) + 1]++;
+            }
+        }
+        for (int node = 0; node < size; node++) {
+            parentOffsets[node + 1] += parentOffsets[node];
+        }
+        int[] next = Arrays.copyOf(parentOffsets, size);
+        parentEdges = new int[parentOffsets[size]];
+        parents = new int[parentOffsets[size]];
+        for (int i = 0; i < count[0]; i++) {
+            int node = reached[i];
+            for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                int target = next[graph.getChild(edge)]++;
+                parentEdges[target] = edge;
+                parents[target] = node;
+            }
+        }
+    }
+
+    /**
+     * Roll up the quantities under a node, using the common fork-join pool
+     */
+    public static BomRollup of(ProductStructureGraph graph, int root) {
+        return of(graph, root, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Roll up the quantities under a node, large levels being split between the threads of a pool
+     */
+    public static BomRollup of(ProductStructureGraph graph, int root, ForkJoinPool pool) {
+        BomRollup rollup = new BomRollup(graph, root);
+        rollup.quantities[root] = 1;
+        int[] pending = new int[graph.size()];
+        for (int node : rollup.nodes) {
+            pending[node] = rollup.parentOffsets[node + 1] - rollup.parentOffsets[node];
+        }
+        int[] level = {root};
+        while (level.length > 0) {
+            if (level[0] != root) {
+                pool.invoke(rollup.new Pull(level, 0, level.length));
+            }
+            level = rollup.nextLevel(level, pending);
+        }
+        return rollup;
+    }
+
+    /**
+     * @return the parts whose assemblies are all in the given level or before
+     */
+    private int[] nextLevel(int[] level, int[] pending) {
+        int[] next = new int[16];
+        int count = 0;
+        for (int node : level) {
+            for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                int child = graph.getChild(edge);
+                if (--pending[child] == 0) {
+                    if (count == next.length) {
+                        next = Arrays.copyOf(next, count * 2);
+                    }
+                    next[count++] = child;
+                }
+            }
+        }
+        return Arrays.copyOf(next, count);
+    }
+
+    private void pull(int node) {
+        double quantity = 0;
+        double optionalQuantity = 0;
+        boolean substitute = false;
+        String unit = null;
+        for (int i = parentOffsets[node]; i < parentOffsets[node + 1]; i++) {
+            int edge = parentEdges[i];
+            int parent = parents[i];
+            double amount = graph.getAmount(edge);
+            if (graph.isOptional(edge)) {
+                optionalQuantity += (quantities[parent] + optionalQuantities[parent]) * amount;
+            } else {
+                quantity += quantities[parent] * amount;
+                optionalQuantity += optionalQuantities[parent] * amount;
+            }
+            substitute |= graph.isSubstitute(edge);
+            if (unit == null) {
+                unit = graph.getUnit(edge);
+            }
+        }
+        quantities[node] = quantity;
+        optionalQuantities[node] = optionalQuantity;
+        substitutes[node] = substitute;
+        units[node] = unit;
+    }
+
+    /**
+     * Pull the quantities of a range of a level, each part being written by a single task
+     */
+    private class Pull extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] level;
+        private final int from;
+        private final int to;
+
+        Pull(int[] level, int from, int to) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    pull(level[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Pull(level, from, middle), new Pull(level, middle, to));
+        }
+    }
+
+    public ProductStructureGraph getGraph() {
+        return graph;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the parts under the root, once each, in depth first order
+     */
+    public int[] getNodes() {
+        return nodes.clone();
+    }
+
+    /**
+     * @return the quantity of a part for one root, through mandatory links only
+     */
+    public double getQuantity(int node) {
+        return quantities[node];
+    }
+
+    /**
+     * @return the additional quantity of a part for one root, through paths with an optional link
+     */
+    public double getOptionalQuantity(int node) {
+        return optionalQuantities[node];
+    }
+
+    public boolean isSubstitute(int node) {
+        return substitutes[node];
+    }
+
+    /**
+     * @return the unit of the quantity of a part, null for a number of occurrences
+     */
+    public String getUnit(int node) {
+        return units[node];
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import com.docdoku.api.models.ComponentDTO;
+import com.docdoku.api.models.EffectivityDTO;
+import com.docdoku.api.models.PartIterationDTO;
+import com.docdoku.api.models.PartRevisionDTO;
+import com.docdoku.api.models.PartSubstituteLinkDTO;
+import com.docdoku.api.models.PartUsageLinkDTO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filter product structures by effectivity without a request to the server for each configuration.
+ * <p>
+ * The revisions of the parts and the effectivities of each revision are given once, then structures
+ * are filtered locally for any serial number, date or lot. For each part, the latest revision
+ * effective for the product in the given context is kept, with its last iteration. A usage link
+ * whose part has no effective revision is replaced by its first effective substitute, or left out.
+ * <p>
+ * Revisions and effectivities can be added by concurrent threads, but not while filtering.
+ */
+public class EffectivityFilter {
+
+    private static final Comparator<String> VERSION_ORDER =
+            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    private final String productId;
+    private final Map<String, List<PartRevisionDTO>> revisions = new ConcurrentHashMap<>();
+    private final Map<String, List<EffectivityDTO>> effectivities = new ConcurrentHashMap<>();
+
+    /**
+     * @param productId the configuration item whose effectivities apply
+     */
+    public EffectivityFilter(String productId) {
+        this.productId = productId;
+    }
+
+    public void addRevision(PartRevisionDTO partRevision) {
+        revisions.compute(partRevision.getNumber(), (number, known) -> {
+            List<PartRevisionDTO> all = known != null ? new ArrayList<>(known) : new ArrayList<>();
+            all.removeIf(revision -> revision.getVersion().equals(partRevision.getVersion()));
+            all.add(partRevision);
+            all.sort(Comparator.comparing(PartRevisionDTO::getVersion, VERSION_ORDER));
+            return all;
+        });
+    }
+
+    /**
+     * @return the revisions of a part, oldest first
+     */
+    public List<PartRevisionDTO> getRevisions(String number) {
+        return revisions.getOrDefault(number, Collections.emptyList());
+    }
+
+    public void setEffectivities(String number, String version, List<EffectivityDTO> partEffectivities) {
+        effectivities.put(number + "-" + version, partEffectivities != null ? partEffectivities : Collections.emptyList());
+    }
+
+    /**
+     * @return false if the effectivities of a revision were never set
+     */
+    public boolean hasEffectivities(String number, String version) {
+        return effectivities.containsKey(number + "-" + version);
+    }
+
+    /**
+     * Filter the structure of a part
+     *
+     * @return the structure as returned by the structure filtering services, or null if no revision
+     * of the part is effective
+     */
+    public ComponentDTO filter(String number, Context context) {
+        Map<String, PartRevisionDTO> chosen = new HashMap<>();
+        PartRevisionDTO root = choose(number, context, chosen);
+        if (root == null) {
+            return null;
+        }
+        ComponentDTO component = component(root);
+        component.setAmount(1.0);
+        component.setOptional(false);
+        component.setSubstitute(false);
+        expand(component, root, context, chosen, new HashSet<>());
+        return component;
+    }
+
+    private void expand(ComponentDTO component, PartRevisionDTO partRevision, Context context,
+                        Map<String, PartRevisionDTO> chosen, Set<String> path) {
+        List<ComponentDTO> components = new ArrayList<>();
+        component.setComponents(components);
+        PartIterationDTO iteration = LastIterationHelper.getLastIteration(partRevision);
+        if (iteration.getComponents() == null || !path.add(partRevision.getNumber())) {
+            component.setAssembly(false);
+            return;
+        }
+        for (PartUsageLinkDTO link : iteration.getComponents()) {
+            ComponentDTO child = null;
+            PartRevisionDTO childRevision = choose(link.getComponent().getNumber(), context, chosen);
+            if (childRevision != null) {
+                child = component(childRevision);
+                child.setAmount(link.getAmount());
+                child.setUnit(link.getUnit());
+                child.setSubstitute(false);
+            } else if (link.getSubstitutes() != null) {
+                for (PartSubstituteLinkDTO substitute : link.getSubstitutes()) {
+                    childRevision = choose(substitute.getSubstitute().getNumber(), context, chosen);
+                    if (childRevision != null) {
+                        child = component(childRevision);
+                        child.setAmount(substitute.getAmount());
+                        child.setUnit(substitute.getUnit());
+                        child.setSubstitute(true);
+                        break;
+                    }
+                }
+            }
+            if (child != null) {
+                child.setOptional(Boolean.TRUE.equals(link.getOptional()));
+                child.setPartUsageLinkReferenceDescription(link.getReferenceDescription());
+                expand(child, childRevision, context, chosen, path);
+                components.add(child);
+            }
+        }
+        component.setAssembly(!components.isEmpty());
+        path.remove(partRevision.getNumber());
+    }
+
+    private static ComponentDTO component(PartRevisionDTO partRevision) {
+        ComponentDTO component = new ComponentDTO();
+        component.setNumber(partRevision.getNumber());
+        component.setVersion(partRevision.getVersion());
+        component.setName(partRevision.getName());
+        component.setIteration(LastIterationHelper.getLastIteration(partRevision).getIteration());
+        return component;
+    }
+
+    /**
+     * @return the latest effective revision of a part, or null if none
+     */
+    private PartRevisionDTO choose(String number, Context context, Map<String, PartRevisionDTO> chosen) {
+        if (chosen.containsKey(number)) {
+            return chosen.get(number);
+        }
+        PartRevisionDTO effective = null;
+        for (PartRevisionDTO partRevision : getRevisions(number)) {
+            if (partRevision.getPartIterations() != null && !partRevision.getPartIterations().isEmpty()
+                    && isEffective(partRevision, context)) {
+                effective = partRevision;
+            }
+        }
+        chosen.put(number, effective);
+        return effective;
+    }
+
+    private boolean isEffective(PartRevisionDTO partRevision, Context context) {
+        List<EffectivityDTO> revisionEffectivities = effectivities.get(partRevision.getNumber() + "-" + partRevision.getVersion());
+        if (revisionEffectivities == null) {
+            return false;
+        }
+        for (EffectivityDTO effectivity : revisionEffectivities) {
+            if ((effectivity.getConfigurationItemKey() == null || productId.equals(effectivity.getConfigurationItemKey().getId()))
+                    && context.matches(effectivity)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A serial number, a date or a lot to evaluate effectivities against
+     */
+    public static final class Context {
+
+        private final EffectivityDTO.TypeEffectivityEnum type;
+        private final String value;
+        private final Date date;
+
+        private Context(EffectivityDTO.TypeEffectivityEnum type, String value, Date date) {
+            this.type = type;
+            this.value = value;
+            this.date = date;
+        }
+
+        public static Context serialNumber(String serialNumber) {
+            return new Context(EffectivityDTO.TypeEffectivityEnum.SERIALNUMBERBASEDEFFECTIVITY, serialNumber, null);
+        }
+
+        public static Context date(Date date) {
+            return new Context(EffectivityDTO.TypeEffectivityEnum.DATEBASEDEFFECTIVITY, null, date);
+        }
+
+        public static Context lot(String lotId) {
+            return new Context(EffectivityDTO.TypeEffectivityEnum.LOTBASEDEFFECTIVITY, lotId, null);
+        }
+
+        boolean matches(EffectivityDTO effectivity) {
+            if (effectivity.getTypeEffectivity() != type) {
+                return false;
+            }
+            switch (type) {
+                case SERIALNUMBERBASEDEFFECTIVITY:
+                    return isInRange(value, effectivity.getStartNumber(), effectivity.getEndNumber());
+                case LOTBASEDEFFECTIVITY:
+                    return isInRange(value, effectivity.getStartLotId(), effectivity.getEndLotId());
+                case DATEBASEDEFFECTIVITY:
+                    return effectivity.getStartDate() != null && !date.before(effectivity.getStartDate())
+                            && (effectivity.getEndDate() == null || !date.after(effectivity.getEndDate()));
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * An end left empty leaves the range open
+         */
+        private static boolean isInRange(String value, String start, String end) {
+            return start != null && compare(value, start) >= 0 && (end == null || compare(value, end) <= 0);
+        }
+
+        /**
+         * Compare numbers by value, and other identifiers alphabetically
+         */
+        static int compare(String a, String b) {
+            if (isNumber(a) && isNumber(b)) {
+                String x = stripZeros(a);
+                String y = stripZeros(b);
+                return x.length() != y.length() ? Integer.compare(x.length(), y.length()) : x.compareTo(y);
+            }
+            return a.compareTo(b);
+        }
+
+        private static boolean isNumber(String value) {
+            if (value.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (!Character.isDigit(value.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String stripZeros(String number) {
+            int start = 0;
+            while (start < number.length() - 1 && number.charAt(start) == '0') {
+                start++;
+            }
+            return number.substring(start);
+        }
+
+        @Override
+        public String toString() {
+            return date != null ? date.toString() : value;
+        }
+    }
+}
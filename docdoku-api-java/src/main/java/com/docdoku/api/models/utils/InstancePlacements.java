@@ -0,0 +1,412 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import com.docdoku.api.models.CADInstanceDTO;
+import com.docdoku.api.models.PartIterationDTO;
+import com.docdoku.api.models.PartSubstituteLinkDTO;
+import com.docdoku.api.models.PartUsageLinkDTO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * World placements of the leaf instances of a product structure.
+ * <p>
+ * Each CAD instance of a usage link is placed relative to its assembly: it is rotated around x, y
+ * then z, or by its rotation matrix, then translated. Placements are composed down the structure
+ * one depth at a time, for every path from the root.
+ * <p>
+ * Transforms are affine 3x4 matrices stored row by row, 12 consecutive doubles of a primitive array
+ * per instance. The instances of a depth are split between the threads of a fork-join pool, each
+ * writing its own range of the next depth.
+ */
+public class InstancePlacements {
+
+    /**
+     * Doubles per transform
+     */
+    public static final int STRIDE = 12;
+
+    private static final int SPLIT_THRESHOLD = 1024;
+    private static final double[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0};
+
+    private final ProductStructureGraph graph;
+    private final int[] instanceOffsets;
+    private final int[] instanceIds;
+    private final double[] localTransforms;
+
+    // Parent and CAD instance of the occurrences of each depth, to rebuild the paths
+    private final List<int[]> parents = new ArrayList<>();
+    private final List<int[]> instances = new ArrayList<>();
+
+    private int[] leafNodes = new int[0];
+    private int[] leafDepths = new int[0];
+    private int[] leafOccurrences = new int[0];
+    private double[] leafTransforms = new double[0];
+    private int leafCount;
+
+    private InstancePlacements(ProductStructureGraph graph, int[] instanceOffsets, int[] instanceIds,
+                               double[] localTransforms) {
+        this.graph = graph;
+        this.instanceOffsets = instanceOffsets;
+        this.instanceIds = instanceIds;
+        this.localTransforms = localTransforms;
+    }
+
+    public static Builder builder(ProductStructureGraph graph) {
+        return new Builder(graph);
+    }
+
+    public ProductStructureGraph getGraph() {
+        return graph;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * @return the graph node of the part of a leaf instance
+     */
+    public int getNode(int leaf) {
+        return leafNodes[leaf];
+    }
+
+    /**
+     * @return the transforms of all the leaf instances, STRIDE doubles each
+     */
+    public double[] getTransforms() {
+        return Arrays.copyOf(leafTransforms, leafCount * STRIDE);
+    }
+
+    /**
+     * Copy the world transform of a leaf instance, row by row
+     */
+    public void getTransform(int leaf, double[] target, int offset) {
+        System.arraycopy(leafTransforms, leaf * STRIDE, target, offset, STRIDE);
+    }
+
+    /**
+     * @return the ids of the CAD instances from the root to a leaf instance
+     */
+    public int[] getPath(int leaf) {
+        int depth = leafDepths[leaf];
+        int[] path = new int[depth];
+        int occurrence = leafOccurrences[leaf];
+        for (int d = depth; d > 0; d--) {
+            path[d - 1] = instanceIds[instances.get(d)[occurrence]];
+            occurrence = parents.get(d)[occurrence];
+        }
+        return path;
+    }
+
+    /**
+     * @return the smallest box holding the origins of the leaf instances, as min x, y, z then max
+     * x, y, z, or null without any leaf
+     */
+    public double[] getBounds() {
+        if (leafCount == 0) {
+            return null;
+        }
+        double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+                -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+            for (int axis = 0; axis < 3; axis++) {
+                double origin = leafTransforms[leaf * STRIDE + axis * 4 + 3];
+                bounds[axis] = Math.min(bounds[axis], origin);
+                bounds[axis + 3] = Math.max(bounds[axis + 3], origin);
+            }
+        }
+        return bounds;
+    }
+
+    private void compute(int root, ForkJoinPool pool) {
+        int[] nodes = {root};
+        double[] transforms = IDENTITY.clone();
+        parents.add(new int[]{-1});
+        instances.add(new int[]{-1});
+        int depth = 0;
+        while (nodes.length > 0) {
+            collectLeaves(depth, nodes, transforms);
+
+            int[] offsets = new int[nodes.length + 1];
+            for (int i = 0; i < nodes.length; i++) {
+                int node = nodes[i];
+                offsets[i + 1] = offsets[i] + instanceOffsets[graph.endEdge(node)] - instanceOffsets[graph.firstEdge(node)];
+            }
+            int count = offsets[nodes.length];
+            Level next = new Level(nodes, transforms, offsets, count);
+            if (count > 0) {
+                pool.invoke(new Compose(next, 0, nodes.length));
+            }
+            parents.add(next.parents);
+            instances.add(next.instances);
+            nodes = next.nodes;
+            transforms = next.transforms;
+            depth++;
+        }
+    }
+
+    private void collectLeaves(int depth, int[] nodes, double[] transforms) {
+        for (int i = 0; i < nodes.length; i++) {
+            if (!graph.isLeaf(nodes[i])) {
+                continue;
+            }
+            if (leafCount == leafNodes.length) {
+                int capacity = Math.max(16, leafCount * 2);
+                leafNodes = Arrays.copyOf(leafNodes, capacity);
+                leafDepths = Arrays.copyOf(leafDepths, capacity);
+                leafOccurrences = Arrays.copyOf(leafOccurrences, capacity);
+                leafTransforms = Arrays.copyOf(leafTransforms, capacity * STRIDE);
+            }
+            leafNodes[leafCount] = nodes[i];
+            leafDepths[leafCount] = depth;
+            leafOccurrences[leafCount] = i;
+            System.arraycopy(transforms, i * STRIDE, leafTransforms, leafCount * STRIDE, STRIDE);
+            leafCount++;
+        }
+    }
+
+    /**
+     * The occurrences of a depth, and those of the next depth being computed
+     */
+    private static class Level {
+
+        final int[] previousNodes;
+        final double[] previousTransforms;
+        final int[] offsets;
+        final int[] nodes;
+        final double[] transforms;
+        final int[] parents;
+        final int[] instances;
+
+        Level(int[] previousNodes, double[] previousTransforms, int[] offsets, int count) {
+            this.previousNodes = previousNodes;
+            this.previousTransforms = previousTransforms;
+            this.offsets = offsets;
+            this.nodes = new int[count];
+            this.transforms = new double[count * STRIDE];
+            this.parents = new int[count];
+            this.instances = new int[count];
+        }
+    }
+
+    /**
+     * Place the CAD instances under a range of occurrences
+     */
+    private class Compose extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Level level;
+        private final int from;
+        private final int to;
+
+        Compose(Level level, int from, int to) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && level.offsets[to] - level.offsets[from] > SPLIT_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Compose(level, from, middle), new Compose(level, middle, to));
+                return;
+            }
+            for (int occurrence = from; occurrence < to; occurrence++) {
+                int node = level.previousNodes[occurrence];
+                int target = level.offsets[occurrence];
+                for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                    int child = graph.getChild(edge);
+                    for (int instance = instanceOffsets[edge]; instance < instanceOffsets[edge + 1]; instance++, target++) {
+                        level.nodes[target] = child;
+                        level.parents[target] = occurrence;
+                        level.instances[target] = instance;
+                        multiply(level.previousTransforms, occurrence * STRIDE, localTransforms, instance * STRIDE,
+                                level.transforms, target * STRIDE);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiply two affine transforms, the last row of both being 0 0 0 1
+     */
+    static void multiply(double[] a, int i, double[] b, int j, double[] result, int k) {
+        for (int row = 0; row < 3; row++) {
+            double a0 = a[i + row * 4];
+            double a1 = a[i + row * 4 + 1];
+            double a2 = a[i + row * 4 + 2];
+            result[k + row * 4] = a0 * b[j] + a1 * b[j + 4] + a2 * b[j + 8];
+            result[k + row * 4 + 1] = a0 * b[j + 1] + a1 * b[j + 5] + a2 * b[j + 9];
+            result[k + row * 4 + 2] = a0 * b[j + 2] + a1 * b[j + 6] + a2 * b[j + 10];
+            result[k + row * 4 + 3] = a0 * b[j + 3] + a1 * b[j + 7] + a2 * b[j + 11] + a[i + row * 4 + 3];
+        }
+    }
+
+    /**
+     * Collects the CAD instances of the usage links of a graph
+     */
+    public static class Builder {
+
+        private final ProductStructureGraph graph;
+        private final List<List<CADInstanceDTO>> edgeInstances;
+
+        private Builder(ProductStructureGraph graph) {
+            this.graph = graph;
+            this.edgeInstances = new ArrayList<>(graph.getEdgeCount());
+            for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+                edgeInstances.add(null);
+            }
+        }
+
+        /**
+         * Set the CAD instances of the links of a part iteration. A link whose part is not used by
+         * the part in the graph gives the instances of its substitute which is. Links without CAD
+         * instances place nothing.
+         */
+        public Builder add(PartIterationDTO iteration) {
+            int parent = graph.getNode(iteration.getNumber());
+            if (parent < 0 || iteration.getComponents() == null) {
+                return this;
+            }
+            for (PartUsageLinkDTO link : iteration.getComponents()) {
+                int edge = findEdge(parent, link.getComponent().getNumber());
+                if (edge >= 0) {
+                    setInstances(edge, link.getCadInstances());
+                    continue;
+                }
+                if (link.getSubstitutes() == null) {
+                    continue;
+                }
+                for (PartSubstituteLinkDTO substitute : link.getSubstitutes()) {
+                    edge = findEdge(parent, substitute.getSubstitute().getNumber());
+                    if (edge >= 0) {
+                        setInstances(edge, substitute.getCadInstances());
+                        break;
+                    }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Set the CAD instances of an edge of the graph
+         */
+        public Builder setInstances(int edge, List<CADInstanceDTO> instances) {
+            edgeInstances.set(edge, instances);
+            return this;
+        }
+
+        /**
+         * Compute the placements of the leaf instances under a root, using the common fork-join pool
+         */
+        public InstancePlacements build(int root) {
+            return build(root, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Compute the placements of the leaf instances under a root, large depths being split between
+         * the threads of a pool
+         */
+        public InstancePlacements build(int root, ForkJoinPool pool) {
+            int edges = graph.getEdgeCount();
+            int[] offsets = new int[edges + 1];
+            for (int edge = 0; edge < edges; edge++) {
+                List<CADInstanceDTO> instances = edgeInstances.get(edge);
+                offsets[edge + 1] = offsets[edge] + (instances != null ? instances.size() : 0);
+            }
+            int[] ids = new int[offsets[edges]];
+            double[] transforms = new double[offsets[edges] * STRIDE];
+            for (int edge = 0; edge < edges; edge++) {
+                List<CADInstanceDTO> instances = edgeInstances.get(edge);
+                for (int i = offsets[edge]; i < offsets[edge + 1]; i++) {
+                    CADInstanceDTO instance = instances.get(i - offsets[edge]);
+                    ids[i] = instance.getId() != null ? instance.getId() : -1;
+                    toTransform(instance, transforms, i * STRIDE);
+                }
+            }
+            InstancePlacements placements = new InstancePlacements(graph, offsets, ids, transforms);
+            placements.compute(root, pool);
+            return placements;
+        }
+
+        private int findEdge(int parent, String number) {
+            for (int edge = graph.firstEdge(parent); edge < graph.endEdge(parent); edge++) {
+                if (graph.getNumber(graph.getChild(edge)).equals(number)) {
+                    return edge;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Write the local transform of a CAD instance
+     */
+    static void toTransform(CADInstanceDTO instance, double[] target, int offset) {
+        double[] rotation;
+        if (instance.getRotationType() == CADInstanceDTO.RotationTypeEnum.MATRIX && instance.getRotationMatrix() != null) {
+            List<Double> values = instance.getRotationMatrix().getValues();
+            rotation = new double[9];
+            for (int i = 0; i < 9; i++) {
+                rotation[i] = values.get(i);
+            }
+        } else {
+            rotation = rotationZYX(value(instance.getRx()), value(instance.getRy()), value(instance.getRz()));
+        }
+        double[] translation = {value(instance.getTx()), value(instance.getTy()), value(instance.getTz())};
+        for (int row = 0; row < 3; row++) {
+            target[offset + row * 4] = rotation[row * 3];
+            target[offset + row * 4 + 1] = rotation[row * 3 + 1];
+            target[offset + row * 4 + 2] = rotation[row * 3 + 2];
+            target[offset + row * 4 + 3] = translation[row];
+        }
+    }
+
+    /**
+     * @return the 3x3 matrix of the rotation around x, then y, then z, row by row
+     */
+    private static double[] rotationZYX(double rx, double ry, double rz) {
+        double cx = Math.cos(rx);
+        double sx = Math.sin(rx);
+        double cy = Math.cos(ry);
+        double sy = Math.sin(ry);
+        double cz = Math.cos(rz);
+        double sz = Math.sin(rz);
+        return new double[]{
+                cz * cy, cz * sy * sx - sz * cx, cz * sy * cx + sz * sx,
+                sz * cy, sz * sy * sx + cz * cx, sz * sy * cx - cz * sx,
+                -sy, cy * sx, cy * cx
+        };
+    }
+
+    private static double value(Double value) {
+        return value != null ? value : 0;
+    }
+}
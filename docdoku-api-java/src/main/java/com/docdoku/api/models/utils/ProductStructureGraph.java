@@ -0,0 +1,423 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import com.docdoku.api.models.ComponentDTO;
+import com.docdoku.api.models.PartIterationDTO;
+import com.docdoku.api.models.PartUsageLinkDTO;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Compact, immutable product structure, built from structure responses.
+ * <p>
+ * Nodes are part masters numbered from 0, a filtered structure resolving a single revision of each
+ * part. The usage links of a node are stored as consecutive edges of primitive arrays, in the
+ * compressed sparse row layout: the edges of node n range from {@link #firstEdge(int)} to
+ * {@link #endEdge(int)}, each with its child, amount, unit and flags. Shared sub assemblies are stored once,
+ * whatever the number of their occurrences.
+ * <p>
+ * Traversals visit each node reachable from a root once, without recursion.
+ */
+public class ProductStructureGraph {
+
+    private final String[] numbers;
+    private final String[] versions;
+    private final String[] names;
+    private final int[] offsets;
+    private final int[] children;
+    private final double[] amounts;
+    private final int[] units;
+    private final BitSet optional;
+    private final BitSet substitute;
+    private final String[] unitNames;
+    private final Map<String, Integer> nodesByNumber;
+
+    private ProductStructureGraph(String[] numbers, String[] versions, String[] names, int[] offsets, int[] children,
+                                  double[] amounts, int[] units, BitSet optional, BitSet substitute,
+                                  String[] unitNames) {
+        this.numbers = numbers;
+        this.versions = versions;
+        this.names = names;
+        this.offsets = offsets;
+        this.children = children;
+        this.amounts = amounts;
+        this.units = units;
+        this.optional = optional;
+        this.substitute = substitute;
+        this.unitNames = unitNames;
+        this.nodesByNumber = new HashMap<>(numbers.length * 2);
+        for (int node = 0; node < numbers.length; node++) {
+            nodesByNumber.put(numbers[node], node);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Number of nodes
+     */
+    public int size() {
+        return numbers.length;
+    }
+
+    public int getEdgeCount() {
+        return children.length;
+    }
+
+    /**
+     * @return the node of a part number, or -1 if not in the structure
+     */
+    public int getNode(String number) {
+        Integer node = nodesByNumber.get(number);
+        return node != null ? node : -1;
+    }
+
+    public String getNumber(int node) {
+        return numbers[node];
+    }
+
+    public String getVersion(int node) {
+        return versions[node];
+    }
+
+    public String getName(int node) {
+        return names[node];
+    }
+
+    public int getChildCount(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    public boolean isLeaf(int node) {
+        return offsets[node + 1] == offsets[node];
+    }
+
+    public int firstEdge(int node) {
+        return offsets[node];
+    }
+
+    /**
+     * @return the edge following the last edge of a node
+     */
+    public int endEdge(int node) {
+        return offsets[node + 1];
+    }
+
+    public int getChild(int edge) {
+        return children[edge];
+    }
+
+    public double getAmount(int edge) {
+        return amounts[edge];
+    }
+
+    /**
+     * @return the unit of the amount of an edge, null for a number of occurrences
+     */
+    public String getUnit(int edge) {
+        return units[edge] >= 0 ? unitNames[units[edge]] : null;
+    }
+
+    public boolean isOptional(int edge) {
+        return optional.get(edge);
+    }
+
+    /**
+     * @return true if the child of an edge is used in place of the nominal part of the link
+     */
+    public boolean isSubstitute(int edge) {
+        return substitute.get(edge);
+    }
+
+    /**
+     * @return the nodes used by no other node
+     */
+    public int[] getRoots() {
+        BitSet used = new BitSet(numbers.length);
+        for (int child : children) {
+            used.set(child);
+        }
+        int[] roots = new int[numbers.length - used.cardinality()];
+        int count = 0;
+        for (int node = used.nextClearBit(0); node < numbers.length; node = used.nextClearBit(node + 1)) {
+            roots[count++] = node;
+        }
+        return roots;
+    }
+
+    /**
+     * Visit the nodes reachable from a root in depth first pre-order, children in link order
+     */
+    public void depthFirst(int root, IntConsumer visitor) {
+        BitSet visited = new BitSet(numbers.length);
+        int[] stack = new int[Math.max(16, children.length + 1)];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            if (visited.get(node)) {
+                continue;
+            }
+            visited.set(node);
+            visitor.accept(node);
+            // Pushed in reverse, so that the first child is visited first
+            for (int edge = offsets[node + 1] - 1; edge >= offsets[node]; edge--) {
+                if (!visited.get(children[edge])) {
+                    stack[top++] = children[edge];
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit the nodes reachable from a root in breadth first order
+     */
+    public void breadthFirst(int root, IntConsumer visitor) {
+        for (int[] level : getLevels(root)) {
+            for (int node : level) {
+                visitor.accept(node);
+            }
+        }
+    }
+
+    /**
+     * Group the nodes reachable from a root by their smallest depth, the root being alone at depth 0
+     */
+    public List<int[]> getLevels(int root) {
+        List<int[]> levels = new ArrayList<>();
+        BitSet visited = new BitSet(numbers.length);
+        visited.set(root);
+        int[] level = {root};
+        while (level.length > 0) {
+            levels.add(level);
+            int[] next = new int[16];
+            int count = 0;
+            for (int node : level) {
+                for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+                    int child = children[edge];
+                    if (!visited.get(child)) {
+                        visited.set(child);
+                        if (count == next.length) {
+                            next = Arrays.copyOf(next, count * 2);
+                        }
+                        next[count++] = child;
+                    }
+                }
+            }
+            level = Arrays.copyOf(next, count);
+        }
+        return levels;
+    }
+
+    /**
+     * Extract the structure of a sub assembly, whose nodes are numbered again from 0 for its root
+     */
+    public ProductStructureGraph subgraph(int root) {
+        int[] mapping = new int[numbers.length];
+        Arrays.fill(mapping, -1);
+        int[] order = new int[numbers.length];
+        int[] count = {0};
+        breadthFirst(root, node -> {
+            mapping[node] = count[0];
+            order[count[0]++] = node;
+        });
+
+        int size = count[0];
+        String[] subNumbers = new String[size];
+        String[] subVersions = new String[size];
+        String[] subNames = new String[size];
+        int[] subOffsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            int node = order[i];
+            subNumbers[i] = numbers[node];
+            subVersions[i] = versions[node];
+            subNames[i] = names[node];
+            subOffsets[i + 1] = subOffsets[i] + getChildCount(node);
+        }
+        int edges = subOffsets[size];
+        int[] subChildren = new int[edges];
+        double[] subAmounts = new double[edges];
+        int[] subUnits = new int[edges];
+        BitSet subOptional = new BitSet(edges);
+        BitSet subSubstitute = new BitSet(edges);
+        for (int i = 0; i < size; i++) {
+            int node = order[i];
+            int target = subOffsets[i];
+            for (int edge = offsets[node]; edge < offsets[node + 1]; edge++, target++) {
+                subChildren[target] = mapping[children[edge]];
+                subAmounts[target] = amounts[edge];
+                subUnits[target] = units[edge];
+                subOptional.set(target, optional.get(edge));
+                subSubstitute.set(target, substitute.get(edge));
+            }
+        }
+        return new ProductStructureGraph(subNumbers, subVersions, subNames, subOffsets, subChildren,
+                subAmounts, subUnits, subOptional, subSubstitute, unitNames);
+    }
+
+    /**
+     * Collects nodes and usage links, then lays them out in arrays
+     */
+    public static class Builder {
+
+        private final Map<String, Integer> nodes = new HashMap<>();
+        private final List<String> numbers = new ArrayList<>();
+        private final List<String> versions = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final BitSet expanded = new BitSet();
+        private final Map<String, Integer> unitIndexes = new HashMap<>();
+        private final List<String> unitNames = new ArrayList<>();
+
+        private int[] from = new int[64];
+        private int[] to = new int[64];
+        private double[] amounts = new double[64];
+        private int[] units = new int[64];
+        private final BitSet optional = new BitSet();
+        private final BitSet substitute = new BitSet();
+        private int edges;
+
+        private Builder() {
+        }
+
+        /**
+         * Add a structure as returned by the structure filtering services. A node whose children
+         * were already added keeps them, the other occurrences of a sub assembly being skipped.
+         */
+        public Builder add(ComponentDTO root) {
+            Deque<ComponentDTO> pending = new ArrayDeque<>();
+            node(root.getNumber(), root.getVersion(), root.getName());
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                ComponentDTO component = pending.pop();
+                List<ComponentDTO> components = component.getComponents();
+                int parent = node(component.getNumber(), component.getVersion(), component.getName());
+                if (components == null || components.isEmpty() || expanded.get(parent)) {
+                    continue;
+                }
+                expanded.set(parent);
+                for (ComponentDTO child : components) {
+                    int node = node(child.getNumber(), child.getVersion(), child.getName());
+                    edge(parent, node, child.getAmount(), child.getUnit(), Boolean.TRUE.equals(child.getOptional()),
+                            Boolean.TRUE.equals(child.getSubstitute()));
+                    pending.push(child);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Add the usage links of a part iteration, unless the children of the part were already added
+         */
+        public Builder add(PartIterationDTO iteration) {
+            int parent = node(iteration.getNumber(), iteration.getVersion(), null);
+            List<PartUsageLinkDTO> links = iteration.getComponents();
+            if (links == null || links.isEmpty() || expanded.get(parent)) {
+                return this;
+            }
+            expanded.set(parent);
+            for (PartUsageLinkDTO link : links) {
+                ComponentDTO component = link.getComponent();
+                int node = node(component.getNumber(), component.getVersion(), component.getName());
+                edge(parent, node, link.getAmount(), link.getUnit(), Boolean.TRUE.equals(link.getOptional()), false);
+            }
+            return this;
+        }
+
+        public ProductStructureGraph build() {
+            int size = numbers.size();
+            int[] offsets = new int[size + 1];
+            for (int i = 0; i < edges; i++) {
+                offsets[from[i] + 1]++;
+            }
+            for (int node = 0; node < size; node++) {
+                offsets[node + 1] += offsets[node];
+            }
+            // Counting sort by parent, links keeping their order
+            int[] next = Arrays.copyOf(offsets, size);
+            int[] children = new int[edges];
+            double[] edgeAmounts = new double[edges];
+            int[] edgeUnits = new int[edges];
+            BitSet edgeOptional = new BitSet(edges);
+            BitSet edgeSubstitute = new BitSet(edges);
+            for (int i = 0; i < edges; i++) {
+                int target = next[from[i]]++;
+                children[target] = to[i];
+                edgeAmounts[target] = amounts[i];
+                edgeUnits[target] = units[i];
+                edgeOptional.set(target, optional.get(i));
+                edgeSubstitute.set(target, substitute.get(i));
+            }
+            return new ProductStructureGraph(numbers.toArray(new String[size]), versions.toArray(new String[size]),
+                    names.toArray(new String[size]), offsets, children, edgeAmounts, edgeUnits, edgeOptional,
+                    edgeSubstitute, unitNames.toArray(new String[unitNames.size()]));
+        }
+
+        private int node(String number, String version, String name) {
+            Integer node = nodes.get(number);
+            if (node == null) {
+                node = numbers.size();
+                nodes.put(number, node);
+                numbers.add(number);
+                versions.add(version);
+                names.add(name);
+                return node;
+            }
+            if (version != null && versions.get(node) == null) {
+                versions.set(node, version);
+            }
+            if (name != null && names.get(node) == null) {
+                names.set(node, name);
+            }
+            return node;
+        }
+
+        private void edge(int parent, int child, Double amount, String unit, boolean isOptional, boolean isSubstitute) {
+            if (edges == from.length) {
+                int capacity = edges * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                units = Arrays.copyOf(units, capacity);
+            }
+            from[edges] = parent;
+            to[edges] = child;
+            amounts[edges] = amount != null ? amount : 1;
+            units[edges] = unit == null || unit.isEmpty() ? -1 : unitIndexes.computeIfAbsent(unit, u -> {
+                unitNames.add(u);
+                return unitNames.size() - 1;
+            });
+            optional.set(edges, isOptional);
+            substitute.set(edges, isSubstitute);
+            edges++;
+        }
+    }
+}
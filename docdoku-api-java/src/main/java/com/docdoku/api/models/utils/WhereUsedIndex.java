@@ -0,0 +1,285 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Reverse index of the structures of several products, telling which assemblies use a part.
+ * <p>
+ * Part numbers are interned as int ids, the users of each part are kept in primitive arrays along
+ * with the number of usage links to the part in all the products. The usage links of each product
+ * are kept as a sorted array, so that putting a new structure of an indexed product only updates
+ * the usages it adds or removes. The index can be updated and queried concurrently.
+ */
+public class WhereUsedIndex {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> numbers = new ArrayList<>();
+    private int[][] users = new int[64][];
+    private int[][] counts = new int[64][];
+    private int[] sizes = new int[64];
+    private final Map<String, long[]> products = new HashMap<>();
+    private final Map<String, int[]> productRoots = new HashMap<>();
+
+    /**
+     * Add or replace the structure of a product
+     *
+     * @param product the id of the configuration item
+     */
+    public void put(String product, ProductStructureGraph structure) {
+        lock.writeLock().lock();
+        try {
+            long[] links = links(structure);
+            long[] previous = products.put(product, links);
+            update(previous != null ? previous : new long[0], links);
+            int[] roots = structure.getRoots();
+            for (int i = 0; i < roots.length; i++) {
+                roots[i] = id(structure.getNumber(roots[i]));
+            }
+            productRoots.put(product, roots);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String product) {
+        lock.writeLock().lock();
+        try {
+            long[] previous = products.remove(product);
+            if (previous != null) {
+                update(previous, new long[0]);
+                productRoots.remove(product);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the products indexed
+     */
+    public List<String> getProducts() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(products.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the assemblies having a usage link to the part
+     */
+    public List<String> getUsers(String number) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(number);
+            if (id == null) {
+                return Collections.emptyList();
+            }
+            List<String> result = new ArrayList<>(sizes[id]);
+            for (int i = 0; i < sizes[id]; i++) {
+                result.add(numbers.get(users[id][i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the assemblies using the part directly or through sub assemblies, closest first
+     */
+    public List<String> getWhereUsed(String number) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(number);
+            if (id == null) {
+                return Collections.emptyList();
+            }
+            List<String> result = new ArrayList<>();
+            for (int ancestor : ancestors(id)) {
+                result.add(numbers.get(ancestor));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the products whose structure includes the part
+     */
+    public List<String> getProducts(String number) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(number);
+            if (id == null) {
+                return Collections.emptyList();
+            }
+            BitSet used = new BitSet(numbers.size());
+            used.set(id);
+            for (int ancestor : ancestors(id)) {
+                used.set(ancestor);
+            }
+            List<String> result = new ArrayList<>();
+            for (Map.Entry<String, int[]> entry : productRoots.entrySet()) {
+                for (int root : entry.getValue()) {
+                    if (used.get(root)) {
+                        result.add(entry.getKey());
+                        break;
+                    }
+                }
+            }
+            Collections.sort(result);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Breadth first walk of the users of a part
+     */
+    private int[] ancestors(int id) {
+        BitSet visited = new BitSet(numbers.size());
+        visited.set(id);
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        int node = id;
+        while (true) {
+            for (int i = 0; i < sizes[node]; i++) {
+                int user = users[node][i];
+                if (!visited.get(user)) {
+                    visited.set(user);
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, tail * 2);
+                    }
+                    queue[tail++] = user;
+                }
+            }
+            if (head == tail) {
+                return Arrays.copyOf(queue, tail);
+            }
+            node = queue[head++];
+        }
+    }
+
+    /**
+     * Usage links of a structure, each one as the id of the child in the high bits and the id of the
+     * user in the low bits, sorted
+     */
+    private long[] links(ProductStructureGraph structure) {
+        int[] nodeIds = new int[structure.size()];
+        for (int node = 0; node < nodeIds.length; node++) {
+            nodeIds[node] = id(structure.getNumber(node));
+        }
+        long[] links = new long[structure.getEdgeCount()];
+        int count = 0;
+        for (int node = 0; node < nodeIds.length; node++) {
+            for (int edge = structure.firstEdge(node); edge < structure.endEdge(node); edge++) {
+                links[count++] = (long) nodeIds[structure.getChild(edge)] << 32 | nodeIds[node];
+            }
+        }
+        Arrays.sort(links, 0, count);
+        return count == links.length ? links : Arrays.copyOf(links, count);
+    }
+
+    /**
+     * Apply the difference between the sorted usage links of two versions of a product
+     */
+    private void update(long[] previous, long[] links) {
+        int i = 0;
+        int j = 0;
+        while (i < previous.length || j < links.length) {
+            long link = j == links.length || i < previous.length && previous[i] < links[j] ? previous[i] : links[j];
+            int delta = 0;
+            while (i < previous.length && previous[i] == link) {
+                delta--;
+                i++;
+            }
+            while (j < links.length && links[j] == link) {
+                delta++;
+                j++;
+            }
+            if (delta != 0) {
+                link((int) (link >>> 32), (int) link, delta);
+            }
+        }
+    }
+
+    private void link(int child, int user, int delta) {
+        int size = sizes[child];
+        int[] childUsers = users[child];
+        for (int i = 0; i < size; i++) {
+            if (childUsers[i] == user) {
+                counts[child][i] += delta;
+                if (counts[child][i] <= 0) {
+                    // Unordered: the last user takes the free slot
+                    childUsers[i] = childUsers[size - 1];
+                    counts[child][i] = counts[child][size - 1];
+                    sizes[child]--;
+                }
+                return;
+            }
+        }
+        if (delta <= 0) {
+            return;
+        }
+        if (childUsers == null) {
+            users[child] = childUsers = new int[2];
+            counts[child] = new int[2];
+        } else if (size == childUsers.length) {
+            users[child] = childUsers = Arrays.copyOf(childUsers, size * 2);
+            counts[child] = Arrays.copyOf(counts[child], size * 2);
+        }
+        childUsers[size] = user;
+        counts[child][size] = delta;
+        sizes[child]++;
+    }
+
+    private int id(String number) {
+        Integer id = ids.get(number);
+        if (id != null) {
+            return id;
+        }
+        id = numbers.size();
+        ids.put(number, id);
+        numbers.add(number);
+        if (id == sizes.length) {
+            users = Arrays.copyOf(users, id * 2);
+            counts = Arrays.copyOf(counts, id * 2);
+            sizes = Arrays.copyOf(sizes, id * 2);
+        }
+        return id;
+    }
+}
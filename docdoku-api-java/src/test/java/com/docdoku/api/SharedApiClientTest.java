@@ -0,0 +1,109 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api;
+
+import com.docdoku.api.http.LoadBalancer;
+import com.squareup.okhttp.Request;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class SharedApiClientTest {
+
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void concurrentDatesTest() throws Exception {
+        SharedApiClient client = new SharedApiClient(ZoneId.of("Europe/Paris"));
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long offset = t * 86_400_000L;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    Date date = new Date(((offset + i * 1000L) / 1000) * 1000);
+                    Assert.assertEquals(date, client.parseDatetime(client.formatDatetime(date)));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(new Date(0), client.parseDatetime("1970-01-01T01:00:00"));
+        Assert.assertEquals(new Date(0), client.parseDatetime("1970-01-01T00:00:00Z"));
+    }
+
+    @Test
+    public void concurrentHeadersTest() throws Exception {
+        SharedApiClient client = new SharedApiClient();
+        int before = client.getDefaultHeaders().size();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < ITERATIONS / 10; i++) {
+                    client.addDefaultHeader("X-Thread-" + thread + "-" + i, String.valueOf(i));
+                    Assert.assertNotNull(client.getDefaultHeaders().get("X-Thread-" + thread + "-" + i));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertEquals(before + THREADS * ITERATIONS / 10, client.getDefaultHeaders().size());
+    }
+
+    @Test
+    public void affinityHeaderTest() throws Exception {
+        SharedApiClient client = new SharedApiClient();
+        Request request = client.withAffinity("workspace/PART-001-A", () -> buildRequest(client));
+        Assert.assertNull(request.header(LoadBalancer.AFFINITY_HEADER));
+
+        client.getHttpClient().interceptors().add(new LoadBalancer(
+                Arrays.asList("http://a:8080/eplm/api", "http://b:8080/eplm/api"), basePath -> true));
+        request = client.withAffinity("workspace/PART-001-A", () -> buildRequest(client));
+        Assert.assertEquals("workspace/PART-001-A", request.header(LoadBalancer.AFFINITY_HEADER));
+    }
+
+    private static Request buildRequest(SharedApiClient client) {
+        Request.Builder builder = new Request.Builder().url("http://a:8080/eplm/api/workspaces");
+        client.processHeaderParams(new HashMap<>(), builder);
+        return builder.build();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void growWhileLatencyIsFlatTest() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 64);
+        for (int round = 0; round < 50; round++) {
+            List<AdaptiveLimiter.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < limiter.getLimit(); i++) {
+                permits.add(limiter.acquire());
+            }
+            Thread.sleep(2);
+            for (AdaptiveLimiter.Permit permit : permits) {
+                permit.record(false);
+                permit.release();
+            }
+        }
+        Assert.assertTrue("Limit did not grow: " + limiter.getLimit(), limiter.getLimit() > 4);
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void backOffOnOverloadTest() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 1, 64);
+        AdaptiveLimiter.Permit permit = limiter.acquire();
+        permit.record(true);
+        // Only the first sample of a permit counts
+        permit.record(true);
+        Assert.assertEquals(6, limiter.getLimit());
+        permit.release();
+        permit.release();
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void waitForReleaseTest() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1);
+        AdaptiveLimiter.Permit permit = limiter.acquire();
+        Thread waiting = new Thread(() -> {
+            try {
+                limiter.acquire().release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        waiting.join(100);
+        Assert.assertTrue("Acquired over the limit", waiting.isAlive());
+        permit.release();
+        waiting.join(1000);
+        Assert.assertTrue("Not released", !waiting.isAlive());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailuresTest() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 1, TimeUnit.MINUTES);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.checkClosed();
+        breaker.onFailure();
+        Assert.assertTrue(breaker.isOpen());
+        Assert.assertTrue("Open circuit let a request through", isRejected(breaker));
+    }
+
+    @Test
+    public void halfOpenProbeTest() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 20, TimeUnit.MILLISECONDS);
+        breaker.onFailure();
+        Thread.sleep(40);
+
+        breaker.checkClosed();
+        Assert.assertTrue("Second probe let through", isRejected(breaker));
+        breaker.onFailure();
+        Assert.assertTrue("Failed probe did not reopen the circuit", isRejected(breaker));
+
+        Thread.sleep(40);
+        breaker.checkClosed();
+        breaker.onSuccess();
+        Assert.assertTrue("Successful probe did not close the circuit", !breaker.isOpen());
+        breaker.checkClosed();
+    }
+
+    @Test
+    public void releasedProbeTest() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 20, TimeUnit.MILLISECONDS);
+        Assert.assertFalse(breaker.checkClosed());
+        breaker.onFailure();
+        Thread.sleep(40);
+
+        // A probe interrupted without any outcome
+        Assert.assertTrue(breaker.checkClosed());
+        breaker.release();
+        Assert.assertTrue(breaker.isOpen());
+
+        Assert.assertTrue("Released probe blocked the next one", breaker.checkClosed());
+        breaker.onSuccess();
+        Assert.assertFalse(breaker.isOpen());
+    }
+
+    private static boolean isRejected(CircuitBreaker breaker) {
+        try {
+            breaker.checkClosed();
+            return false;
+        } catch (CircuitOpenException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConcurrencyLimitInterceptorTest {
+
+    private static final String ERROR = "{\"error\":\"not found\"}";
+
+    @Test
+    public void droppedErrorResponseTest() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1);
+        ConcurrencyLimitInterceptor interceptor = new ConcurrencyLimitInterceptor(limiter);
+        Request request = new Request.Builder().url("http://localhost:8080/eplm/api/workspaces/w").get().build();
+
+        // Error bodies left open would keep the single permit, and block the second request
+        for (int i = 0; i < 2; i++) {
+            Response response = interceptor.intercept(new ErrorChain(request));
+            Assert.assertEquals(404, response.code());
+            Assert.assertEquals(0, limiter.getInFlight());
+            if (i == 1) {
+                Assert.assertEquals(ERROR, response.body().string());
+            }
+        }
+    }
+
+    private static class ErrorChain implements Interceptor.Chain {
+
+        private final Request request;
+
+        ErrorChain(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Response proceed(Request request) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(404)
+                    .message("Not Found")
+                    .body(ResponseBody.create(MediaType.parse("application/json"), ERROR))
+                    .build();
+        }
+
+        @Override
+        public Connection connection() {
+            return null;
+        }
+    }
+}
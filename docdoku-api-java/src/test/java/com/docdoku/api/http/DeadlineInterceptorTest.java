@@ -0,0 +1,146 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class DeadlineInterceptorTest {
+
+    private static final long DEADLINE = 500;
+    private static final int BODY_LENGTH = 1000;
+    private static final long TRICKLE_PERIOD = 100;
+
+    private ServerSocket server;
+    private Thread serverThread;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ServerSocket(0);
+        serverThread = new Thread(this::serve, "stalled-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        serverThread.interrupt();
+        server.close();
+    }
+
+    @Test
+    public void stalledBodyTest() throws IOException {
+        readStalledBody(false);
+    }
+
+    @Test
+    public void stalledHedgedBodyTest() throws IOException {
+        readStalledBody(true);
+    }
+
+    /**
+     * Read a body trickling a byte every 100 ms: no read times out, only the deadline stops it
+     */
+    private void readStalledBody(boolean hedged) throws IOException {
+        OkHttpClient client = new OkHttpClient();
+        client.setReadTimeout(1, TimeUnit.MINUTES);
+
+        // Same order as the CLI
+        HedgingInterceptor hedging = new HedgingInterceptor(client);
+        if (hedged) {
+            hedging.setDelay(10, TimeUnit.MILLISECONDS);
+        }
+        List<Interceptor> interceptors = client.interceptors();
+        interceptors.add(new DeadlineInterceptor(client).setDeadline(Deadline.after(DEADLINE, TimeUnit.MILLISECONDS)));
+        interceptors.add(new ResilienceInterceptor());
+        interceptors.add(new PriorityDispatcher(client));
+        interceptors.add(hedging);
+        interceptors.add(new ConcurrencyLimitInterceptor(new AdaptiveLimiter()));
+
+        long start = System.nanoTime();
+        Response response = client.newCall(new Request.Builder()
+                .url("http://localhost:" + server.getLocalPort() + "/api/parts")
+                .build()).execute();
+        Assert.assertEquals(200, response.code());
+        try {
+            response.body().bytes();
+            Assert.fail("Stalled body read to the end");
+        } catch (IOException e) {
+            // Expected
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Body read aborted after " + elapsed + " ms", elapsed < 10 * DEADLINE);
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> trickle(socket), "stalled-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void trickle(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+            String line;
+            do {
+                line = reader.readLine();
+            } while (line != null && !line.isEmpty());
+
+            OutputStream out = s.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: application/json\r\n"
+                    + "Content-Length: " + BODY_LENGTH + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < BODY_LENGTH; i++) {
+                out.write(' ');
+                out.flush();
+                Thread.sleep(TRICKLE_PERIOD);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Connection aborted by the client
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class DeadlineTest {
+
+    @Test
+    public void expiryTest() throws Exception {
+        Deadline deadline = Deadline.after(50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(!deadline.isExpired());
+        long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+        Assert.assertTrue("Unexpected remaining time " + remaining, remaining > 0 && remaining <= 50);
+        deadline.check();
+
+        Thread.sleep(60);
+        Assert.assertTrue(deadline.isExpired());
+        Assert.assertEquals(0, deadline.remaining(TimeUnit.NANOSECONDS));
+        try {
+            deadline.check();
+            Assert.fail("Expired deadline passed the check");
+        } catch (DeadlineExceededException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LatencyWindowTest {
+
+    @Test
+    public void percentileTest() {
+        LatencyWindow window = new LatencyWindow(100, 0.95);
+        Assert.assertEquals(-1, window.getValue());
+        for (int i = 100; i > 0; i--) {
+            window.record(i);
+        }
+        Assert.assertEquals(100, window.getCount());
+        Assert.assertEquals(95, window.getValue());
+    }
+
+    @Test
+    public void slidingWindowTest() {
+        LatencyWindow window = new LatencyWindow(64, 0.5);
+        for (int i = 0; i < 64; i++) {
+            window.record(1000);
+        }
+        for (int i = 0; i < 64; i++) {
+            window.record(10);
+        }
+        Assert.assertEquals(64, window.getCount());
+        Assert.assertEquals(10, window.getValue());
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class LoadBalancerTest {
+
+    private static final String NODE_A = "http://a:8080/eplm/api";
+    private static final String NODE_B = "http://b:8080/eplm/api";
+    private static final String NODE_C = "http://c:8080/eplm/api";
+
+    @Test
+    public void failoverTest() throws Exception {
+        LoadBalancer balancer = new LoadBalancer(Arrays.asList(NODE_A, NODE_B), basePath -> true);
+        // Random picks: node A is tried, then suspended, long before the last request
+        for (int i = 0; i < 50; i++) {
+            Response response = balancer.intercept(new FakeChain(get(NODE_A + "/workspaces"), "a"));
+            Assert.assertEquals(NODE_B + "/workspaces", response.request().urlString());
+        }
+        Assert.assertEquals(Arrays.asList(NODE_B), balancer.getAvailableNodes());
+    }
+
+    @Test
+    public void affinityTest() throws Exception {
+        LoadBalancer balancer = new LoadBalancer(Arrays.asList(NODE_A, NODE_B, NODE_C), basePath -> true);
+        Set<String> routed = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            Request request = get(NODE_A + "/workspaces/w/parts/p-A").newBuilder()
+                    .header(LoadBalancer.AFFINITY_HEADER, "w/p-A")
+                    .build();
+            Response response = balancer.intercept(new FakeChain(request, null));
+            Assert.assertTrue(response.request().header(LoadBalancer.AFFINITY_HEADER) == null);
+            routed.add(response.request().urlString());
+        }
+        Assert.assertEquals(1, routed.size());
+    }
+
+    @Test
+    public void foreignUrlTest() throws Exception {
+        LoadBalancer balancer = new LoadBalancer(Arrays.asList(NODE_A, NODE_B), basePath -> true);
+        Response response = balancer.intercept(new FakeChain(get("http://other/api/workspaces"), null));
+        Assert.assertEquals("http://other/api/workspaces", response.request().urlString());
+    }
+
+    @Test
+    public void circuitFailoverTest() throws Exception {
+        ResilienceInterceptor resilience = new ResilienceInterceptor()
+                .setMaxAttempts(1)
+                .setCircuitBreaker(2, 1, TimeUnit.MINUTES);
+        LoadBalancer balancer = new LoadBalancer(Arrays.asList(NODE_A, NODE_B), basePath -> true);
+        List<Interceptor> interceptors = Arrays.asList(resilience, balancer, resilience.getRoutedCircuitBreakers());
+        // Node A is unavailable: its circuit opens, and the requests fail over to node B
+        Response response = null;
+        for (int i = 0; i < 50; i++) {
+            response = new InterceptorChain(interceptors, 0, get(NODE_A + "/workspaces")).proceed();
+        }
+        Assert.assertEquals(204, response.code());
+        Assert.assertEquals(NODE_B + "/workspaces", response.request().urlString());
+        Assert.assertTrue(resilience.getCircuitBreaker("a").isOpen());
+        Assert.assertFalse(resilience.getCircuitBreaker("b").isOpen());
+    }
+
+    private static Request get(String url) {
+        return new Request.Builder().url(url).get().build();
+    }
+
+    /**
+     * Run the interceptors, then answer every request, node A being unavailable
+     */
+    private static class InterceptorChain implements Interceptor.Chain {
+
+        private final List<Interceptor> interceptors;
+        private final int index;
+        private final Request request;
+
+        InterceptorChain(List<Interceptor> interceptors, int index, Request request) {
+            this.interceptors = interceptors;
+            this.index = index;
+            this.request = request;
+        }
+
+        Response proceed() throws IOException {
+            return proceed(request);
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Response proceed(Request request) throws IOException {
+            if (index < interceptors.size()) {
+                return interceptors.get(index).intercept(new InterceptorChain(interceptors, index + 1, request));
+            }
+            boolean unavailable = request.url().getHost().equals("a");
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(unavailable ? 503 : 204)
+                    .message(unavailable ? "Service Unavailable" : "No Content")
+                    .build();
+        }
+
+        @Override
+        public Connection connection() {
+            return null;
+        }
+    }
+
+    /**
+     * Answer every request, except the ones sent to an unreachable host
+     */
+    private static class FakeChain implements Interceptor.Chain {
+
+        private final Request request;
+        private final String unreachableHost;
+
+        FakeChain(Request request, String unreachableHost) {
+            this.request = request;
+            this.unreachableHost = unreachableHost;
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Response proceed(Request request) throws IOException {
+            if (request.url().getHost().equals(unreachableHost)) {
+                throw new ConnectException("Connection refused");
+            }
+            return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(204).message("No Content").build();
+        }
+
+        @Override
+        public Connection connection() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class TokenBucketTest {
+
+    @Test
+    public void burstThenRateTest() {
+        TokenBucket bucket = new TokenBucket(1000, 10);
+        Assert.assertEquals(0, bucket.reserve(10));
+        long delay = bucket.reserve(10);
+        Assert.assertTrue("Unexpected delay " + delay, delay > TimeUnit.MILLISECONDS.toNanos(9) && delay <= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void concurrentRateTest() throws Exception {
+        TokenBucket bucket = new TokenBucket(2000, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            executor.submit(() -> {
+                for (int j = 0; j < 50; j++) {
+                    bucket.acquire(1);
+                }
+                return null;
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        // 400 tokens at 2000 per second
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Too fast: " + elapsed + " ms", elapsed >= 190);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.json;
+
+import com.docdoku.api.DocDokuPLMClientFactory;
+import com.docdoku.api.client.ApiClient;
+import com.docdoku.api.models.PartRevisionDTO;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compares the decoding time of a large list of part revisions by the gson reflective adapter and
+ * by the streaming adapters of {@link ModelTypeAdapterFactory}, with and without interning.
+ * <p>
+ * Wall clock timings depend on the machine load, this harness is thus not run by surefire:
+ * run its main method from the test classpath, the number of revisions being the optional argument.
+ */
+public class ModelTypeAdapterBenchmark {
+
+    private static final int DEFAULT_REVISIONS = 20000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int revisions = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REVISIONS;
+        ApiClient client = DocDokuPLMClientFactory.createClient("http://localhost:8080/eplmp-server-rest/api");
+        Gson reflectiveGson = new GsonBuilder().registerTypeAdapter(Date.class, new DateTypeAdapter(client)).create();
+        Gson streamingGson = DocDokuPLMClientFactory.createGson(client);
+        Gson interningGson = DocDokuPLMClientFactory.createGson(client, true);
+        String payload = reflectiveGson.toJson(ModelTypeAdapterTest.createPartRevisions(revisions),
+                ModelTypeAdapterTest.PART_REVISIONS);
+
+        long reflective = measure(reflectiveGson, payload, revisions);
+        long streaming = measure(streamingGson, payload, revisions);
+        long interning = measure(interningGson, payload, revisions);
+        System.out.println(String.format("%d revisions, %d chars", revisions, payload.length()));
+        System.out.println(String.format("reflective %d ms", reflective));
+        System.out.println(String.format("streaming  %d ms (x%.2f)", streaming, (double) reflective / streaming));
+        System.out.println(String.format("interning  %d ms (x%.2f)", interning, (double) reflective / interning));
+    }
+
+    /**
+     * @return the best decoding time in milliseconds
+     */
+    private static long measure(Gson gson, String payload, int revisions) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            gson.fromJson(payload, ModelTypeAdapterTest.PART_REVISIONS);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            List<PartRevisionDTO> parts = gson.fromJson(payload, ModelTypeAdapterTest.PART_REVISIONS);
+            best = Math.min(best, System.nanoTime() - start);
+            if (parts.size() != revisions) {
+                throw new IllegalStateException("Decoded " + parts.size() + " revisions instead of " + revisions);
+            }
+        }
+        return Math.max(1, best / 1_000_000);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.json;
+
+import com.docdoku.api.DocDokuPLMClientFactory;
+import com.docdoku.api.client.ApiClient;
+import com.docdoku.api.models.*;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ModelTypeAdapterTest {
+
+    static final Type PART_REVISIONS = new TypeToken<List<PartRevisionDTO>>() {}.getType();
+
+    private static final int REVISIONS = 2000;
+    private static final int COMPONENTS_PER_ITERATION = 5;
+
+    private static Gson reflectiveGson;
+    private static Gson streamingGson;
+    private static Gson interningGson;
+    private static String payload;
+
+    @BeforeClass
+    public static void initPayload() {
+        ApiClient client = DocDokuPLMClientFactory.createClient("http://localhost:8080/eplmp-server-rest/api");
+        reflectiveGson = new GsonBuilder().registerTypeAdapter(Date.class, new DateTypeAdapter(client)).create();
+        streamingGson = DocDokuPLMClientFactory.createGson(client);
+        interningGson = DocDokuPLMClientFactory.createGson(client, true);
+        payload = reflectiveGson.toJson(createPartRevisions(REVISIONS), PART_REVISIONS);
+    }
+
+    @Test
+    public void sameResultsTest() {
+        List<PartRevisionDTO> expected = reflectiveGson.fromJson(payload, PART_REVISIONS);
+        List<PartRevisionDTO> actual = streamingGson.fromJson(payload, PART_REVISIONS);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(payload, streamingGson.toJson(actual, PART_REVISIONS));
+    }
+
+    @Test
+    public void interningTest() {
+        List<PartRevisionDTO> expected = streamingGson.fromJson(payload, PART_REVISIONS);
+        List<PartRevisionDTO> actual = interningGson.fromJson(payload, PART_REVISIONS);
+        Assert.assertEquals(expected, actual);
+
+        PartRevisionDTO first = actual.get(0);
+        for (PartRevisionDTO part : actual) {
+            Assert.assertSame(first.getAuthor(), part.getAuthor());
+            Assert.assertSame(first.getAuthor(), part.getPartIterations().get(0).getAuthor());
+            Assert.assertSame(first.getWorkspaceId(), part.getWorkspaceId());
+        }
+    }
+
+    /**
+     * Revisions of parts having a single iteration, each using 5 other parts
+     */
+    static List<PartRevisionDTO> createPartRevisions(int revisions) {
+        UserDTO author = new UserDTO();
+        author.setLogin("test");
+        author.setName("Test user");
+        author.setEmail("test@localhost");
+
+        List<PartRevisionDTO> parts = new ArrayList<>(revisions);
+        for (int i = 0; i < revisions; i++) {
+            PartRevisionDTO part = new PartRevisionDTO();
+            part.setWorkspaceId("test-workspace");
+            part.setNumber("PART-" + i);
+            part.setVersion("A");
+            part.setName("Part " + i);
+            part.setType("standard");
+            part.setAuthor(author);
+            part.setCheckOutUser(i % 10 == 0 ? author : null);
+
+            PartIterationDTO iteration = new PartIterationDTO();
+            iteration.setWorkspaceId(part.getWorkspaceId());
+            iteration.setNumber(part.getNumber());
+            iteration.setVersion(part.getVersion());
+            iteration.setIteration(1);
+            iteration.setIterationNote("Generated by test");
+            iteration.setAuthor(author);
+
+            List<PartUsageLinkDTO> links = new ArrayList<>();
+            for (int j = 0; j < COMPONENTS_PER_ITERATION; j++) {
+                ComponentDTO component = new ComponentDTO();
+                component.setNumber("PART-" + ((i + j + 1) % revisions));
+                component.setAmount(1.0 + j);
+                component.setUnit("kg");
+
+                CADInstanceDTO instance = new CADInstanceDTO();
+                instance.setRotationType(CADInstanceDTO.RotationTypeEnum.ANGLE);
+                instance.setTx((double) j);
+                instance.setTy((double) i);
+                instance.setTz(0.5);
+                instance.setRx(0.0);
+                instance.setRy(Math.PI);
+                instance.setRz(-Math.PI);
+
+                List<CADInstanceDTO> instances = new ArrayList<>();
+                instances.add(instance);
+
+                PartUsageLinkDTO link = new PartUsageLinkDTO();
+                link.setComponent(component);
+                link.setAmount(component.getAmount());
+                link.setOptional(j % 2 == 0);
+                link.setCadInstances(instances);
+                links.add(link);
+            }
+            iteration.setComponents(links);
+
+            List<PartIterationDTO> iterations = new ArrayList<>();
+            iterations.add(iteration);
+            part.setPartIterations(iterations);
+            parts.add(part);
+        }
+        return parts;
+    }
+}
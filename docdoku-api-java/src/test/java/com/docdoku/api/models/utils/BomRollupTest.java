@@ -0,0 +1,103 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import com.docdoku.api.models.ComponentDTO;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.docdoku.api.models.utils.StructureTestUtils.component;
+import static com.docdoku.api.models.utils.StructureTestUtils.graph;
+
+@RunWith(JUnit4.class)
+public class BomRollupTest {
+
+    @Test
+    public void quantityTest() {
+        // PRODUCT uses two ARM, each made of 3 BOLT and 0.5 m of TUBE, and 4 more BOLT
+        ComponentDTO root = component("PRODUCT", 1, null, false, false,
+                component("ARM", 2, null, false, false,
+                        component("BOLT", 3, null, false, false),
+                        component("TUBE", 0.5, "m", false, false)),
+                component("BOLT", 4, null, false, false));
+        ProductStructureGraph graph = graph(root);
+        BomRollup bom = BomRollup.of(graph, graph.getNode("PRODUCT"));
+
+        Assert.assertEquals(3, bom.getNodes().length);
+        Assert.assertEquals(2, bom.getQuantity(graph.getNode("ARM")), 0);
+        Assert.assertEquals(10, bom.getQuantity(graph.getNode("BOLT")), 0);
+        Assert.assertEquals(1, bom.getQuantity(graph.getNode("TUBE")), 0);
+        Assert.assertEquals("m", bom.getUnit(graph.getNode("TUBE")));
+        Assert.assertEquals(null, bom.getUnit(graph.getNode("BOLT")));
+    }
+
+    @Test
+    public void optionalAndSubstituteTest() {
+        // The RADIO of PRODUCT is optional, and uses a substitute SCREW
+        ComponentDTO root = component("PRODUCT", 1, null, false, false,
+                component("RADIO", 1, null, true, false,
+                        component("SCREW", 2, null, false, true)),
+                component("SCREW", 6, null, false, false));
+        ProductStructureGraph graph = graph(root);
+        BomRollup bom = BomRollup.of(graph, graph.getNode("PRODUCT"));
+
+        int radio = graph.getNode("RADIO");
+        int screw = graph.getNode("SCREW");
+        Assert.assertEquals(0, bom.getQuantity(radio), 0);
+        Assert.assertEquals(1, bom.getOptionalQuantity(radio), 0);
+        Assert.assertEquals(6, bom.getQuantity(screw), 0);
+        Assert.assertEquals(2, bom.getOptionalQuantity(screw), 0);
+        Assert.assertTrue(bom.isSubstitute(screw));
+        Assert.assertTrue(!bom.isSubstitute(radio));
+    }
+
+    /**
+     * Wide levels are split between threads, and must give the quantities of a sequential walk
+     */
+    @Test
+    public void wideStructureTest() {
+        int width = 5000;
+        List<ComponentDTO> modules = new ArrayList<>();
+        for (int i = 0; i < width; i++) {
+            modules.add(component("MODULE-" + i, 1 + i % 3, null, false, false,
+                    component("CELL-" + i, 2, null, false, false, component("BOLT", 1 + i % 2, null, false, false)),
+                    component("BOLT", 1, null, false, false)));
+        }
+        ComponentDTO root = component("PRODUCT", 1, null, false, false, modules.toArray(new ComponentDTO[width]));
+        ProductStructureGraph graph = graph(root);
+        BomRollup bom = BomRollup.of(graph, graph.getNode("PRODUCT"), new ForkJoinPool(4));
+
+        double bolts = 0;
+        for (int i = 0; i < width; i++) {
+            int count = 1 + i % 3;
+            Assert.assertEquals(2.0 * count, bom.getQuantity(graph.getNode("CELL-" + i)), 0);
+            bolts += count * (2 * (1 + i % 2) + 1);
+        }
+        Assert.assertEquals(bolts, bom.getQuantity(graph.getNode("BOLT")), 0);
+        Assert.assertEquals(2 * width + 1, bom.getNodes().length);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import com.docdoku.api.models.ComponentDTO;
+import com.docdoku.api.models.ConfigurationItemKey;
+import com.docdoku.api.models.EffectivityDTO;
+import com.docdoku.api.models.PartIterationDTO;
+import com.docdoku.api.models.PartRevisionDTO;
+import com.docdoku.api.models.PartSubstituteLinkDTO;
+import com.docdoku.api.models.PartUsageLinkDTO;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+@RunWith(JUnit4.class)
+public class EffectivityFilterTest {
+
+    private static final String PRODUCT = "PRODUCT";
+
+    /**
+     * CAR-A is effective up to serial number 10, CAR-B from 11. Both use an ENGINE, and CAR-B a RADIO
+     * replaced by a TUNER from serial number 20.
+     */
+    private static EffectivityFilter createFilter() {
+        EffectivityFilter filter = new EffectivityFilter(PRODUCT);
+        PartUsageLinkDTO radio = link("RADIO");
+        PartSubstituteLinkDTO tuner = new PartSubstituteLinkDTO();
+        ComponentDTO tunerComponent = new ComponentDTO();
+        tunerComponent.setNumber("TUNER");
+        tuner.setSubstitute(tunerComponent);
+        tuner.setAmount(1.0);
+        radio.setSubstitutes(Collections.singletonList(tuner));
+
+        filter.addRevision(revision("CAR", "B", link("ENGINE"), radio));
+        filter.addRevision(revision("CAR", "A", link("ENGINE")));
+        filter.addRevision(revision("ENGINE", "A"));
+        filter.addRevision(revision("RADIO", "A"));
+        filter.addRevision(revision("TUNER", "A"));
+
+        filter.setEffectivities("CAR", "A", Collections.singletonList(serialNumbers("1", "10")));
+        filter.setEffectivities("CAR", "B", Collections.singletonList(serialNumbers("11", null)));
+        filter.setEffectivities("ENGINE", "A", Arrays.asList(serialNumbers("1", null), lots("L1", "L3")));
+        filter.setEffectivities("RADIO", "A", Collections.singletonList(serialNumbers("1", "19")));
+        filter.setEffectivities("TUNER", "A", Collections.singletonList(serialNumbers("20", null)));
+        return filter;
+    }
+
+    @Test
+    public void serialNumberTest() {
+        EffectivityFilter filter = createFilter();
+
+        ComponentDTO first = filter.filter("CAR", EffectivityFilter.Context.serialNumber("2"));
+        Assert.assertEquals("A", first.getVersion());
+        Assert.assertEquals(1, first.getComponents().size());
+
+        // Numbers are compared by value: 9 is before 10
+        ComponentDTO ninth = filter.filter("CAR", EffectivityFilter.Context.serialNumber("9"));
+        Assert.assertEquals("A", ninth.getVersion());
+
+        ComponentDTO twelfth = filter.filter("CAR", EffectivityFilter.Context.serialNumber("12"));
+        Assert.assertEquals("B", twelfth.getVersion());
+        Assert.assertEquals("RADIO", twelfth.getComponents().get(1).getNumber());
+        Assert.assertFalse(twelfth.getComponents().get(1).getSubstitute());
+
+        ComponentDTO later = filter.filter("CAR", EffectivityFilter.Context.serialNumber("25"));
+        Assert.assertEquals("TUNER", later.getComponents().get(1).getNumber());
+        Assert.assertTrue(later.getComponents().get(1).getSubstitute());
+    }
+
+    @Test
+    public void otherContextsTest() {
+        EffectivityFilter filter = createFilter();
+        EffectivityDTO date = new EffectivityDTO();
+        date.setTypeEffectivity(EffectivityDTO.TypeEffectivityEnum.DATEBASEDEFFECTIVITY);
+        date.setConfigurationItemKey(key(PRODUCT));
+        date.setStartDate(new Date(1000));
+        date.setEndDate(new Date(2000));
+        filter.setEffectivities("CAR", "A", Collections.singletonList(date));
+
+        ComponentDTO car = filter.filter("CAR", EffectivityFilter.Context.date(new Date(1500)));
+        Assert.assertEquals("A", car.getVersion());
+        // The engine has no date effectivity
+        Assert.assertTrue(car.getComponents().isEmpty());
+        Assert.assertNull(filter.filter("CAR", EffectivityFilter.Context.date(new Date(2500))));
+        Assert.assertEquals("ENGINE", filter.filter("ENGINE", EffectivityFilter.Context.lot("L2")).getNumber());
+        Assert.assertNull(filter.filter("ENGINE", EffectivityFilter.Context.lot("L4")));
+    }
+
+    @Test
+    public void otherProductTest() {
+        EffectivityFilter filter = createFilter();
+        EffectivityDTO effectivity = serialNumbers("1", null);
+        effectivity.setConfigurationItemKey(key("OTHER"));
+        filter.setEffectivities("CAR", "A", Collections.singletonList(effectivity));
+        filter.setEffectivities("CAR", "B", Collections.<EffectivityDTO>emptyList());
+        Assert.assertNull(filter.filter("CAR", EffectivityFilter.Context.serialNumber("1")));
+    }
+
+    private static EffectivityDTO serialNumbers(String start, String end) {
+        EffectivityDTO effectivity = new EffectivityDTO();
+        effectivity.setTypeEffectivity(EffectivityDTO.TypeEffectivityEnum.SERIALNUMBERBASEDEFFECTIVITY);
+        effectivity.setConfigurationItemKey(key(PRODUCT));
+        effectivity.setStartNumber(start);
+        effectivity.setEndNumber(end);
+        return effectivity;
+    }
+
+    private static EffectivityDTO lots(String start, String end) {
+        EffectivityDTO effectivity = new EffectivityDTO();
+        effectivity.setTypeEffectivity(EffectivityDTO.TypeEffectivityEnum.LOTBASEDEFFECTIVITY);
+        effectivity.setConfigurationItemKey(key(PRODUCT));
+        effectivity.setStartLotId(start);
+        effectivity.setEndLotId(end);
+        return effectivity;
+    }
+
+    private static ConfigurationItemKey key(String productId) {
+        ConfigurationItemKey key = new ConfigurationItemKey();
+        key.setId(productId);
+        key.setWorkspace("workspace");
+        return key;
+    }
+
+    private static PartUsageLinkDTO link(String number) {
+        ComponentDTO component = new ComponentDTO();
+        component.setNumber(number);
+        PartUsageLinkDTO link = new PartUsageLinkDTO();
+        link.setComponent(component);
+        link.setAmount(1.0);
+        return link;
+    }
+
+    private static PartRevisionDTO revision(String number, String version, PartUsageLinkDTO... links) {
+        PartIterationDTO iteration = new PartIterationDTO();
+        iteration.setNumber(number);
+        iteration.setVersion(version);
+        iteration.setIteration(1);
+        iteration.setComponents(new ArrayList<>(Arrays.asList(links)));
+        PartRevisionDTO revision = new PartRevisionDTO();
+        revision.setNumber(number);
+        revision.setVersion(version);
+        revision.setPartIterations(Collections.singletonList(iteration));
+        return revision;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import com.docdoku.api.models.CADInstanceDTO;
+import com.docdoku.api.models.ComponentDTO;
+import com.docdoku.api.models.PartIterationDTO;
+import com.docdoku.api.models.PartSubstituteLinkDTO;
+import com.docdoku.api.models.PartUsageLinkDTO;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.docdoku.api.models.utils.StructureTestUtils.component;
+
+@RunWith(JUnit4.class)
+public class InstancePlacementsTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void compositionTest() {
+        // PRODUCT places an ARM at x=10, and another at x=-10 turned a quarter around z; ARM places a BOLT at y=1
+        ProductStructureGraph graph = ProductStructureGraph.builder()
+                .add(component("PRODUCT", component("ARM", component("BOLT"))))
+                .build();
+        InstancePlacements placements = InstancePlacements.builder(graph)
+                .add(iteration("PRODUCT", link("ARM", instance(1, 10, 0, 0, 0), instance(2, -10, 0, 0, Math.PI / 2))))
+                .add(iteration("ARM", link("BOLT", instance(3, 0, 1, 0, 0))))
+                .build(graph.getNode("PRODUCT"));
+
+        Assert.assertEquals(2, placements.getLeafCount());
+        double[] transforms = placements.getTransforms();
+        for (int leaf = 0; leaf < 2; leaf++) {
+            Assert.assertEquals("BOLT", graph.getNumber(placements.getNode(leaf)));
+        }
+        Assert.assertTrue(Arrays.equals(new int[]{1, 3}, placements.getPath(0)));
+        Assert.assertTrue(Arrays.equals(new int[]{2, 3}, placements.getPath(1)));
+        assertOrigin(transforms, 0, 10, 1, 0);
+        assertOrigin(transforms, 1, -11, 0, 0);
+        // The second bolt keeps the quarter turn of its arm
+        Assert.assertEquals(-1, transforms[InstancePlacements.STRIDE + 1], EPSILON);
+
+        double[] bounds = placements.getBounds();
+        Assert.assertEquals(-11, bounds[0], EPSILON);
+        Assert.assertEquals(10, bounds[3], EPSILON);
+        Assert.assertEquals(1, bounds[4], EPSILON);
+    }
+
+    @Test
+    public void substituteTest() {
+        ComponentDTO screw = component("SCREW");
+        screw.setSubstitute(true);
+        ProductStructureGraph graph = ProductStructureGraph.builder().add(component("PRODUCT", screw)).build();
+
+        PartUsageLinkDTO link = link("BOLT", instance(1, 5, 0, 0, 0));
+        PartSubstituteLinkDTO substitute = new PartSubstituteLinkDTO();
+        substitute.setSubstitute(component("SCREW"));
+        substitute.setCadInstances(Collections.singletonList(instance(2, 0, 0, 7, 0)));
+        link.setSubstitutes(Collections.singletonList(substitute));
+
+        InstancePlacements placements = InstancePlacements.builder(graph)
+                .add(iteration("PRODUCT", link))
+                .build(graph.getNode("PRODUCT"));
+        Assert.assertEquals(1, placements.getLeafCount());
+        Assert.assertTrue(Arrays.equals(new int[]{2}, placements.getPath(0)));
+        assertOrigin(placements.getTransforms(), 0, 0, 0, 7);
+    }
+
+    /**
+     * Large depths are split between threads, and must give the placements of a single thread
+     */
+    @Test
+    public void parallelTest() {
+        int count = 3000;
+        CADInstanceDTO[] rows = new CADInstanceDTO[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = instance(i, i, 0, 0, i * 0.001);
+        }
+        ProductStructureGraph graph = ProductStructureGraph.builder()
+                .add(component("PRODUCT", component("ROW", component("CELL"))))
+                .build();
+        InstancePlacements.Builder builder = InstancePlacements.builder(graph)
+                .add(iteration("PRODUCT", link("ROW", rows)))
+                .add(iteration("ROW", link("CELL", instance(-1, 0, 1, 0, 0), instance(-2, 0, 2, 0, 0))));
+
+        InstancePlacements parallel = builder.build(graph.getNode("PRODUCT"), new ForkJoinPool(4));
+        InstancePlacements sequential = builder.build(graph.getNode("PRODUCT"), new ForkJoinPool(1));
+        Assert.assertEquals(2 * count, parallel.getLeafCount());
+        Assert.assertTrue(Arrays.equals(sequential.getTransforms(), parallel.getTransforms()));
+        assertOrigin(parallel.getTransforms(), 1, 0, 2, 0);
+    }
+
+    private static void assertOrigin(double[] transforms, int leaf, double x, double y, double z) {
+        int offset = leaf * InstancePlacements.STRIDE;
+        Assert.assertEquals(x, transforms[offset + 3], EPSILON);
+        Assert.assertEquals(y, transforms[offset + 7], EPSILON);
+        Assert.assertEquals(z, transforms[offset + 11], EPSILON);
+    }
+
+    private static CADInstanceDTO instance(int id, double tx, double ty, double tz, double rz) {
+        CADInstanceDTO instance = new CADInstanceDTO();
+        instance.setId(id);
+        instance.setRotationType(CADInstanceDTO.RotationTypeEnum.ANGLE);
+        instance.setTx(tx);
+        instance.setTy(ty);
+        instance.setTz(tz);
+        instance.setRx(0.0);
+        instance.setRy(0.0);
+        instance.setRz(rz);
+        return instance;
+    }
+
+    private static PartUsageLinkDTO link(String number, CADInstanceDTO... instances) {
+        PartUsageLinkDTO link = new PartUsageLinkDTO();
+        link.setComponent(component(number));
+        link.setAmount((double) instances.length);
+        link.setCadInstances(Arrays.asList(instances));
+        return link;
+    }
+
+    private static PartIterationDTO iteration(String number, PartUsageLinkDTO... links) {
+        PartIterationDTO iteration = new PartIterationDTO();
+        iteration.setNumber(number);
+        iteration.setVersion("A");
+        iteration.setComponents(new ArrayList<>(Arrays.asList(links)));
+        return iteration;
+    }
+}
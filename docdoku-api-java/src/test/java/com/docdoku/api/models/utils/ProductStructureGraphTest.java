@@ -0,0 +1,107 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import com.docdoku.api.models.ComponentDTO;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.docdoku.api.models.utils.StructureTestUtils.component;
+import static com.docdoku.api.models.utils.StructureTestUtils.graph;
+
+@RunWith(JUnit4.class)
+public class ProductStructureGraphTest {
+
+    /**
+     * PRODUCT uses two ARM, each made of a BOLT and 0.5 m of TUBE; BOLT is also used by PRODUCT
+     */
+    private static ProductStructureGraph createGraph() {
+        ComponentDTO root = component("PRODUCT", 1, null,
+                component("ARM", 2, null,
+                        component("BOLT", 1, null),
+                        component("TUBE", 0.5, "m")),
+                component("BOLT", 4, null));
+        return graph(root);
+    }
+
+    @Test
+    public void layoutTest() {
+        ProductStructureGraph graph = createGraph();
+        Assert.assertEquals(4, graph.size());
+        Assert.assertEquals(4, graph.getEdgeCount());
+        Assert.assertTrue(Arrays.equals(new int[]{graph.getNode("PRODUCT")}, graph.getRoots()));
+
+        int arm = graph.getNode("ARM");
+        Assert.assertEquals(2, graph.getChildCount(arm));
+        int tubeEdge = graph.firstEdge(arm) + 1;
+        Assert.assertEquals("TUBE", graph.getNumber(graph.getChild(tubeEdge)));
+        Assert.assertEquals(0.5, graph.getAmount(tubeEdge), 0);
+        Assert.assertEquals("m", graph.getUnit(tubeEdge));
+        Assert.assertEquals(null, graph.getUnit(graph.firstEdge(arm)));
+        Assert.assertTrue(graph.isLeaf(graph.getNode("BOLT")));
+        Assert.assertEquals(-1, graph.getNode("UNKNOWN"));
+    }
+
+    @Test
+    public void sharedSubAssemblyTest() {
+        ComponentDTO arm = component("ARM", 1, null, component("BOLT", 1, null));
+        ComponentDTO root = component("PRODUCT", 1, null, arm, component("ARM", 1, null, component("BOLT", 1, null)));
+        ProductStructureGraph graph = ProductStructureGraph.builder().add(root).add(arm).build();
+        Assert.assertEquals(3, graph.size());
+        Assert.assertEquals(1, graph.getChildCount(graph.getNode("ARM")));
+    }
+
+    @Test
+    public void traversalTest() {
+        ProductStructureGraph graph = createGraph();
+        int root = graph.getNode("PRODUCT");
+
+        List<String> depthFirst = new ArrayList<>();
+        graph.depthFirst(root, node -> depthFirst.add(graph.getNumber(node)));
+        Assert.assertEquals(Arrays.asList("PRODUCT", "ARM", "BOLT", "TUBE"), depthFirst);
+
+        List<String> breadthFirst = new ArrayList<>();
+        graph.breadthFirst(root, node -> breadthFirst.add(graph.getNumber(node)));
+        Assert.assertEquals(Arrays.asList("PRODUCT", "ARM", "BOLT", "TUBE"), breadthFirst);
+
+        List<int[]> levels = graph.getLevels(root);
+        Assert.assertEquals(3, levels.size());
+        Assert.assertEquals(2, levels.get(1).length);
+        Assert.assertEquals("TUBE", graph.getNumber(levels.get(2)[0]));
+    }
+
+    @Test
+    public void subgraphTest() {
+        ProductStructureGraph graph = createGraph();
+        ProductStructureGraph arm = graph.subgraph(graph.getNode("ARM"));
+        Assert.assertEquals(3, arm.size());
+        Assert.assertEquals(2, arm.getEdgeCount());
+        Assert.assertEquals("ARM", arm.getNumber(0));
+        Assert.assertEquals("m", arm.getUnit(arm.firstEdge(0) + 1));
+        Assert.assertEquals(0, arm.getNode("ARM"));
+    }
+}
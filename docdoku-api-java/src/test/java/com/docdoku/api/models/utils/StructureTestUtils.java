@@ -0,0 +1,58 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import com.docdoku.api.models.ComponentDTO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class StructureTestUtils {
+
+    private StructureTestUtils() {
+    }
+
+    public static ProductStructureGraph graph(ComponentDTO root) {
+        return ProductStructureGraph.builder().add(root).build();
+    }
+
+    public static ComponentDTO component(String number, ComponentDTO... components) {
+        return component(number, 1.0, null, components);
+    }
+
+    public static ComponentDTO component(String number, double amount, String unit, ComponentDTO... components) {
+        ComponentDTO component = new ComponentDTO();
+        component.setNumber(number);
+        component.setVersion("A");
+        component.setAmount(amount);
+        component.setUnit(unit);
+        component.setComponents(new ArrayList<>(Arrays.asList(components)));
+        return component;
+    }
+
+    public static ComponentDTO component(String number, double amount, String unit, boolean optional,
+                                         boolean substitute, ComponentDTO... components) {
+        ComponentDTO component = component(number, amount, unit, components);
+        component.setOptional(optional);
+        component.setSubstitute(substitute);
+        return component;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.api.models.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static com.docdoku.api.models.utils.StructureTestUtils.component;
+import static com.docdoku.api.models.utils.StructureTestUtils.graph;
+
+@RunWith(JUnit4.class)
+public class WhereUsedIndexTest {
+
+    @Test
+    public void transitiveWhereUsedTest() {
+        WhereUsedIndex index = new WhereUsedIndex();
+        index.put("CAR", graph(component("CAR", component("WHEEL", component("BOLT")), component("ENGINE", component("BOLT")))));
+        index.put("BIKE", graph(component("BIKE", component("WHEEL", component("BOLT")))));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("WHEEL", "ENGINE")), new HashSet<>(index.getUsers("BOLT")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("WHEEL", "ENGINE", "CAR", "BIKE")), new HashSet<>(index.getWhereUsed("BOLT")));
+        Assert.assertEquals(Arrays.asList("BIKE", "CAR"), index.getProducts("BOLT"));
+        Assert.assertEquals(Collections.singletonList("CAR"), index.getProducts("ENGINE"));
+        Assert.assertEquals(Collections.singletonList("CAR"), index.getProducts("CAR"));
+        Assert.assertEquals(Collections.emptyList(), index.getWhereUsed("UNKNOWN"));
+    }
+
+    @Test
+    public void incrementalUpdateTest() {
+        WhereUsedIndex index = new WhereUsedIndex();
+        index.put("CAR", graph(component("CAR", component("WHEEL", component("BOLT")), component("ENGINE", component("BOLT")))));
+        index.put("BIKE", graph(component("BIKE", component("WHEEL", component("BOLT")))));
+
+        // The engine of the car no longer uses bolts, the wheel of the bike still does
+        index.put("CAR", graph(component("CAR", component("WHEEL", component("BOLT")), component("ENGINE"))));
+        Assert.assertEquals(Collections.singletonList("WHEEL"), index.getUsers("BOLT"));
+        Assert.assertEquals(Arrays.asList("BIKE", "CAR"), index.getProducts("BOLT"));
+
+        index.remove("CAR");
+        Assert.assertEquals(Collections.singletonList("WHEEL"), index.getUsers("BOLT"));
+        Assert.assertEquals(Collections.singletonList("BIKE"), index.getProducts("BOLT"));
+        Assert.assertEquals(Collections.emptyList(), index.getWhereUsed("ENGINE"));
+
+        index.remove("BIKE");
+        Assert.assertEquals(Collections.emptyList(), index.getUsers("BOLT"));
+    }
+
+    @Test
+    public void repeatedUsageTest() {
+        WhereUsedIndex index = new WhereUsedIndex();
+        index.put("CAR", graph(component("CAR", component("WHEEL"), component("WHEEL"), component("ENGINE"))));
+        index.put("CAR", graph(component("CAR", component("WHEEL"), component("ENGINE"))));
+        Assert.assertEquals(Collections.singletonList("CAR"), index.getUsers("WHEEL"));
+
+        // Putting the same structure again changes nothing
+        index.put("CAR", graph(component("CAR", component("WHEEL"), component("ENGINE"))));
+        index.put("CAR", graph(component("CAR", component("ENGINE"))));
+        Assert.assertEquals(Collections.emptyList(), index.getUsers("WHEEL"));
+        Assert.assertEquals(Collections.singletonList("CAR"), index.getUsers("ENGINE"));
+    }
+}
@@ -76,11 +76,23 @@ public class MainCommand {
             case "l":
                 cl = new ListCommand();
                 break;
+            case "effectivity":
+            case "eff":
+                cl = new EffectivityCommand();
+                break;
             case "folders":
             case "f":
                 cl = new FolderListCommand();
                 break;
 
+            case "bom":
+                cl = new BomCommand();
+                break;
+
+            case "placements":
+                cl = new PlacementsCommand();
+                break;
+
             case "baselinelist":
             case "bl":
                 cl = new BaselineListCommand();
@@ -101,6 +113,19 @@ public class MainCommand {
                 cl = new AccountInfosCommand();
                 break;
 
+            case "init":
+                cl = new InitCommand();
+                break;
+
+            case "watch":
+                cl = new WatchCommand();
+                break;
+
+            case "whereused":
+            case "wu":
+                cl = new WhereUsedCommand();
+                break;
+
             case "help":
             case "?":
             case "h":
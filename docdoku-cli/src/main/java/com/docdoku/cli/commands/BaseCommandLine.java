@@ -21,7 +21,9 @@
 package com.docdoku.cli.commands;
 
 import com.docdoku.api.DocDokuPLMClientFactory;
-import com.docdoku.api.client.ApiClient;
+import com.docdoku.api.SharedApiClient;
+import com.docdoku.api.http.AdaptiveLimiter;
+import com.docdoku.api.http.Deadline;
 import com.docdoku.cli.helpers.AccountsManager;
 import com.docdoku.cli.helpers.CliOutput;
 import com.docdoku.cli.helpers.LangHelper;
@@ -30,7 +32,10 @@ import org.kohsuke.args4j.Option;
 import java.io.Console;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Florent Garin
@@ -41,7 +46,7 @@ public abstract class BaseCommandLine extends AbstractCommandLine {
     @Option(name = "-P", aliases = "--port", metaVar = "<port>", usage = "port number to use for connection; default is 443 for SSL otherwise 80")
     protected int port = -1;
 
-    @Option(name = "-h", aliases = "--host", metaVar = "<host>", usage = "host of the DocDokuPLM server to connect; default is docdokuplm.net")
+    @Option(name = "-h", aliases = "--host", metaVar = "<host>", usage = "host of the DocDokuPLM server to connect, or comma separated hosts of its nodes sharing the same port; default is docdokuplm.net")
     protected String host = "docdokuplm.net";
 
     @Option(name = "-C", aliases = "--context-path", metaVar = "<contextPath>", usage = "Context root for DocDokuPLM API, default is /eplmp-server-rest")
@@ -56,7 +61,20 @@ public abstract class BaseCommandLine extends AbstractCommandLine {
     @Option(name = "-dbg", aliases = "--debug", usage = "enable debug mode")
     protected boolean debug = false;
 
-    protected ApiClient client;
+    @Option(name = "--max-rate", metaVar = "<rate>[,<rate>]", usage = "maximum requests per second, for metadata then for files; a single value applies to both")
+    protected String maxRate;
+
+    @Option(name = "--max-bandwidth", metaVar = "<size>[,<size>]", usage = "maximum bytes per second with an optional k, M or G unit, for metadata then for files; a single value applies to both")
+    protected String maxBandwidth;
+
+    @Option(name = "--timeout", metaVar = "<duration>", usage = "abort the command after a duration in seconds, or with an s, m or h unit; running it again resumes the transfers")
+    protected String timeout;
+
+    @Option(name = "--hedge", usage = "send a second copy of the metadata reads slower than usual and keep the first response, within a budget of 5% of the requests")
+    protected boolean hedge;
+
+    protected SharedApiClient client;
+    protected AdaptiveLimiter limiter;
 
     private void promptForUser() {
         Console c = System.console();
@@ -81,6 +99,9 @@ public abstract class BaseCommandLine extends AbstractCommandLine {
         langHelper = new LangHelper(userLocale);
         output = CliOutput.getOutput(format, userLocale);
         output.setDebug(debug);
+        double[] rates = parseBudgets(maxRate, false);
+        double[] bandwidths = parseBudgets(maxBandwidth, true);
+        long timeoutSeconds = parseTimeout(timeout);
         if(port == -1) {
             port = ssl ? 443 : 80;
         }
@@ -91,15 +112,116 @@ public abstract class BaseCommandLine extends AbstractCommandLine {
             promptForPassword();
         }
 
-        String apiBasePath = getServerURL().toString() + "/api";
+        List<String> apiBasePaths = new ArrayList<>();
+        for (String nodeHost : host.split(",")) {
+            apiBasePaths.add(getServerURL(nodeHost.trim()).toString() + "/api");
+        }
+        String apiBasePath = apiBasePaths.get(0);
 
-        client = DocDokuPLMClientFactory.createJWTClient(apiBasePath, user, password);
+        client = DocDokuPLMClientFactory.createSharedJWTClient(apiBasePath, user, password);
+        limiter = DocDokuPLMClientFactory.enableAdaptiveConcurrency(client);
+        if (apiBasePaths.size() > 1) {
+            DocDokuPLMClientFactory.enableLoadBalancing(client, apiBasePaths);
+        }
+        if (hedge) {
+            DocDokuPLMClientFactory.enableHedging(client);
+        }
+        DocDokuPLMClientFactory.enablePriorityLanes(client);
+        // Throttled requests wait before taking a lane slot
+        if (maxRate != null || maxBandwidth != null) {
+            DocDokuPLMClientFactory.enableTrafficShaping(client)
+                    .setRequestRates(rates[0], rates[1])
+                    .setBandwidths((long) bandwidths[0], (long) bandwidths[1]);
+        }
+        DocDokuPLMClientFactory.enableResilience(client).setRetryUploads(true);
+        Deadline deadline = null;
+        if (timeoutSeconds > 0) {
+            deadline = Deadline.after(timeoutSeconds, TimeUnit.SECONDS);
+            DocDokuPLMClientFactory.enableDeadline(client).setDeadline(deadline);
+        }
 
-        execImpl();
+        try {
+            execImpl();
+        } finally {
+            output.getTransferProgress().close();
+            if (deadline != null && deadline.isExpired()) {
+                output.printInfo(langHelper.getLocalizedMessage("TimeoutExpired"));
+            }
+        }
 
     }
 
+    /**
+     * Parse a budget for metadata and one for files, no value meaning no limit
+     */
+    private double[] parseBudgets(String value, boolean size) {
+        if (value == null) {
+            return new double[]{0, 0};
+        }
+        String[] values = value.split(",");
+        if (values.length > 2) {
+            throw new IllegalArgumentException(langHelper.getLocalizedMessage("InvalidTrafficLimit") + " : " + value);
+        }
+        double metadata = parseBudget(values[0].trim(), size);
+        double files = values.length > 1 ? parseBudget(values[1].trim(), size) : metadata;
+        return new double[]{metadata, files};
+    }
+
+    private double parseBudget(String value, boolean size) {
+        long unit = 1;
+        String number = value;
+        if (size && !value.isEmpty()) {
+            int index = "KMG".indexOf(Character.toUpperCase(value.charAt(value.length() - 1)));
+            if (index >= 0) {
+                unit = 1L << (10 * (index + 1));
+                number = value.substring(0, value.length() - 1);
+            }
+        }
+        try {
+            double budget = Double.parseDouble(number) * unit;
+            if (budget > 0) {
+                return budget;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(langHelper.getLocalizedMessage("InvalidTrafficLimit") + " : " + value);
+    }
+
+    /**
+     * Parse a duration in seconds, with an optional s, m or h unit
+     *
+     * @return the duration in seconds, or 0 if none
+     */
+    private long parseTimeout(String value) {
+        if (value == null) {
+            return 0;
+        }
+        long unit = 1;
+        String number = value.trim();
+        if (!number.isEmpty()) {
+            int index = "SMH".indexOf(Character.toUpperCase(number.charAt(number.length() - 1)));
+            if (index >= 0) {
+                unit = new long[]{1, 60, 3600}[index];
+                number = number.substring(0, number.length() - 1);
+            }
+        }
+        try {
+            long seconds = Long.parseLong(number) * unit;
+            if (seconds > 0) {
+                return seconds;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(langHelper.getLocalizedMessage("InvalidTimeout") + " : " + value);
+    }
+
     public URL getServerURL() throws MalformedURLException {
-        return new URL(ssl ? "https" : "http", host, port, contextPath);
+        return getServerURL(host.split(",")[0].trim());
+    }
+
+    private URL getServerURL(String nodeHost) throws MalformedURLException {
+        return new URL(ssl ? "https" : "http", nodeHost, port, contextPath);
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.commands.common;
+
+import com.docdoku.api.models.ComponentDTO;
+import com.docdoku.api.models.utils.BomRollup;
+import com.docdoku.api.models.utils.ProductStructureGraph;
+import com.docdoku.api.services.ProductsApi;
+import com.docdoku.cli.commands.BaseCommandLine;
+import com.docdoku.cli.helpers.StructureCache;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Print the flattened bill of materials of a product, with the total quantity of each part.
+ */
+public class BomCommand extends BaseCommandLine {
+
+    @Option(
+            name = "-w",
+            aliases = "--workspace",
+            required = true,
+            metaVar = "<workspace>",
+            usage = "workspace on which operations occur"
+    )
+    protected String workspace;
+
+    @Option(
+            name = "-c",
+            aliases = "--config-spec",
+            metaVar = "<config-spec>",
+            usage = "configuration of the product structure: wip, latest or latest-released; default is wip"
+    )
+    private String configSpec = "wip";
+
+    @Option(
+            name = "--leaves",
+            usage = "list only the parts which are not assemblies"
+    )
+    private boolean leaves;
+
+    @Option(
+            name = "--exclude-optional",
+            usage = "leave out the parts only used through optional links"
+    )
+    private boolean excludeOptional;
+
+    @Option(
+            name = "--refresh",
+            usage = "fetch the product structure again instead of using the recently fetched one"
+    )
+    private boolean refresh;
+
+    @Argument(
+            metaVar = "<product>",
+            index = 0,
+            required = true,
+            usage = "the id of the product"
+    )
+    private String productId;
+
+    @Override
+    public void execImpl() throws Exception {
+        try {
+            ProductsApi productsApi = new ProductsApi(client);
+            ComponentDTO structure = StructureCache.getDefault(client).get(workspace + "/" + productId + "/" + configSpec, refresh,
+                    () -> productsApi.filterProductStructure(workspace, productId, configSpec, "-1", -1, null, false));
+            ProductStructureGraph graph = ProductStructureGraph.builder().add(structure).build();
+            BomRollup bom = BomRollup.of(graph, graph.getNode(structure.getNumber()));
+            output.printBom(bom, selectNodes(bom));
+        } catch (Exception e) {
+            output.printException(e);
+        }
+    }
+
+    private int[] selectNodes(BomRollup bom) {
+        ProductStructureGraph graph = bom.getGraph();
+        return Arrays.stream(bom.getNodes())
+                .filter(node -> !leaves || graph.isLeaf(node))
+                .filter(node -> !excludeOptional || bom.getQuantity(node) > 0)
+                .toArray();
+    }
+
+    @Override
+    public String getDescription() throws IOException {
+        return langHelper.getLocalizedMessage("BomCommandDescription");
+    }
+}
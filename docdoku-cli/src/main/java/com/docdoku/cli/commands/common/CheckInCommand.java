@@ -6,6 +6,7 @@ import com.docdoku.api.models.utils.LastIterationHelper;
 import com.docdoku.api.services.DocumentApi;
 import com.docdoku.api.services.PartApi;
 import com.docdoku.cli.commands.BaseCommandLine;
+import com.docdoku.cli.helpers.DirtyTracker;
 import com.docdoku.cli.helpers.FileHelper;
 import com.docdoku.cli.helpers.MetaDirectoryManager;
 import org.kohsuke.args4j.Argument;
@@ -13,6 +14,7 @@ import org.kohsuke.args4j.Option;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.function.Predicate;
 
 public class CheckInCommand extends BaseCommandLine {
     @Option(
@@ -85,10 +87,14 @@ public class CheckInCommand extends BaseCommandLine {
                 throw new IllegalArgumentException(langHelper.getLocalizedMessage("DocumentOrPartOptionMandatory"));
             if (id == null || revision == null)
                 loadMetadata();
-            if(document)
-                processDocument();
-            else
-                processPart();
+            // Uploads, iteration note and check in must reach the same node
+            client.withAffinity(workspace + "/" + id + "-" + revision, () -> {
+                if(document)
+                    processDocument();
+                else
+                    processPart();
+                return null;
+            });
         } catch (Exception e) {
             output.printException(e);
             output.printCommandUsage(this);
@@ -99,7 +105,7 @@ public class CheckInCommand extends BaseCommandLine {
         if(path.isDirectory()){
             throw new IllegalArgumentException(langHelper.getLocalizedMessage("DocumentIdOrRevisionNotSpecified1"));
         }
-        MetaDirectoryManager meta = new MetaDirectoryManager(path.getParentFile());
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(path.getParentFile());
         String filePath = path.getAbsolutePath();
         if(document)
             id = meta.getDocumentId(filePath);
@@ -138,8 +144,8 @@ public class CheckInCommand extends BaseCommandLine {
                     String fileName = nativeCADFile.getName();
                     File localFile = new File(path, fileName);
                     if (localFile.exists()) {
-                        FileHelper fh = new FileHelper(client, output, langHelper);
-                        fh.uploadPartFile(workspace, id, revision, pi.getIteration(), path);
+                        DirtyTracker.Snapshot snapshot = DirtyTracker.getSnapshot(MetaDirectoryManager.getInstance(path));
+                        uploadIfChanged(snapshot, localFile, fh -> fh.uploadPartFile(workspace, id, revision, pi.getIteration(), localFile));
                     }
                 }
             }
@@ -152,7 +158,7 @@ public class CheckInCommand extends BaseCommandLine {
             partApi.checkIn(workspace, id, revision);
 
             output.printInfo(langHelper.getLocalizedMessage("PartCheckInSuccess"));
-        } catch (ApiException e) {
+        } catch (ApiException | IOException e) {
             output.printInfo(langHelper.getLocalizedMessage("PartCheckInFailed"));
             output.printException(e);
         }
@@ -172,13 +178,13 @@ public class CheckInCommand extends BaseCommandLine {
 
             if (!noUpload && !di.getAttachedFiles().isEmpty()) {
 
+                // Read once for all the attached files
+                DirtyTracker.Snapshot snapshot = DirtyTracker.getSnapshot(MetaDirectoryManager.getInstance(path));
                 for (BinaryResourceDTO binaryResourceDTO : di.getAttachedFiles()) {
                     String fileName = binaryResourceDTO.getName();
                     File localFile = new File(path, fileName);
                     if (localFile.exists()) {
-                        FileHelper fh = new FileHelper(client, output, langHelper);
-
-                        fh.uploadDocumentFile(workspace, id, revision, di.getIteration(), path);
+                        uploadIfChanged(snapshot, localFile, fh -> fh.uploadDocumentFile(workspace, id, revision, di.getIteration(), localFile));
                     }
                 }
             }
@@ -191,12 +197,24 @@ public class CheckInCommand extends BaseCommandLine {
             documentApi.checkInDocument(workspace, id, revision);
 
             output.printInfo(langHelper.getLocalizedMessage("DocumentCheckInSuccess"));
-        } catch (ApiException e) {
+        } catch (ApiException | IOException e) {
             output.printInfo(langHelper.getLocalizedMessage("DocumentCheckInFailed"));
             output.printException(e);
         }
     }
 
+    private void uploadIfChanged(DirtyTracker.Snapshot snapshot, File localFile, Predicate<FileHelper> upload) throws IOException {
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(path);
+        if ((snapshot != null && snapshot.isClean(localFile)) || FileHelper.isUnchanged(meta, localFile)) {
+            output.printInfo(langHelper.getLocalizedMessage("FileUnchanged") + " : " + localFile.getName());
+            return;
+        }
+        FileHelper fh = new FileHelper(client, output, langHelper);
+        if (upload.test(fh)) {
+            FileHelper.saveFileState(meta, localFile);
+        }
+    }
+
     @Override
     public String getDescription() throws IOException {
         return langHelper.getLocalizedMessage("CheckInCommandDescription");
@@ -7,6 +7,7 @@ import com.docdoku.api.services.DocumentApi;
 import com.docdoku.api.services.PartApi;
 import com.docdoku.api.services.PartsApi;
 import com.docdoku.cli.commands.BaseCommandLine;
+import com.docdoku.cli.helpers.BulkRunner;
 import com.docdoku.cli.helpers.FileHelper;
 import com.docdoku.cli.helpers.MetaDirectoryManager;
 import org.kohsuke.args4j.Argument;
@@ -14,8 +15,8 @@ import org.kohsuke.args4j.Option;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Jean-Luc Mounsamy
@@ -100,7 +101,7 @@ public class CheckoutCommand extends BaseCommandLine {
     )
     protected Integer baselineId;
 
-    private Set<String> alreadyProcessed = new HashSet<>();
+    private Set<String> alreadyProcessed = ConcurrentHashMap.newKeySet();
 
     @Override
     public void execImpl() throws Exception {
@@ -112,7 +113,7 @@ public class CheckoutCommand extends BaseCommandLine {
             if(document)
                 processDocument();
             else if(part)
-                processPart(id, revision);
+                processParts();
         } catch (Exception e) {
             output.printException(e);
             output.printCommandUsage(this);
@@ -128,7 +129,7 @@ public class CheckoutCommand extends BaseCommandLine {
         if (path.isDirectory()) {
             throw new IllegalArgumentException(langHelper.getLocalizedMessage("IdOrRevisionNotSpecified1"));
         }
-        MetaDirectoryManager meta = new MetaDirectoryManager(path.getParentFile());
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(path.getParentFile());
         String filePath = path.getAbsolutePath();
         if(document)
             id = meta.getDocumentId(filePath);
@@ -173,8 +174,15 @@ public class CheckoutCommand extends BaseCommandLine {
         }
     }
 
-    private void processPart(String pPartNumber, String pRevision) throws Exception {
-        if (alreadyProcessed.contains(pPartNumber)) {
+    private void processParts() throws Exception {
+        try (BulkRunner runner = new BulkRunner(limiter.getMaxLimit())) {
+            runner.submit(() -> processPart(id, revision, runner));
+            runner.await();
+        }
+    }
+
+    private void processPart(String pPartNumber, String pRevision, BulkRunner runner) throws Exception {
+        if (!alreadyProcessed.add(pPartNumber)) {
             return;
         }
         PartsApi partsApi = new PartsApi(client);
@@ -201,13 +209,12 @@ public class CheckoutCommand extends BaseCommandLine {
 
         if (nativeCADFile != null && !noDownload) {
             FileHelper fh = new FileHelper(client, output, langHelper);
-            fh.downloadPartFile(path, workspace, pPartNumber, pRevision, pi.getIteration(), nativeCADFile.getName(), pr.getType(), "nativecad", force);
+            fh.downloadPartFile(path, workspace, pPartNumber, pr.getVersion(), pi.getIteration(), nativeCADFile, pr.getType(), "nativecad", true, force);
         }
-        alreadyProcessed.add(pPartNumber);
         if (recursive) {
             for (PartUsageLinkDTO link : pi.getComponents()) {
                 String linkNumber = link.getComponent().getNumber();
-                processPart(linkNumber, null);
+                runner.submit(() -> processPart(linkNumber, null, runner));
             }
         }
     }
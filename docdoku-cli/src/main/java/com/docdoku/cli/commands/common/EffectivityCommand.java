@@ -0,0 +1,273 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.commands.common;
+
+import com.docdoku.api.http.Priority;
+import com.docdoku.api.models.ComponentDTO;
+import com.docdoku.api.models.PartRevisionDTO;
+import com.docdoku.api.models.PartSubstituteLinkDTO;
+import com.docdoku.api.models.PartUsageLinkDTO;
+import com.docdoku.api.models.utils.EffectivityFilter;
+import com.docdoku.api.models.utils.LastIterationHelper;
+import com.docdoku.api.services.PartsApi;
+import com.docdoku.api.services.ProductsApi;
+import com.docdoku.cli.commands.BaseCommandLine;
+import com.docdoku.cli.helpers.BulkRunner;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * List the part revisions of a product effective for each of a set of serial numbers, dates or
+ * lots. Revisions and effectivities are fetched once, the structures being filtered locally.
+ */
+public class EffectivityCommand extends BaseCommandLine {
+
+    private static final int PAGE_SIZE = 100;
+    private static final Pattern NUMBER_RANGE = Pattern.compile("(\\d+)\\.\\.(\\d+)");
+    private static final int MAX_RANGE_SIZE = 10000;
+
+    @Option(
+            name = "-w",
+            aliases = "--workspace",
+            required = true,
+            metaVar = "<workspace>",
+            usage = "workspace on which operations occur"
+    )
+    protected String workspace;
+
+    @Option(
+            name = "-s",
+            aliases = "--serial-numbers",
+            metaVar = "<numbers>",
+            usage = "comma separated serial numbers, or ranges of at most 10000 numbers such as 0001..0100"
+    )
+    private String serialNumbers;
+
+    @Option(
+            name = "-d",
+            aliases = "--dates",
+            metaVar = "<dates>",
+            usage = "comma separated dates, formatted as yyyy-mm-dd"
+    )
+    private String dates;
+
+    @Option(
+            name = "-l",
+            aliases = "--lots",
+            metaVar = "<lots>",
+            usage = "comma separated lot ids"
+    )
+    private String lots;
+
+    @Argument(
+            metaVar = "<product>",
+            index = 0,
+            required = true,
+            usage = "the id of the product"
+    )
+    private String productId;
+
+    @Override
+    public void execImpl() throws Exception {
+        try {
+            Map<String, EffectivityFilter.Context> contexts = getContexts();
+            String designItem = new ProductsApi(client).getConfigurationItem(workspace, productId).getDesignItemNumber();
+            EffectivityFilter filter = new EffectivityFilter(productId);
+            fetchRevisions(filter);
+            fetchEffectivities(filter, designItem);
+
+            // Contexts sharing the same revisions are printed together
+            Map<List<String>, List<String>> contextsByParts = new LinkedHashMap<>();
+            for (Map.Entry<String, EffectivityFilter.Context> context : contexts.entrySet()) {
+                List<String> parts = getParts(filter.filter(designItem, context.getValue()));
+                contextsByParts.computeIfAbsent(parts, p -> new ArrayList<>()).add(context.getKey());
+            }
+            output.printEffectiveParts(contextsByParts);
+        } catch (Exception e) {
+            output.printException(e);
+        }
+    }
+
+    private Map<String, EffectivityFilter.Context> getContexts() throws IOException {
+        Map<String, EffectivityFilter.Context> contexts = new LinkedHashMap<>();
+        if (serialNumbers != null) {
+            for (String value : split(serialNumbers)) {
+                Matcher range = NUMBER_RANGE.matcher(value);
+                if (range.matches()) {
+                    for (String number : expand(range.group(1), range.group(2))) {
+                        contexts.put(number, EffectivityFilter.Context.serialNumber(number));
+                    }
+                } else {
+                    contexts.put(value, EffectivityFilter.Context.serialNumber(value));
+                }
+            }
+        }
+        if (dates != null) {
+            for (String value : split(dates)) {
+                Date date = Date.from(LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant());
+                contexts.put(value, EffectivityFilter.Context.date(date));
+            }
+        }
+        if (lots != null) {
+            for (String value : split(lots)) {
+                contexts.put(value, EffectivityFilter.Context.lot(value));
+            }
+        }
+        if (contexts.isEmpty()) {
+            throw new IllegalArgumentException(langHelper.getLocalizedMessage("EffectivityContextMandatory"));
+        }
+        return contexts;
+    }
+
+    /**
+     * Serial numbers of a range, zero padded to the width of its first number as in 0001..0100
+     */
+    private List<String> expand(String first, String last) {
+        BigInteger start = new BigInteger(first);
+        BigInteger end = new BigInteger(last);
+        if (end.subtract(start).compareTo(BigInteger.valueOf(MAX_RANGE_SIZE)) >= 0) {
+            throw new IllegalArgumentException(langHelper.getLocalizedMessage("SerialNumberRangeTooLarge")
+                    + " : " + first + ".." + last);
+        }
+        List<String> numbers = new ArrayList<>();
+        for (BigInteger number = start; number.compareTo(end) <= 0; number = number.add(BigInteger.ONE)) {
+            StringBuilder serialNumber = new StringBuilder(number.toString());
+            while (serialNumber.length() < first.length()) {
+                serialNumber.insert(0, '0');
+            }
+            numbers.add(serialNumber.toString());
+        }
+        return numbers;
+    }
+
+    private static List<String> split(String values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values.split(",")) {
+            if (!value.trim().isEmpty()) {
+                list.add(value.trim());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Fetch all the part revisions of the workspace, a page per request
+     */
+    private void fetchRevisions(EffectivityFilter filter) throws Exception {
+        PartsApi partsApi = new PartsApi(client);
+        int count = partsApi.getTotalNumberOfParts(workspace).getCount();
+        try (BulkRunner runner = new BulkRunner(limiter.getMaxLimit())) {
+            for (int start = 0; start < count; start += PAGE_SIZE) {
+                int pageStart = start;
+                runner.submit(() -> {
+                    List<PartRevisionDTO> page = client.withPriority(Priority.BULK_METADATA,
+                            () -> partsApi.getPartRevisions(workspace, pageStart, PAGE_SIZE));
+                    page.forEach(filter::addRevision);
+                });
+            }
+            runner.await();
+        }
+    }
+
+    /**
+     * Fetch the effectivities of every revision of the parts which can be in the product
+     */
+    private void fetchEffectivities(EffectivityFilter filter, String designItem) throws Exception {
+        PartsApi partsApi = new PartsApi(client);
+        Set<String> numbers = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(designItem);
+        numbers.add(designItem);
+        try (BulkRunner runner = new BulkRunner(limiter.getMaxLimit())) {
+            while (!pending.isEmpty()) {
+                for (PartRevisionDTO partRevision : filter.getRevisions(pending.pop())) {
+                    String number = partRevision.getNumber();
+                    String version = partRevision.getVersion();
+                    runner.submit(() -> filter.setEffectivities(number, version, client.withPriority(Priority.BULK_METADATA,
+                            () -> partsApi.getEffectivities(workspace, number, version))));
+                    for (String child : getChildren(partRevision)) {
+                        if (numbers.add(child)) {
+                            pending.push(child);
+                        }
+                    }
+                }
+            }
+            runner.await();
+        }
+    }
+
+    private static List<String> getChildren(PartRevisionDTO partRevision) {
+        List<String> children = new ArrayList<>();
+        if (partRevision.getPartIterations() == null || partRevision.getPartIterations().isEmpty()
+                || LastIterationHelper.getLastIteration(partRevision).getComponents() == null) {
+            return children;
+        }
+        for (PartUsageLinkDTO link : LastIterationHelper.getLastIteration(partRevision).getComponents()) {
+            children.add(link.getComponent().getNumber());
+            if (link.getSubstitutes() != null) {
+                for (PartSubstituteLinkDTO substitute : link.getSubstitutes()) {
+                    children.add(substitute.getSubstitute().getNumber());
+                }
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @return the revisions of a filtered structure, sorted
+     */
+    private static List<String> getParts(ComponentDTO structure) {
+        Set<String> parts = new TreeSet<>();
+        Deque<ComponentDTO> pending = new ArrayDeque<>();
+        if (structure != null) {
+            pending.push(structure);
+        }
+        while (!pending.isEmpty()) {
+            ComponentDTO component = pending.pop();
+            if (parts.add(component.getNumber() + "-" + component.getVersion())) {
+                component.getComponents().forEach(pending::push);
+            }
+        }
+        return new ArrayList<>(parts);
+    }
+
+    @Override
+    public String getDescription() throws IOException {
+        return langHelper.getLocalizedMessage("EffectivityCommandDescription");
+    }
+}
@@ -1,11 +1,14 @@
 package com.docdoku.cli.commands.common;
 
 import com.docdoku.api.client.ApiException;
+import com.docdoku.api.http.Priority;
 import com.docdoku.api.models.*;
 import com.docdoku.api.models.utils.LastIterationHelper;
 import com.docdoku.api.services.DocumentApi;
 import com.docdoku.api.services.PartsApi;
 import com.docdoku.cli.commands.BaseCommandLine;
+import com.docdoku.cli.helpers.BlobCache;
+import com.docdoku.cli.helpers.BulkRunner;
 import com.docdoku.cli.helpers.FileHelper;
 import com.docdoku.cli.helpers.MetaDirectoryManager;
 import org.kohsuke.args4j.Argument;
@@ -15,7 +18,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Jean-Luc Mounsamy
@@ -100,6 +105,15 @@ public class GetCommand extends BaseCommandLine {
             )
     protected Integer baselineId;
 
+    @Option(
+            name = "--from-baseline",
+            metaVar = "<baseline>",
+            usage = "baseline the files of the directory were fetched from; only the files differing from the baseline to filter are deleted, replaced or added",
+            depends = {"-b", "-R"},
+            forbids = {"-doc"}
+            )
+    private Integer fromBaselineId;
+
     @Override
     public void execImpl() throws Exception {
         try {
@@ -111,8 +125,14 @@ public class GetCommand extends BaseCommandLine {
             }
             if(document) {
                 getDocument(id, revision, iteration);
+            } else if(part && fromBaselineId != null) {
+                switchBaseline(id);
             } else if(part) {
-                getPart(id, revision, iteration, new HashSet<>());
+                try (BulkRunner runner = new BulkRunner(limiter.getMaxLimit())) {
+                    Set<String> alreadyProcessed = ConcurrentHashMap.newKeySet();
+                    runner.submit(() -> getPart(id, revision, iteration, alreadyProcessed, runner));
+                    runner.await();
+                }
             }
         } catch (Exception e) {
             output.printException(e);
@@ -129,7 +149,7 @@ public class GetCommand extends BaseCommandLine {
         if(path.isDirectory()){
             throw new IllegalArgumentException(langHelper.getLocalizedMessage("DocumentIdOrRevisionNotSpecified1"));
         }
-        MetaDirectoryManager meta = new MetaDirectoryManager(path.getParentFile());
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(path.getParentFile());
         String filePath = path.getAbsolutePath();
         if(document) {
             id = meta.getDocumentId(filePath);
@@ -165,8 +185,8 @@ public class GetCommand extends BaseCommandLine {
         }
     }
 
-    private void getPart(String pPartNumber, String pRevision, Integer pIteration, Set<String> alreadyProcessed) throws ApiException {
-        if (alreadyProcessed.contains(pPartNumber)) {
+    private void getPart(String pPartNumber, String pRevision, Integer pIteration, Set<String> alreadyProcessed, BulkRunner runner) throws ApiException {
+        if (!alreadyProcessed.add(pPartNumber)) {
             return;
         }
         PartsApi partsApi = new PartsApi(client);
@@ -186,19 +206,127 @@ public class GetCommand extends BaseCommandLine {
 
         if (nativeCADFile != null) {
             FileHelper fh = new FileHelper(client, output, langHelper);
-            File result = fh.downloadPartFile(path, workspace, pPartNumber, pRevision, pi.getIteration(), nativeCADFile.getName(), pr.getType(), "nativecad", force);
+            UserDTO checkOutUser = pr.getCheckOutUser();
+            boolean writable = checkOutUser != null && checkOutUser.getLogin().equals(user)
+                    && LastIterationHelper.getLastIteration(pr).getIteration().equals(pi.getIteration());
+            File result = fh.downloadPartFile(path, workspace, pPartNumber, pr.getVersion(), pi.getIteration(), nativeCADFile, pr.getType(), "nativecad", writable, force);
             output.printInfo(result.getAbsolutePath());
         } else {
             output.printInfo(langHelper.getLocalizedMessage("NoFileForPart") + " : " + pPartNumber +
                     " " + pr.getVersion() + "." + pi.getIteration() + " (" + workspace + ")");
         }
-        alreadyProcessed.add(pPartNumber);
         if (recursive) {
             for (PartUsageLinkDTO link : pi.getComponents()) {
                 String linkNumber = link.getComponent().getNumber();
-                getPart(linkNumber, null, null, alreadyProcessed);
+                runner.submit(() -> getPart(linkNumber, null, null, alreadyProcessed, runner));
             }
         }
 
     }
+
+    /**
+     * Move the files of a structure from a baseline to another. Both baselines are resolved
+     * concurrently, then the files of the part iterations which differ are deleted, replaced or added,
+     * and the index is updated at once.
+     */
+    private void switchBaseline(String pPartNumber) throws Exception {
+        PartsApi partsApi = new PartsApi(client);
+        Map<String, PartIterationDTO> previous = new ConcurrentHashMap<>();
+        Map<String, PartIterationDTO> next = new ConcurrentHashMap<>();
+        try (BulkRunner runner = new BulkRunner(limiter.getMaxLimit())) {
+            Set<String> previousProcessed = ConcurrentHashMap.newKeySet();
+            Set<String> nextProcessed = ConcurrentHashMap.newKeySet();
+            runner.submit(() -> resolveBaseline(partsApi, pPartNumber, fromBaselineId, previous, previousProcessed, runner));
+            runner.submit(() -> resolveBaseline(partsApi, pPartNumber, baselineId, next, nextProcessed, runner));
+            runner.await();
+        }
+
+        Set<String> nextFiles = new HashSet<>();
+        for (PartIterationDTO pi : next.values()) {
+            if (pi.getNativeCADFile() != null) {
+                nextFiles.add(pi.getNativeCADFile().getName());
+            }
+        }
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(path);
+        MetaDirectoryManager.Batch batch = meta.newBatch();
+        try (BulkRunner runner = new BulkRunner(limiter.getMaxLimit())) {
+            for (PartIterationDTO pi : previous.values()) {
+                BinaryResourceDTO file = pi.getNativeCADFile();
+                // Files also in the next baseline are replaced in place
+                if (file != null && !nextFiles.contains(file.getName())) {
+                    runner.submit(() -> deletePartFile(meta, batch, pi.getNumber(), file, new File(path, file.getName())));
+                }
+            }
+            for (PartIterationDTO pi : next.values()) {
+                if (pi.getNativeCADFile() != null && !isSameFile(previous.get(pi.getNumber()), pi)) {
+                    runner.submit(() -> switchPartFile(partsApi, pi, batch));
+                }
+            }
+            runner.await();
+        } finally {
+            batch.commit();
+        }
+    }
+
+    private void resolveBaseline(PartsApi partsApi, String pPartNumber, int pBaselineId, Map<String, PartIterationDTO> resolved,
+                                 Set<String> alreadyProcessed, BulkRunner runner) throws ApiException {
+        if (!alreadyProcessed.add(pPartNumber)) {
+            return;
+        }
+        PartIterationDTO pi = client.withPriority(Priority.BULK_METADATA,
+                () -> partsApi.filterPartMasterInBaseline(workspace, pPartNumber, pBaselineId));
+        resolved.put(pPartNumber, pi);
+        for (PartUsageLinkDTO link : pi.getComponents()) {
+            String linkNumber = link.getComponent().getNumber();
+            runner.submit(() -> resolveBaseline(partsApi, linkNumber, pBaselineId, resolved, alreadyProcessed, runner));
+        }
+    }
+
+    /**
+     * Tell whether two part iterations have the same file, by number, version, iteration and file name
+     */
+    private static boolean isSameFile(PartIterationDTO previous, PartIterationDTO next) {
+        return previous != null && previous.getNativeCADFile() != null
+                && previous.getVersion().equals(next.getVersion())
+                && previous.getIteration().equals(next.getIteration())
+                && previous.getNativeCADFile().getName().equals(next.getNativeCADFile().getName());
+    }
+
+    private void switchPartFile(PartsApi partsApi, PartIterationDTO pi, MetaDirectoryManager.Batch batch) throws ApiException {
+        PartRevisionDTO pr = partsApi.getPartRevision(workspace, pi.getNumber(), pi.getVersion());
+        UserDTO checkOutUser = pr.getCheckOutUser();
+        boolean writable = checkOutUser != null && checkOutUser.getLogin().equals(user)
+                && LastIterationHelper.getLastIteration(pr).getIteration().equals(pi.getIteration());
+        FileHelper fh = new FileHelper(client, output, langHelper);
+        File result = fh.downloadPartFile(path, workspace, pi.getNumber(), pi.getVersion(), pi.getIteration(), pi.getNativeCADFile(),
+                pr.getType(), "nativecad", writable, force, batch);
+        if (result != null) {
+            output.printInfo(result.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Delete the file of a part left out of the baseline, unless it was modified locally
+     */
+    private void deletePartFile(MetaDirectoryManager meta, MetaDirectoryManager.Batch batch, String pPartNumber,
+                                BinaryResourceDTO binaryResource, File localFile) throws IOException {
+        String filePath = localFile.getAbsolutePath();
+        if (!pPartNumber.equals(meta.getPartNumber(filePath))) {
+            return;
+        }
+        if (localFile.exists()) {
+            if (!force && !FileHelper.isUnchanged(meta, localFile)) {
+                output.printInfo(langHelper.getLocalizedMessage("FileModifiedKept") + " : " + filePath);
+                return;
+            }
+            try {
+                // Read only files are hard linked to the cache, never made writable to be deleted
+                BlobCache.getDefault().unlink(BlobCache.keyOf(binaryResource), localFile.toPath());
+            } catch (IOException e) {
+                throw new IOException(langHelper.getLocalizedMessage("CannotDeleteFile") + " : " + filePath, e);
+            }
+            output.printInfo(langHelper.getLocalizedMessage("FileDeleted") + " : " + filePath);
+        }
+        batch.delete(filePath);
+    }
 }
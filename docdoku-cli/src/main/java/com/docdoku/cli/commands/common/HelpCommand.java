@@ -96,6 +96,30 @@ public class HelpCommand extends AbstractCommandLine {
                 cl=new AccountInfosCommand();
                 break;
 
+            case "init":
+                cl=new InitCommand();
+                break;
+
+            case "watch":
+                cl=new WatchCommand();
+                break;
+
+            case "bom":
+                cl=new BomCommand();
+                break;
+
+            case "effectivity": case "eff":
+                cl=new EffectivityCommand();
+                break;
+
+            case "placements":
+                cl=new PlacementsCommand();
+                break;
+
+            case "whereused": case "wu":
+                cl=new WhereUsedCommand();
+                break;
+
             case "help": case "?" : case "h":
                 cl=new HelpCommand();
                 break;
@@ -0,0 +1,158 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.commands.common;
+
+import com.docdoku.api.http.Priority;
+import com.docdoku.api.models.ComponentDTO;
+import com.docdoku.api.models.PartIterationDTO;
+import com.docdoku.api.models.PartRevisionDTO;
+import com.docdoku.api.models.utils.InstancePlacements;
+import com.docdoku.api.models.utils.LastIterationHelper;
+import com.docdoku.api.models.utils.ProductStructureGraph;
+import com.docdoku.api.services.PartsApi;
+import com.docdoku.api.services.ProductsApi;
+import com.docdoku.cli.commands.BaseCommandLine;
+import com.docdoku.cli.helpers.BulkRunner;
+import com.docdoku.cli.helpers.StructureCache;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Print the world placement of each leaf instance of a product, composed from the placements of the
+ * CAD instances along its path.
+ */
+public class PlacementsCommand extends BaseCommandLine {
+
+    @Option(
+            name = "-w",
+            aliases = "--workspace",
+            required = true,
+            metaVar = "<workspace>",
+            usage = "workspace on which operations occur"
+    )
+    protected String workspace;
+
+    @Option(
+            name = "-c",
+            aliases = "--config-spec",
+            metaVar = "<config-spec>",
+            usage = "configuration of the product structure: wip, latest or latest-released; default is wip"
+    )
+    private String configSpec = "wip";
+
+    @Option(
+            name = "--refresh",
+            usage = "fetch the product structure again instead of using the recently fetched one"
+    )
+    private boolean refresh;
+
+    @Argument(
+            metaVar = "<product>",
+            index = 0,
+            required = true,
+            usage = "the id of the product"
+    )
+    private String productId;
+
+    @Override
+    public void execImpl() throws Exception {
+        try {
+            ProductsApi productsApi = new ProductsApi(client);
+            ComponentDTO structure = StructureCache.getDefault(client).get(workspace + "/" + productId + "/" + configSpec, refresh,
+                    () -> productsApi.filterProductStructure(workspace, productId, configSpec, "-1", -1, null, false));
+            ProductStructureGraph graph = ProductStructureGraph.builder().add(structure).build();
+            InstancePlacements.Builder builder = InstancePlacements.builder(graph);
+            for (PartIterationDTO iteration : fetchAssemblies(graph, structure)) {
+                builder.add(iteration);
+            }
+            output.printPlacements(builder.build(graph.getNode(structure.getNumber())));
+        } catch (Exception e) {
+            output.printException(e);
+        }
+    }
+
+    /**
+     * Fetch the iterations of the assemblies of the structure, holding the CAD instances of their links
+     */
+    private Queue<PartIterationDTO> fetchAssemblies(ProductStructureGraph graph, ComponentDTO structure) throws Exception {
+        Map<String, Integer> iterations = getIterations(structure);
+        PartsApi partsApi = new PartsApi(client);
+        Queue<PartIterationDTO> assemblies = new ConcurrentLinkedQueue<>();
+        try (BulkRunner runner = new BulkRunner(limiter.getMaxLimit())) {
+            for (int node = 0; node < graph.size(); node++) {
+                if (graph.isLeaf(node)) {
+                    continue;
+                }
+                String number = graph.getNumber(node);
+                String version = graph.getVersion(node);
+                runner.submit(() -> {
+                    PartRevisionDTO partRevision = client.withPriority(Priority.BULK_METADATA,
+                            () -> partsApi.getPartRevision(workspace, number, version));
+                    assemblies.add(getIteration(partRevision, iterations.get(number)));
+                });
+            }
+            runner.await();
+        }
+        return assemblies;
+    }
+
+    private static PartIterationDTO getIteration(PartRevisionDTO partRevision, Integer iteration) {
+        for (PartIterationDTO partIteration : partRevision.getPartIterations()) {
+            if (partIteration.getIteration().equals(iteration)) {
+                return partIteration;
+            }
+        }
+        return LastIterationHelper.getLastIteration(partRevision);
+    }
+
+    /**
+     * @return the iteration of each part of a structure, as chosen by the configuration
+     */
+    private static Map<String, Integer> getIterations(ComponentDTO structure) {
+        Map<String, Integer> iterations = new HashMap<>();
+        Deque<ComponentDTO> pending = new ArrayDeque<>();
+        pending.push(structure);
+        while (!pending.isEmpty()) {
+            ComponentDTO component = pending.pop();
+            if (iterations.containsKey(component.getNumber())) {
+                continue;
+            }
+            iterations.put(component.getNumber(), component.getIteration());
+            if (component.getComponents() != null) {
+                component.getComponents().forEach(pending::push);
+            }
+        }
+        return iterations;
+    }
+
+    @Override
+    public String getDescription() throws IOException {
+        return langHelper.getLocalizedMessage("PlacementsCommandDescription");
+    }
+}
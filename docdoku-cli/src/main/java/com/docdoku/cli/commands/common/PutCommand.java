@@ -74,7 +74,7 @@ public class PutCommand extends BaseCommandLine {
     }
 
     private void loadMetadata() throws IOException {
-        MetaDirectoryManager meta = new MetaDirectoryManager(file.getParentFile());
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(file.getParentFile());
         String filePath = file.getAbsolutePath();
         if(document) {
             id = meta.getDocumentId(filePath);
@@ -1,18 +1,30 @@
 package com.docdoku.cli.commands.common;
 
 import com.docdoku.api.client.ApiException;
+import com.docdoku.api.http.Priority;
 import com.docdoku.api.models.DocumentRevisionDTO;
 import com.docdoku.api.models.PartRevisionDTO;
+import com.docdoku.api.models.UserDTO;
+import com.docdoku.api.models.utils.LastIterationHelper;
 import com.docdoku.api.services.DocumentApi;
 import com.docdoku.api.services.PartApi;
 import com.docdoku.api.services.PartsApi;
 import com.docdoku.cli.commands.BaseCommandLine;
+import com.docdoku.cli.helpers.DirtyTracker;
+import com.docdoku.cli.helpers.FileHelper;
+import com.docdoku.cli.helpers.FileStatus;
 import com.docdoku.cli.helpers.MetaDirectoryManager;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Jean-Luc Mounsamy
@@ -59,10 +71,26 @@ public class StatusCommand extends BaseCommandLine {
     )
     private String revision;
 
+    @Option(
+            name = "-R",
+            aliases = "--recursive",
+            usage = "print the status of all the tracked files of the given directory and its subdirectories (default is working directory)",
+            forbids = {"-doc", "-part"}
+    )
+    private boolean recursive;
+
+    @Option(
+            name = "-j",
+            aliases = "--jobs",
+            usage = "maximum number of concurrent requests in recursive mode; default adapts to the server latency",
+            metaVar = "<jobs>"
+    )
+    private int jobs;
+
     @Argument(
-            metaVar = "[<file>]",
+            metaVar = "[<file> | <dir>]",
             index = 0,
-            usage = "specify the file of the target to get a status"
+            usage = "specify the file of the target to get a status, or the directory in recursive mode"
     )
     private File file;
 
@@ -71,6 +99,10 @@ public class StatusCommand extends BaseCommandLine {
     @Override
     public void execImpl() throws Exception {
         try {
+            if (recursive) {
+                processTree();
+                return;
+            }
             if(!document && !part && file == null) {
                 throw new IllegalArgumentException(langHelper.getLocalizedMessage("StatusCommandNoFileSupplied"));
             }
@@ -100,7 +132,7 @@ public class StatusCommand extends BaseCommandLine {
             DocumentRevisionDTO documentRevisionDTO = documentApi.getDocumentRevision(workspace, id, revision);
             output.printDocumentRevision(documentRevisionDTO, lastModified);
         } catch (ApiException e) {
-            MetaDirectoryManager meta = new MetaDirectoryManager(file.getParentFile());
+            MetaDirectoryManager meta = MetaDirectoryManager.getInstance(file.getParentFile());
             meta.deleteEntryInfo(file.getAbsolutePath());
             output.printException(e);
         }
@@ -120,7 +152,7 @@ public class StatusCommand extends BaseCommandLine {
             }
             output.printPartRevision(partRevision, lastModified);
         } catch (ApiException e) {
-            MetaDirectoryManager meta = new MetaDirectoryManager(file.getParentFile());
+            MetaDirectoryManager meta = MetaDirectoryManager.getInstance(file.getParentFile());
             meta.deleteEntryInfo(file.getAbsolutePath());
             output.printException(e);
         }
@@ -129,7 +161,7 @@ public class StatusCommand extends BaseCommandLine {
     private void processFile() throws IOException {
         if(file == null)
             throw new IllegalArgumentException(langHelper.getLocalizedMessage("StatusCommandMissingFile"));
-        MetaDirectoryManager meta = new MetaDirectoryManager(file.getParentFile());
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(file.getParentFile());
         String filePath = file.getAbsolutePath();
 
         String metaWorkspace = meta.getWorkspace(filePath);
@@ -162,10 +194,120 @@ public class StatusCommand extends BaseCommandLine {
         }
     }
 
+    private void processTree() throws IOException, InterruptedException {
+        File directory = file != null ? file : new File(System.getProperty("user.dir"));
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException(langHelper.getLocalizedMessage("NotADirectory") + " : " + directory);
+        }
+        String directoryPath = directory.getAbsoluteFile().toPath().normalize().toString();
+
+        List<FileStatus> statuses = new ArrayList<>();
+        for (MetaDirectoryManager meta : MetaDirectoryManager.findIndexes(directory)) {
+            List<String> filePaths = new ArrayList<>();
+            List<String> existingFilePaths = new ArrayList<>();
+            for (String filePath : meta.getTrackedFiles()) {
+                if (Paths.get(filePath).startsWith(directoryPath)) {
+                    filePaths.add(filePath);
+                    if (new File(filePath).exists()) {
+                        existingFilePaths.add(filePath);
+                    }
+                }
+            }
+            // A running watcher only spares checking the files it guarantees to be unmodified
+            DirtyTracker.Snapshot snapshot = DirtyTracker.getSnapshot(meta);
+            List<String> uncertainFilePaths = new ArrayList<>();
+            for (String filePath : existingFilePaths) {
+                if (snapshot == null || !snapshot.isClean(new File(filePath))) {
+                    uncertainFilePaths.add(filePath);
+                }
+            }
+            Set<String> modified = FileHelper.findModified(meta, uncertainFilePaths);
+            for (String filePath : filePaths) {
+                statuses.add(getLocalStatus(meta, filePath, modified));
+            }
+        }
+
+        // Requests are throttled by the adaptive limit of the client, jobs only caps it
+        ExecutorService executor = Executors.newFixedThreadPool(jobs > 0 ? jobs : limiter.getMaxLimit());
+        try {
+            // Files of a same document, or already seen revisions, share a single request
+            Map<String, Future<Object>> requests = new HashMap<>();
+            for (FileStatus status : statuses) {
+                String key = (status.isDocument() ? "document/" : "part/") + status.getWorkspace() + "/" + status.getId() + "/" + status.getRevision();
+                requests.computeIfAbsent(key, k -> executor.submit(() -> client.withPriority(Priority.BULK_METADATA, () -> fetchRevision(status))));
+            }
+            for (FileStatus status : statuses) {
+                String key = (status.isDocument() ? "document/" : "part/") + status.getWorkspace() + "/" + status.getId() + "/" + status.getRevision();
+                applyServerStatus(status, requests.get(key));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        statuses.sort(Comparator.comparing(FileStatus::getWorkspace).thenComparing(FileStatus::getFilePath));
+        output.printStatusReport(statuses);
+    }
+
+    private FileStatus getLocalStatus(MetaDirectoryManager meta, String filePath, Set<String> modified) {
+        boolean isDocument = meta.isDocumentRelated(filePath);
+        FileStatus status = new FileStatus(filePath, String.valueOf(meta.getWorkspace(filePath)),
+                isDocument ? meta.getDocumentId(filePath) : meta.getPartNumber(filePath),
+                meta.getRevision(filePath), meta.getIteration(filePath), isDocument);
+        if (!new File(filePath).exists()) {
+            status.addState(FileStatus.State.DELETED_LOCALLY);
+        } else if (modified.contains(filePath)) {
+            status.addState(FileStatus.State.MODIFIED);
+        }
+        return status;
+    }
+
+    private Object fetchRevision(FileStatus status) throws ApiException {
+        if (status.isDocument()) {
+            return new DocumentApi(client).getDocumentRevision(status.getWorkspace(), status.getId(), status.getRevision());
+        }
+        return new PartApi(client).getPartRevision(status.getWorkspace(), status.getId(), status.getRevision());
+    }
+
+    private void applyServerStatus(FileStatus status, Future<Object> request) throws InterruptedException {
+        Object revision;
+        try {
+            revision = request.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ApiException && ((ApiException) cause).getCode() == 404) {
+                status.addState(FileStatus.State.DELETED_ON_SERVER);
+            } else {
+                status.setError(cause.getMessage());
+            }
+            return;
+        }
+
+        UserDTO checkOutUser;
+        int lastIteration;
+        if (revision instanceof DocumentRevisionDTO) {
+            DocumentRevisionDTO documentRevision = (DocumentRevisionDTO) revision;
+            checkOutUser = documentRevision.getCheckOutUser();
+            lastIteration = LastIterationHelper.getLastIteration(documentRevision).getIteration();
+        } else {
+            PartRevisionDTO partRevision = (PartRevisionDTO) revision;
+            checkOutUser = partRevision.getCheckOutUser();
+            lastIteration = LastIterationHelper.getLastIteration(partRevision).getIteration();
+        }
+
+        status.setServerIteration(lastIteration);
+        if (lastIteration > status.getIteration()) {
+            status.addState(FileStatus.State.OUTDATED);
+        }
+        if (checkOutUser != null) {
+            status.setCheckOutUser(checkOutUser.getLogin());
+            status.addState(checkOutUser.getLogin().equals(user) ? FileStatus.State.CHECKED_OUT : FileStatus.State.CHECKED_OUT_BY_OTHER);
+        }
+    }
+
     private void loadMetadata() throws IOException {
         if (file == null)
             throw new IllegalArgumentException(langHelper.getLocalizedMessage("StatusCommandNoFileSuppliedToGetMissingArgs"));
-        MetaDirectoryManager meta = new MetaDirectoryManager(file.getParentFile());
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(file.getParentFile());
         String filePath = file.getAbsolutePath();
         if(document)
             id = meta.getDocumentId(filePath);
@@ -109,7 +109,7 @@ public class UndoCheckoutCommand extends BaseCommandLine {
         if (path.isDirectory()) {
             throw new IllegalArgumentException(langHelper.getLocalizedMessage("IdOrRevisionNotSpecified1"));
         }
-        MetaDirectoryManager meta = new MetaDirectoryManager(path.getParentFile());
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(path.getParentFile());
         String filePath = path.getAbsolutePath();
         if(document)
             id = meta.getDocumentId(filePath);
@@ -146,7 +146,7 @@ public class UndoCheckoutCommand extends BaseCommandLine {
 
         if (nativeCADFile != null && download) {
             FileHelper fh = new FileHelper(client, output, langHelper);
-            fh.downloadPartFile(path, workspace, id, revision, pi.getIteration(), nativeCADFile.getName(), pr.getType(), "nativecad", force);
+            fh.downloadPartFile(path, workspace, id, revision, pi.getIteration(), nativeCADFile, pr.getType(), "nativecad", false, force);
         }
     }
 }
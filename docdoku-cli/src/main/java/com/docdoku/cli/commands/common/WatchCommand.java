@@ -0,0 +1,65 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.commands.common;
+
+import com.docdoku.cli.commands.AbstractCommandLine;
+import com.docdoku.cli.helpers.DirtyTracker;
+import com.docdoku.cli.helpers.MetaDirectoryManager;
+import org.kohsuke.args4j.Argument;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Watch a working directory, so that other commands only check the modified files
+ */
+public class WatchCommand extends AbstractCommandLine {
+
+    @Argument(
+            metaVar = "[<dir>]",
+            index = 0,
+            usage = "the directory to watch, the whole working tree if it belongs to one (default is working directory)"
+    )
+    private File path = new File(System.getProperty("user.dir"));
+
+    @Override
+    public void execImpl() throws Exception {
+        if (!path.isDirectory()) {
+            throw new IllegalArgumentException(langHelper.getLocalizedMessage("NotADirectory") + " : " + path);
+        }
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(path);
+        DirtyTracker tracker = new DirtyTracker(meta);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                tracker.close();
+            } catch (IOException e) {
+                output.printException(e);
+            }
+        }));
+        output.printInfo(langHelper.getLocalizedMessage("Watching") + " : " + meta.getWorkingDirectory().getAbsolutePath());
+        tracker.run();
+    }
+
+    @Override
+    public String getDescription() throws IOException {
+        return langHelper.getLocalizedMessage("WatchCommandDescription");
+    }
+}
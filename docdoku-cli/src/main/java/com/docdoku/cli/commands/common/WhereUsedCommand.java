@@ -0,0 +1,109 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.commands.common;
+
+import com.docdoku.api.http.Priority;
+import com.docdoku.api.models.ComponentDTO;
+import com.docdoku.api.models.ConfigurationItemDTO;
+import com.docdoku.api.models.utils.ProductStructureGraph;
+import com.docdoku.api.models.utils.WhereUsedIndex;
+import com.docdoku.api.services.ProductsApi;
+import com.docdoku.cli.commands.BaseCommandLine;
+import com.docdoku.cli.helpers.BulkRunner;
+import com.docdoku.cli.helpers.StructureCache;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Find the assemblies and the products using a part, from the structures of all the products of
+ * a workspace.
+ */
+public class WhereUsedCommand extends BaseCommandLine {
+
+    @Option(
+            name = "-w",
+            aliases = "--workspace",
+            required = true,
+            metaVar = "<workspace>",
+            usage = "workspace on which operations occur"
+    )
+    protected String workspace;
+
+    @Option(
+            name = "-c",
+            aliases = "--config-spec",
+            metaVar = "<config-spec>",
+            usage = "configuration of the product structures: wip, latest or latest-released; default is wip"
+    )
+    private String configSpec = "wip";
+
+    @Option(
+            name = "--refresh",
+            usage = "fetch all the product structures again instead of using the recently fetched ones"
+    )
+    private boolean refresh;
+
+    @Argument(
+            metaVar = "<part number>",
+            index = 0,
+            required = true,
+            usage = "the number of the part to look for"
+    )
+    private String number;
+
+    @Override
+    public void execImpl() throws Exception {
+        try {
+            WhereUsedIndex index = buildIndex();
+            output.printWhereUsed(number, index.getUsers(number), index.getWhereUsed(number), index.getProducts(number));
+        } catch (Exception e) {
+            output.printException(e);
+        }
+    }
+
+    private WhereUsedIndex buildIndex() throws Exception {
+        ProductsApi productsApi = new ProductsApi(client);
+        StructureCache cache = StructureCache.getDefault(client);
+        WhereUsedIndex index = new WhereUsedIndex();
+        List<ConfigurationItemDTO> products = productsApi.getConfigurationItems(workspace);
+        try (BulkRunner runner = new BulkRunner(limiter.getMaxLimit())) {
+            for (ConfigurationItemDTO product : products) {
+                String productId = product.getId();
+                runner.submit(() -> {
+                    ComponentDTO structure = cache.get(workspace + "/" + productId + "/" + configSpec, refresh,
+                            () -> client.withPriority(Priority.BULK_METADATA,
+                                    () -> productsApi.filterProductStructure(workspace, productId, configSpec, "-1", -1, null, false)));
+                    index.put(productId, ProductStructureGraph.builder().add(structure).build());
+                });
+            }
+            runner.await();
+        }
+        return index;
+    }
+
+    @Override
+    public String getDescription() throws IOException {
+        return langHelper.getLocalizedMessage("WhereUsedCommandDescription");
+    }
+}
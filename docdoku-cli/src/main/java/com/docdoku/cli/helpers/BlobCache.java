@@ -0,0 +1,293 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import com.docdoku.api.models.BinaryResourceDTO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed store of downloaded files, shared by all working directories of the user.
+ * <p>
+ * Blobs are stored under ~/.dplm/cache by the hash of their key, least recently used blobs are
+ * evicted once the cache exceeds its size cap. Read only working files are hard linked to the
+ * cached blob, writable ones are copied so that local edits never alter the cache.
+ * <p>
+ * A blob still linked from a working tree frees no disk space when deleted: it neither counts
+ * toward the cap nor gets evicted.
+ */
+public class BlobCache {
+
+    private static final Logger LOGGER = Logger.getLogger(BlobCache.class.getName());
+
+    private static final String CACHE_DIRECTORY = ".dplm" + File.separator + "cache";
+    private static final String MAX_SIZE_PROPERTY = "dplm.cache.maxSize";
+    private static final long DEFAULT_MAX_SIZE = 2L * 1024 * 1024 * 1024;
+    private static final double EVICTION_RATIO = 0.9;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static BlobCache defaultCache;
+
+    private final Path root;
+    private final long maxSize;
+    private final boolean unix;
+
+    // Running size of the cache in bytes, -1 until the first put walks it
+    private long size = -1;
+
+    public BlobCache(Path root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+        this.unix = root.getFileSystem().supportedFileAttributeViews().contains("unix");
+    }
+
+    /**
+     * The user cache, its size cap in bytes can be set with the dplm.cache.maxSize system property
+     */
+    public static synchronized BlobCache getDefault() {
+        if (defaultCache == null) {
+            Path root = Paths.get(System.getProperty("user.home")).resolve(CACHE_DIRECTORY);
+            defaultCache = new BlobCache(root, Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Key of a stored file: its full name identifies the iteration, its length and modification date
+     * tell apart successive uploads of a checked out iteration.
+     */
+    public static String keyOf(BinaryResourceDTO binaryResource) {
+        return binaryResource.getFullName()
+                + "|" + binaryResource.getContentLength()
+                + "|" + (binaryResource.getLastModified() != null ? binaryResource.getLastModified().getTime() : 0);
+    }
+
+    /**
+     * Get a cached blob and mark it as recently used
+     *
+     * @return the blob, or null on a cache miss
+     */
+    public Path get(String key) {
+        Path blob = blobPath(key);
+        try {
+            // Access time only: hard linked working files share the modification date of the blob
+            Files.getFileAttributeView(blob, BasicFileAttributeView.class)
+                    .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+            return blob;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot touch cached blob " + blob, e);
+            return Files.exists(blob) ? blob : null;
+        }
+    }
+
+    /**
+     * Directory where the blob of a key is stored. A file downloaded there is put in the cache by a
+     * rename, as long as its name ends with .tmp it is ignored by the eviction.
+     */
+    public Path getDirectory(String key) throws IOException {
+        return Files.createDirectories(blobPath(key).getParent());
+    }
+
+    /**
+     * Move a downloaded file into the cache
+     *
+     * @return the cached blob
+     */
+    public Path put(String key, Path file) throws IOException {
+        Path blob = blobPath(key);
+        Files.createDirectories(blob.getParent());
+        long length = Files.size(file);
+        Path temp = Files.createTempFile(blob.getParent(), blob.getFileName().toString(), TEMP_SUFFIX);
+        try {
+            Files.move(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            temp.toFile().setWritable(false, false);
+            Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        account(blob, length);
+        return blob;
+    }
+
+    /**
+     * Place a cached blob in the working tree, replacing any existing file
+     */
+    public void link(Path blob, Path target, boolean writable) throws IOException {
+        Files.deleteIfExists(target);
+        if (!writable) {
+            try {
+                Files.createLink(target, blob);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // Other file store, or no hard links: fall back on a copy
+                LOGGER.log(Level.FINE, "Cannot link " + target + " to " + blob, e);
+            }
+        }
+        Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+        target.toFile().setWritable(writable, false);
+    }
+
+    /**
+     * Delete a working file which may be hard linked to the blob of a key. Unix deletes read only
+     * files as they are, Windows refuses to: the read only attribute is then cleared, which clears
+     * it on the blob sharing the file record too, and set back on the blob once the file is gone.
+     */
+    public void unlink(String key, Path target) throws IOException {
+        try {
+            Files.deleteIfExists(target);
+        } catch (AccessDeniedException e) {
+            if (!target.toFile().setWritable(true, false)) {
+                throw e;
+            }
+            try {
+                Files.delete(target);
+            } finally {
+                Path blob = blobPath(key);
+                if (Files.exists(blob)) {
+                    blob.toFile().setWritable(false, false);
+                }
+            }
+        }
+    }
+
+    private Path blobPath(String key) {
+        String hash = sha256(key);
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private synchronized void account(Path keep, long length) {
+        if (size >= 0) {
+            size += length;
+            if (size <= maxSize) {
+                return;
+            }
+        }
+        size = evict(keep);
+    }
+
+    /**
+     * Walk the cache and delete its least recently used blobs if it exceeds the cap
+     *
+     * @return the size of the cache once evicted
+     */
+    private long evict(Path keep) {
+        List<Blob> blobs = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    Blob blob = readBlob(file);
+                    if (blob != null) {
+                        blobs.add(blob);
+                        total += blob.length;
+                    }
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.log(Level.FINE, "Cannot list cache " + root, e);
+            return 0;
+        }
+        if (total <= maxSize) {
+            return total;
+        }
+
+        blobs.sort(Comparator.comparingLong(blob -> blob.lastAccess));
+        long target = (long) (maxSize * EVICTION_RATIO);
+        for (Blob blob : blobs) {
+            if (total <= target) {
+                break;
+            }
+            if (blob.path.equals(keep)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(blob.path);
+                total -= blob.length;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Cannot evict " + blob.path, e);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Attributes of a cached file
+     *
+     * @return the blob, or null if the file is not a blob only referenced by the cache
+     */
+    private Blob readBlob(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            if (unix && ((Number) Files.getAttribute(file, "unix:nlink")).intValue() > 1) {
+                return null;
+            }
+            return new Blob(file, attributes.size(), attributes.lastAccessTime().toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static String sha256(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Blob {
+
+        private final Path path;
+        private final long length;
+        private final long lastAccess;
+
+        private Blob(Path path, long length, long lastAccess) {
+            this.path = path;
+            this.length = length;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Run tasks which may submit further tasks, such as the walk of a product structure, until none is
+ * left.
+ * <p>
+ * The thread count only bounds the tasks in progress: the requests they send are throttled by the
+ * adaptive limiter of the client, which settles the actual concurrency. Once a task fails, the
+ * tasks not yet started are skipped.
+ */
+public class BulkRunner implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final Object lock = new Object();
+
+    public BulkRunner(int threads) {
+        executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    public void submit(Task task) {
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                if (failure.get() == null) {
+                    task.run();
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    synchronized (lock) {
+                        lock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for all tasks, including the ones they submitted
+     *
+     * @throws Exception the first failure of a task
+     */
+    public void await() throws Exception {
+        synchronized (lock) {
+            while (pending.get() > 0) {
+                lock.wait();
+            }
+        }
+        Exception e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -21,12 +21,15 @@
 package com.docdoku.cli.helpers;
 
 import com.docdoku.api.models.*;
+import com.docdoku.api.models.utils.BomRollup;
+import com.docdoku.api.models.utils.InstancePlacements;
 
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import static com.docdoku.cli.helpers.CliOutput.formats.HUMAN;
 
@@ -37,6 +40,7 @@ import static com.docdoku.cli.helpers.CliOutput.formats.HUMAN;
  */
 public abstract class CliOutput {
     protected boolean debug = false;
+    private TransferProgress transferProgress;
 
     public enum formats {
         HUMAN,
@@ -71,8 +75,35 @@ public abstract class CliOutput {
     public abstract void printDocumentRevision(DocumentRevisionDTO dr, long lastModified);
     public abstract void printDocumentRevisions(List<DocumentRevisionDTO> documentRevisions);
     public abstract void printFolders(List<FolderDTO> folders);
+    public abstract void printStatusReport(List<FileStatus> statuses);
+    public abstract void printWhereUsed(String number, List<String> users, List<String> assemblies, List<String> products);
+    public abstract void printBom(BomRollup bom, int[] nodes);
+    public abstract void printPlacements(InstancePlacements placements);
+    public abstract void printEffectiveParts(Map<List<String>, List<String>> contextsByParts);
+
+    public abstract void printProgress(TransferProgress.Snapshot snapshot);
+
+    /**
+     * Aggregated progress of the transfers of the command, rendered by this output
+     */
+    public synchronized TransferProgress getTransferProgress() {
+        if (transferProgress == null) {
+            transferProgress = new TransferProgress(this, getProgressRefreshPeriod());
+        }
+        return transferProgress;
+    }
+
+    /**
+     * @return the period of the progress rendering in milliseconds
+     */
+    protected long getProgressRefreshPeriod() {
+        return 250;
+    }
+
+    public FilterInputStream getMonitor(String name, long maximum, InputStream in) {
+        return new ProgressInputStream(in, getTransferProgress().start(name, maximum));
+    }
 
-    public abstract FilterInputStream getMonitor(long maximum, InputStream in);
     public void setDebug(boolean debug) {
         this.debug = debug;
     }
@@ -0,0 +1,302 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps track of the tracked files modified since their last download or upload.
+ * <p>
+ * A watcher process registers the whole working directory on a {@link WatchService}, checks the
+ * files reported as modified against the .dplm index and writes the set of dirty files to
+ * .dplm/watch. While a watcher is alive the file is refreshed every few seconds, so that other
+ * commands can rely on it instead of checking every tracked file. The dirty files are checked
+ * again whenever another command updates the index, after a checkin for instance.
+ * <p>
+ * The modification date of .dplm/watch is the last time the watcher had handled every reported
+ * change. Polling based watch services, as on macOS where the JDK checks every 10 seconds, report
+ * changes late: a file modified less than {@link #REPORT_DELAY} ms before that time, plus a margin
+ * for coarse file dates, may have changes not reported yet and is never considered clean.
+ */
+public class DirtyTracker implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(DirtyTracker.class.getName());
+
+    private static final String META_DIRECTORY_NAME = ".dplm";
+    private static final String WATCH_FILE_NAME = "watch";
+    private static final String INDEX_FILE_NAME = "index.log";
+    private static final long HEARTBEAT_PERIOD = 2000;
+    private static final long HEARTBEAT_TIMEOUT = 10000;
+    private static final long DEBOUNCE_DELAY = 300;
+    private static final long REPORT_DELAY = 15000;
+    private static final long SAFETY_MARGIN = 2000;
+
+    private final MetaDirectoryManager meta;
+    private final Path root;
+    private final Path watchFile;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Set<String> dirty = new TreeSet<>();
+    private final Set<Path> pending = new HashSet<>();
+    private boolean overflow;
+    private boolean indexChanged;
+
+    public DirtyTracker(MetaDirectoryManager meta) throws IOException {
+        this.meta = meta;
+        this.root = meta.getWorkingDirectory().toPath();
+        this.watchFile = root.resolve(META_DIRECTORY_NAME).resolve(WATCH_FILE_NAME);
+        this.watchService = root.getFileSystem().newWatchService();
+    }
+
+    /**
+     * Watch the working directory until the current thread is interrupted
+     */
+    public void run() throws IOException {
+        register(root);
+        Path metaDirectory = watchFile.getParent();
+        keys.put(metaDirectory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), metaDirectory);
+        long scanStart = System.currentTimeMillis();
+        scanAll();
+        save(scanStart);
+
+        long lastEvent = 0;
+        long nextHeartbeat = System.currentTimeMillis() + HEARTBEAT_PERIOD;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean idle = pending.isEmpty() && !indexChanged;
+                WatchKey key = watchService.poll(idle ? HEARTBEAT_PERIOD : DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+                long now = System.currentTimeMillis();
+                if (key != null) {
+                    handle(key);
+                    lastEvent = now;
+                    continue;
+                }
+                // No event is left in the queue: the dirty set is up to date as of now once handled
+                if (overflow) {
+                    overflow = false;
+                    indexChanged = false;
+                    pending.clear();
+                    scanAll();
+                    save(now);
+                } else if (!idle && now - lastEvent >= DEBOUNCE_DELAY) {
+                    meta.refresh();
+                    if (indexChanged) {
+                        // Synchronized files match the index again
+                        indexChanged = false;
+                        for (String filePath : dirty) {
+                            pending.add(root.resolve(filePath));
+                        }
+                    }
+                    for (Path path : pending) {
+                        check(path);
+                    }
+                    pending.clear();
+                    save(now);
+                } else if (idle && now >= nextHeartbeat) {
+                    Files.setLastModifiedTime(watchFile, FileTime.fromMillis(now));
+                    nextHeartbeat = now + HEARTBEAT_PERIOD;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed by a shutdown hook
+        }
+    }
+
+    /**
+     * Stop watching, other commands no longer rely on the dirty set
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        Files.deleteIfExists(watchFile);
+    }
+
+    /**
+     * Read the state saved by the watcher of a working directory, once per command
+     *
+     * @return the snapshot, or null if no watcher is running on the working directory
+     */
+    public static Snapshot getSnapshot(MetaDirectoryManager meta) {
+        Path root = meta.getWorkingDirectory().toPath();
+        Path watchFile = root.resolve(META_DIRECTORY_NAME).resolve(WATCH_FILE_NAME);
+        try {
+            long time = Files.getLastModifiedTime(watchFile).toMillis();
+            if (System.currentTimeMillis() - time > HEARTBEAT_TIMEOUT) {
+                return null;
+            }
+            Set<String> files = new HashSet<>();
+            for (String line : Files.readAllLines(watchFile, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    files.add(root.resolve(line).toString());
+                }
+            }
+            return new Snapshot(meta, files, time);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot read " + watchFile, e);
+            return null;
+        }
+    }
+
+    private void handle(WatchKey key) throws IOException {
+        Path directory = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            if (directory.equals(watchFile.getParent())) {
+                indexChanged |= child.getFileName().toString().equals(INDEX_FILE_NAME);
+                continue;
+            }
+            if (child.getFileName().toString().equals(META_DIRECTORY_NAME)) {
+                continue;
+            }
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // Files may have been moved in with the whole directory tree
+                register(child);
+                try (Stream<Path> files = Files.walk(child)) {
+                    files.filter(file -> Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)).forEach(pending::add);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            } else {
+                pending.add(child);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
+                if (META_DIRECTORY_NAME.equals(String.valueOf(directory.getFileName()))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                keys.put(directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                LOGGER.log(Level.FINE, "Cannot watch " + file, exc);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void scanAll() throws IOException {
+        meta.refresh();
+        dirty.clear();
+        for (String filePath : meta.getTrackedFiles()) {
+            check(Paths.get(filePath));
+        }
+    }
+
+    private void check(Path path) {
+        String filePath = path.toString();
+        if (!meta.isTracked(filePath)) {
+            dirty.remove(relative(path));
+            return;
+        }
+        File file = path.toFile();
+        boolean clean;
+        try {
+            clean = file.exists() && FileHelper.isUnchanged(meta, file);
+        } catch (IOException e) {
+            clean = false;
+        }
+        if (clean) {
+            dirty.remove(relative(path));
+        } else {
+            dirty.add(relative(path));
+        }
+    }
+
+    private String relative(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Write the dirty set, up to date as of the given time
+     */
+    private void save(long time) throws IOException {
+        Path temp = Files.createTempFile(watchFile.getParent(), WATCH_FILE_NAME, ".tmp");
+        try {
+            Files.write(temp, dirty, StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(temp, FileTime.fromMillis(time));
+            Files.move(temp, watchFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Dirty files of a working directory, up to date as of the time the watcher last handled every
+     * reported change
+     */
+    public static class Snapshot {
+
+        private final MetaDirectoryManager meta;
+        private final Set<String> dirtyFiles;
+        private final long time;
+
+        private Snapshot(MetaDirectoryManager meta, Set<String> dirtyFiles, long time) {
+            this.meta = meta;
+            this.dirtyFiles = dirtyFiles;
+            this.time = time;
+        }
+
+        /**
+         * Tell whether a tracked file is guaranteed to be unmodified.
+         * A false result means that the file has to be checked.
+         */
+        public boolean isClean(File file) {
+            String filePath = file.getAbsolutePath();
+            return !dirtyFiles.contains(filePath) && meta.isTracked(filePath)
+                    && file.exists() && file.lastModified() < time - REPORT_DELAY - SAFETY_MARGIN;
+        }
+    }
+}
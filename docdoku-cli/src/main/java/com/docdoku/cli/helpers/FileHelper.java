@@ -20,6 +20,7 @@
 
 package com.docdoku.cli.helpers;
 
+import com.docdoku.api.SharedApiClient;
 import com.docdoku.api.client.ApiClient;
 import com.docdoku.api.client.ApiException;
 import com.docdoku.api.client.ApiResponse;
@@ -30,47 +31,92 @@ import com.docdoku.api.services.PartBinaryApi;
 
 import java.io.Console;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
-import java.util.ArrayList;
-import java.util.Base64;
-import java.util.List;
-
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
 
 public class FileHelper {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private ApiClient client;
     private CliOutput output;
     private LangHelper langHelper;
+    private BlobCache cache;
 
     public FileHelper(ApiClient client, CliOutput output, LangHelper langHelper) {
         this.client = client;
         this.output = output;
         this.langHelper = langHelper;
+        this.cache = BlobCache.getDefault();
     }
 
-    public static boolean confirmOverwrite(String fileName) {
+    public static synchronized boolean confirmOverwrite(String fileName) {
         Console c = System.console();
         String response = c.readLine("The file '" + fileName + "' has been modified locally, do you want to overwrite it [y/N]?");
         return "y".equalsIgnoreCase(response);
     }
 
-    public File downloadPartFile(File path, String pWorkspace, String pPartNumber, String pVersion, int pIteration, String pFilename, String pType, String pSubType, boolean force) {
+    public File downloadPartFile(File path, String pWorkspace, String pPartNumber, String pVersion, int pIteration, BinaryResourceDTO pBinaryResource, String pType, String pSubType, boolean writable, boolean force) {
+        return downloadPartFile(path, pWorkspace, pPartNumber, pVersion, pIteration, pBinaryResource, pType, pSubType, writable, force, null);
+    }
+
+    /**
+     * Download a part file as {@link #downloadPartFile(File, String, String, String, int, BinaryResourceDTO, String, String, boolean, boolean)},
+     * its metadata being added to a batch committed by the caller
+     */
+    public File downloadPartFile(File path, String pWorkspace, String pPartNumber, String pVersion, int pIteration, BinaryResourceDTO pBinaryResource, String pType, String pSubType, boolean writable, boolean force, MetaDirectoryManager.Batch batch) {
         PartBinaryApi partBinaryApi = new PartBinaryApi(client);
-        File localFile = new File(path, pFilename);
+        String fileName = pBinaryResource.getName();
+        File localFile = new File(path, fileName);
         MetaDirectoryManager meta;
         try {
-            meta = new MetaDirectoryManager(path);
-            if (localFile.exists() && !force && localFile.lastModified() != meta.getLastModifiedDate(localFile.getAbsolutePath())) {
+            meta = MetaDirectoryManager.getInstance(path);
+            if (isDownloaded(meta, localFile, pWorkspace, pPartNumber, pVersion, pIteration, pBinaryResource, writable)) {
+                output.printInfo(langHelper.getLocalizedMessage("FileUpToDate") + " : " + fileName);
+                return localFile;
+            }
+            if (localFile.exists() && !force && !isUnchanged(meta, localFile)) {
                 boolean confirm = FileHelper.confirmOverwrite(localFile.getAbsolutePath());
                 if (!confirm)
                     return null;
             }
-            File result = partBinaryApi.downloadPartFile(pWorkspace, pPartNumber, pVersion, pIteration, pSubType, pFilename, pType, null, null, null, null, null);
-            Files.move(result.toPath(), localFile.toPath(), REPLACE_EXISTING);
-            output.printInfo(langHelper.getLocalizedMessage("DownloadindFileSuccess"));
+            String key = BlobCache.keyOf(pBinaryResource);
+            Path blob = cache.get(key);
+            if (blob != null) {
+                output.printInfo(langHelper.getLocalizedMessage("FileFromCache"));
+                cache.link(blob, localFile.toPath(), writable);
+            } else {
+                Path directory = writable ? path.toPath() : cache.getDirectory(key);
+                TransferProgress.Transfer transfer = output.getTransferProgress().start(fileName, -1);
+                try {
+                    File result = download(directory, transfer, () -> partBinaryApi.downloadPartFile(pWorkspace, pPartNumber, pVersion, pIteration, pSubType, fileName, pType, null, null, null, null, null));
+                    placeDownload(key, result, localFile, writable);
+                    transfer.done();
+                } finally {
+                    transfer.failed();
+                }
+                output.printInfo(langHelper.getLocalizedMessage("DownloadindFileSuccess"));
+            }
+
+            if (batch != null) {
+                batch.putPartFile(localFile.getAbsolutePath(), pWorkspace, pPartNumber, pVersion, pIteration,
+                        Fingerprinter.fingerprint(localFile), localFile.length(), localFile.lastModified());
+                return localFile;
+            }
+            PartIterationDTO partIPK = new PartIterationDTO();
+            partIPK.setWorkspaceId(pWorkspace);
+            partIPK.setNumber(pPartNumber);
+            partIPK.setVersion(pVersion);
+            partIPK.setIteration(pIteration);
+            savePartMetadata(meta, partIPK, localFile);
             return localFile;
         } catch (ApiException | IOException e) {
             output.printInfo(langHelper.getLocalizedMessage("DownloadingFileFailure"));
@@ -87,7 +133,7 @@ public class FileHelper {
                     langHelper.getLocalizedMessage("UploadingFile")
                             + " : "
                             + pFile.getName());
-            response = partBinaryApi.uploadNativeCADFileWithHttpInfo(pWorkspace, pPartNumber, pVersion, pIteration, pFile);
+            response = upload(pFile, () -> partBinaryApi.uploadNativeCADFileWithHttpInfo(pWorkspace, pPartNumber, pVersion, pIteration, pFile));
             if (response.getStatusCode() == 201) {
                 output.printInfo(langHelper.getLocalizedMessage("UploadingFileSuccess"));
                 return true;
@@ -96,28 +142,156 @@ public class FileHelper {
             }
         } catch (ApiException e) {
             output.printInfo(langHelper.getLocalizedMessage("UploadingFileFailed"));
+            output.printException(e);
         }
         return false;
     }
 
-    private void saveMetadata(MetaDirectoryManager meta, DocumentIterationDTO docIPK, String digest, File localFile) throws IOException {
+    private void saveMetadata(MetaDirectoryManager meta, DocumentIterationDTO docIPK, File localFile) throws IOException {
         String filePath = localFile.getAbsolutePath();
-        meta.setDigest(filePath, digest);
         meta.setDocumentId(filePath, docIPK.getDocumentMasterId());
         meta.setWorkspace(filePath, docIPK.getWorkspaceId());
         meta.setRevision(filePath, docIPK.getVersion());
         meta.setIteration(filePath, docIPK.getIteration());
-        meta.setLastModifiedDate(filePath, localFile.lastModified());
+        saveFileState(meta, localFile);
+    }
+
+    private void savePartMetadata(MetaDirectoryManager meta, PartIterationDTO partIPK, File localFile) throws IOException {
+        String filePath = localFile.getAbsolutePath();
+        meta.setPartNumber(filePath, partIPK.getNumber());
+        meta.setWorkspace(filePath, partIPK.getWorkspaceId());
+        meta.setRevision(filePath, partIPK.getVersion());
+        meta.setIteration(filePath, partIPK.getIteration());
+        saveFileState(meta, localFile);
+    }
+
+    /**
+     * Record the size, modification date and fingerprint of a file, as known by the server
+     */
+    public static void saveFileState(MetaDirectoryManager meta, File localFile) throws IOException {
+        meta.setFileState(localFile.getAbsolutePath(), Fingerprinter.fingerprint(localFile), localFile.length(), localFile.lastModified());
+    }
+
+    /**
+     * Tell whether a file still matches its recorded state.
+     * <p>
+     * Size and modification date are checked first, the file is only read when it has been touched
+     * without any size change.
+     */
+    public static boolean isUnchanged(MetaDirectoryManager meta, File localFile) throws IOException {
+        String filePath = localFile.getAbsolutePath();
+        Boolean unchanged = checkFileState(meta, localFile);
+        if (unchanged != null) {
+            return unchanged;
+        }
+        String fingerprint = meta.getFingerprint(filePath);
+        if (fingerprint != null) {
+            return fingerprint.equals(Fingerprinter.fingerprint(localFile));
+        }
+        return meta.getDigest(filePath).equals(digest(localFile));
+    }
+
+    /**
+     * Tell whether a file is already the given iteration of a stored file, left untouched since it
+     * was downloaded. Each download being recorded once in place, a command run again after being
+     * interrupted skips the files it already got.
+     */
+    private static boolean isDownloaded(MetaDirectoryManager meta, File localFile, String pWorkspace, String pId, String pVersion, int pIteration, BinaryResourceDTO pBinaryResource, boolean writable) throws IOException {
+        String filePath = localFile.getAbsolutePath();
+        return localFile.exists()
+                && localFile.canWrite() == writable
+                && (pId.equals(meta.getPartNumber(filePath)) || pId.equals(meta.getDocumentId(filePath)))
+                && pWorkspace.equals(meta.getWorkspace(filePath))
+                && pVersion.equals(meta.getRevision(filePath))
+                && meta.getIteration(filePath) == pIteration
+                && pBinaryResource.getContentLength() != null && pBinaryResource.getContentLength() == meta.getLength(filePath)
+                && isUnchanged(meta, localFile);
+    }
+
+    /**
+     * Find the modified files among existing tracked files, touched files being fingerprinted concurrently
+     */
+    public static Set<String> findModified(MetaDirectoryManager meta, Collection<String> filePaths) throws IOException {
+        Set<String> modified = new HashSet<>();
+        List<File> touched = new ArrayList<>();
+        for (String filePath : filePaths) {
+            File localFile = new File(filePath);
+            Boolean unchanged = checkFileState(meta, localFile);
+            if (unchanged == null) {
+                if (meta.getFingerprint(filePath) != null) {
+                    touched.add(localFile);
+                } else if (!isUnchanged(meta, localFile)) {
+                    modified.add(filePath);
+                }
+            } else if (!unchanged) {
+                modified.add(filePath);
+            }
+        }
+        Map<File, String> fingerprints = Fingerprinter.fingerprintAll(touched);
+        for (File localFile : touched) {
+            String filePath = localFile.getAbsolutePath();
+            if (!meta.getFingerprint(filePath).equals(fingerprints.get(localFile))) {
+                modified.add(filePath);
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * First tiers of the change detection: recorded state, size and modification date
+     *
+     * @return whether the file is unchanged, or null if its content has to be checked
+     */
+    private static Boolean checkFileState(MetaDirectoryManager meta, File localFile) {
+        String filePath = localFile.getAbsolutePath();
+        if (meta.getFingerprint(filePath) == null && meta.getDigest(filePath) == null) {
+            return false;
+        }
+        long length = meta.getLength(filePath);
+        if (length >= 0 && length != localFile.length()) {
+            return false;
+        }
+        if (length >= 0 && localFile.lastModified() == meta.getLastModifiedDate(filePath)) {
+            return true;
+        }
+        return null;
+    }
+
+    /**
+     * MD5 digest of a file, as computed by the server
+     */
+    public static String digest(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+            return Base64.getEncoder().encodeToString(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
-    public File downloadDocumentFile(String pWorkspace, String pId, String pVersion, int pIteration, String pFilename, String pType) {
+    /**
+     * Download a document file to a temp file of the given directory
+     */
+    public File downloadDocumentFile(Path directory, String pWorkspace, String pId, String pVersion, int pIteration, String pFilename, String pType) {
         DocumentBinaryApi documentBinaryApi = new DocumentBinaryApi(client);
         try {
             output.printInfo(
                     langHelper.getLocalizedMessage("DownloadingFile")
                             + " : "
                             + pFilename);
-            File result = documentBinaryApi.downloadDocumentFile(pWorkspace, pId, pVersion, pIteration, pFilename, pType, null, null, null, null, null);
+            TransferProgress.Transfer transfer = output.getTransferProgress().start(pFilename, -1);
+            File result;
+            try {
+                result = download(directory, transfer, () -> documentBinaryApi.downloadDocumentFile(pWorkspace, pId, pVersion, pIteration, pFilename, pType, null, null, null, null, null));
+                transfer.done();
+            } finally {
+                transfer.failed();
+            }
             output.printInfo(langHelper.getLocalizedMessage("DownloadindFileSuccess"));
             return result;
         } catch (ApiException e) {
@@ -135,7 +309,7 @@ public class FileHelper {
                     langHelper.getLocalizedMessage("UploadingFile")
                             + " : "
                             + pFile.getName());
-            response = documentBinaryApi.uploadDocumentFilesWithHttpInfo(pWorkspace, pId, pVersion, pIteration, pFile);
+            response = upload(pFile, () -> documentBinaryApi.uploadDocumentFilesWithHttpInfo(pWorkspace, pId, pVersion, pIteration, pFile));
             if (response.getStatusCode() == 201) {
                 output.printInfo(langHelper.getLocalizedMessage("UploadingFileSuccess"));
                 return true;
@@ -144,6 +318,7 @@ public class FileHelper {
             }
         } catch (ApiException e) {
             output.printInfo(langHelper.getLocalizedMessage("UploadingFileFailed"));
+            output.printException(e);
         }
         return false;
     }
@@ -160,32 +335,45 @@ public class FileHelper {
         boolean writable = (checkOutUser != null) && (checkOutUser.getLogin().equals(user)) && (lastIteration.getIteration() == pDocumentIteration.getIteration());
         for(BinaryResourceDTO binaryResource : pDocumentIteration.getAttachedFiles()) {
             String fileName = binaryResource.getName();
-            MetaDirectoryManager meta = new MetaDirectoryManager(path);
+            MetaDirectoryManager meta = MetaDirectoryManager.getInstance(path);
 
             File localFile = new File(path, fileName);
-            if (localFile.exists() && !force && localFile.lastModified() != meta.getLastModifiedDate(localFile.getAbsolutePath())) {
+            if (isDownloaded(meta, localFile, pWorkspace, pId, version, iteration, binaryResource, writable)) {
+                output.printInfo(langHelper.getLocalizedMessage("FileUpToDate") + " : " + fileName);
+                files.add(localFile);
+                continue;
+            }
+            if (localFile.exists() && !force && !isUnchanged(meta, localFile)) {
                 boolean confirm = FileHelper.confirmOverwrite(localFile.getAbsolutePath());
                 if (!confirm)
                     continue;
             }
 
-            File result = downloadDocumentFile(pWorkspace, pId, version, iteration, fileName, pDocumentRevision.getType());
+            String key = BlobCache.keyOf(binaryResource);
+            Path blob = cache.get(key);
+            File result = null;
+            if (blob == null) {
+                Path directory = writable ? path.toPath() : cache.getDirectory(key);
+                result = downloadDocumentFile(directory, pWorkspace, pId, version, iteration, fileName, pDocumentRevision.getType());
+                if (result == null)
+                    continue;
+            } else {
+                output.printInfo(langHelper.getLocalizedMessage("FileFromCache") + " : " + fileName);
+            }
 
             try {
-                MessageDigest md = MessageDigest.getInstance("MD5");
-                md.update(Files.readAllBytes(result.toPath()));
-                byte[] digest = md.digest();
-                String digestString = Base64.getEncoder().encodeToString(digest);
-
-                result.setWritable(writable, false);
+                if (result != null) {
+                    placeDownload(key, result, localFile, writable);
+                } else {
+                    cache.link(blob, localFile.toPath(), writable);
+                }
 
                 DocumentIterationDTO docIPK = new DocumentIterationDTO();
                 docIPK.setWorkspaceId(pWorkspace);
                 docIPK.setDocumentMasterId(pId);
                 docIPK.setVersion(version);
                 docIPK.setIteration(iteration);
-                saveMetadata(meta, docIPK, digestString, result);
-                Files.move(result.toPath(), localFile.toPath(), REPLACE_EXISTING);
+                saveMetadata(meta, docIPK, localFile);
                 files.add(localFile);
             } catch (Exception e) {
                 e.printStackTrace();
@@ -194,6 +382,55 @@ public class FileHelper {
         return files;
     }
 
+    /**
+     * Run a download, the file being streamed straight into the given directory when the client allows it
+     */
+    private File download(Path directory, TransferProgress.Transfer transfer, SharedApiClient.Operation<File> download) throws ApiException {
+        if (client instanceof SharedApiClient) {
+            return ((SharedApiClient) client).downloadInto(directory, transfer, download);
+        }
+        return download.call();
+    }
+
+    /**
+     * Run an upload, following its progress when the client allows it
+     */
+    private <T> T upload(File file, SharedApiClient.Operation<T> upload) throws ApiException {
+        TransferProgress.Transfer transfer = output.getTransferProgress().start(file.getName(), -1);
+        try {
+            T result = client instanceof SharedApiClient
+                    ? ((SharedApiClient) client).upload(transfer, upload)
+                    : upload.call();
+            transfer.done();
+            return result;
+        } finally {
+            transfer.failed();
+        }
+    }
+
+    /**
+     * Move a downloaded file to its place: read only files go through the cache and are linked from
+     * there, writable files are renamed in the working directory without being cached, since their
+     * content is about to change.
+     */
+    private void placeDownload(String key, File result, File localFile, boolean writable) throws IOException {
+        try {
+            if (writable) {
+                try {
+                    Files.move(result.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    // Downloaded to the temp folder by a client which cannot stream into the working directory
+                    Files.move(result.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                localFile.setWritable(true, false);
+            } else {
+                cache.link(cache.put(key, result.toPath()), localFile.toPath(), false);
+            }
+        } finally {
+            Files.deleteIfExists(result.toPath());
+        }
+    }
+
     public static String getFileName(String path) {
         if (path == null || path.isEmpty()) {
             return null;
@@ -0,0 +1,115 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Status of a tracked file, compared to its local index entry and to the server
+ */
+public class FileStatus {
+
+    public enum State {
+        MODIFIED,
+        OUTDATED,
+        CHECKED_OUT,
+        CHECKED_OUT_BY_OTHER,
+        DELETED_LOCALLY,
+        DELETED_ON_SERVER
+    }
+
+    private final String filePath;
+    private final String workspace;
+    private final String id;
+    private final String revision;
+    private final int iteration;
+    private final boolean document;
+    private final Set<State> states = EnumSet.noneOf(State.class);
+    private int serverIteration;
+    private String checkOutUser;
+    private String error;
+
+    public FileStatus(String filePath, String workspace, String id, String revision, int iteration, boolean document) {
+        this.filePath = filePath;
+        this.workspace = workspace;
+        this.id = id;
+        this.revision = revision;
+        this.iteration = iteration;
+        this.document = document;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public String getWorkspace() {
+        return workspace;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRevision() {
+        return revision;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public boolean isDocument() {
+        return document;
+    }
+
+    public Set<State> getStates() {
+        return states;
+    }
+
+    public void addState(State state) {
+        states.add(state);
+    }
+
+    public int getServerIteration() {
+        return serverIteration;
+    }
+
+    public void setServerIteration(int serverIteration) {
+        this.serverIteration = serverIteration;
+    }
+
+    public String getCheckOutUser() {
+        return checkOutUser;
+    }
+
+    public void setCheckOutUser(String checkOutUser) {
+        this.checkOutUser = checkOutUser;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
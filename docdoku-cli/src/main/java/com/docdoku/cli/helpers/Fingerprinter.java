@@ -0,0 +1,241 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fast, non cryptographic fingerprints of local files, used to detect local changes.
+ * <p>
+ * Files are split in chunks hashed with XXH64, chunks of all files being hashed concurrently on a
+ * ForkJoin pool. Chunks are read through a direct buffer reused by each thread rather than mapped:
+ * on Windows a mapped file can be neither replaced nor deleted until the mapping is collected.
+ * The fingerprint of a multi chunk file is the hash of its chunk hashes. Fingerprints are never
+ * compared with the server, which only knows MD5 digests.
+ */
+public final class Fingerprinter {
+
+    private static final Logger LOGGER = Logger.getLogger(Fingerprinter.class.getName());
+
+    private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+    // A multiple of the 32 bytes stripes of XXH64
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+
+    private Fingerprinter() {
+    }
+
+    public static String fingerprint(File file) throws IOException {
+        Map<File, String> fingerprints = fingerprintAll(Collections.singletonList(file));
+        String fingerprint = fingerprints.get(file);
+        if (fingerprint == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Fingerprint several files concurrently
+     *
+     * @return the fingerprints, unreadable files are missing
+     */
+    public static Map<File, String> fingerprintAll(Collection<File> files) {
+        Map<File, List<Future<Long>>> chunks = new LinkedHashMap<>();
+        for (File file : files) {
+            long length = file.length();
+            List<Future<Long>> fileChunks = new ArrayList<>();
+            for (long offset = 0; offset == 0 || offset < length; offset += CHUNK_SIZE) {
+                long chunkOffset = offset;
+                int chunkLength = (int) Math.min(CHUNK_SIZE, length - offset);
+                fileChunks.add(POOL.submit(() -> hashChunk(file, chunkOffset, chunkLength)));
+            }
+            chunks.put(file, fileChunks);
+        }
+
+        Map<File, String> fingerprints = new HashMap<>();
+        for (Map.Entry<File, List<Future<Long>>> entry : chunks.entrySet()) {
+            try {
+                List<Future<Long>> fileChunks = entry.getValue();
+                long hash;
+                if (fileChunks.size() == 1) {
+                    hash = fileChunks.get(0).get();
+                } else {
+                    ByteBuffer hashes = ByteBuffer.allocate(fileChunks.size() * 8).order(ByteOrder.LITTLE_ENDIAN);
+                    for (Future<Long> chunk : fileChunks) {
+                        hashes.putLong(chunk.get());
+                    }
+                    hashes.flip();
+                    hash = xxh64(hashes, entry.getKey().length());
+                }
+                fingerprints.put(entry.getKey(), String.format("%016x", hash));
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.FINE, "Cannot fingerprint " + entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return fingerprints;
+    }
+
+    private static long hashChunk(File file, long offset, int length) throws IOException {
+        ByteBuffer buffer = BUFFERS.get();
+        Xxh64 hash = new Xxh64(0);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            long end = offset + length;
+            do {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                    // fill the buffer
+                }
+                if (buffer.hasRemaining()) {
+                    // Truncated meanwhile
+                    end = position + buffer.position();
+                }
+                position += buffer.position();
+                buffer.flip();
+                hash.update(buffer);
+            } while (position < end);
+            return hash.digest(buffer);
+        }
+    }
+
+    /**
+     * XXH64 of the remaining bytes of a little endian buffer
+     */
+    static long xxh64(ByteBuffer buffer, long seed) {
+        Xxh64 hash = new Xxh64(seed);
+        hash.update(buffer);
+        return hash.digest(buffer);
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private static long merge(long hash, long value) {
+        hash ^= round(0, value);
+        return hash * PRIME1 + PRIME4;
+    }
+
+    /**
+     * XXH64 state over successive buffers
+     */
+    private static final class Xxh64 {
+
+        private final long seed;
+        private long v1;
+        private long v2;
+        private long v3;
+        private long v4;
+        private long length;
+
+        private Xxh64(long seed) {
+            this.seed = seed;
+            v1 = seed + PRIME1 + PRIME2;
+            v2 = seed + PRIME2;
+            v3 = seed;
+            v4 = seed - PRIME1;
+        }
+
+        /**
+         * Consume the whole 32 bytes stripes of a buffer, the remaining bytes have to be passed to
+         * {@link #digest(ByteBuffer)}
+         */
+        private void update(ByteBuffer buffer) {
+            int position = buffer.position();
+            int limit = buffer.limit() - 32;
+            while (position <= limit) {
+                v1 = round(v1, buffer.getLong(position));
+                v2 = round(v2, buffer.getLong(position + 8));
+                v3 = round(v3, buffer.getLong(position + 16));
+                v4 = round(v4, buffer.getLong(position + 24));
+                position += 32;
+            }
+            length += position - buffer.position();
+            buffer.position(position);
+        }
+
+        private long digest(ByteBuffer tail) {
+            int position = tail.position();
+            int end = tail.limit();
+            long hash;
+            if (length > 0) {
+                hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                hash = merge(hash, v1);
+                hash = merge(hash, v2);
+                hash = merge(hash, v3);
+                hash = merge(hash, v4);
+            } else {
+                hash = seed + PRIME5;
+            }
+
+            hash += length + end - position;
+
+            while (position + 8 <= end) {
+                hash ^= round(0, tail.getLong(position));
+                hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+                position += 8;
+            }
+            if (position + 4 <= end) {
+                hash ^= (tail.getInt(position) & 0xFFFFFFFFL) * PRIME1;
+                hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+                position += 4;
+            }
+            while (position < end) {
+                hash ^= (tail.get(position) & 0xFF) * PRIME5;
+                hash = Long.rotateLeft(hash, 11) * PRIME1;
+                position++;
+            }
+
+            hash ^= hash >>> 33;
+            hash *= PRIME2;
+            hash ^= hash >>> 29;
+            hash *= PRIME3;
+            hash ^= hash >>> 32;
+            return hash;
+        }
+    }
+}
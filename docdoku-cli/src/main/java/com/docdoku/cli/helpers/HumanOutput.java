@@ -21,22 +21,31 @@
 package com.docdoku.cli.helpers;
 
 import com.docdoku.api.models.*;
+import com.docdoku.api.models.utils.BomRollup;
+import com.docdoku.api.models.utils.InstancePlacements;
+import com.docdoku.api.models.utils.ProductStructureGraph;
+import org.apache.commons.io.FileUtils;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
-import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintStream;
+import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class HumanOutput extends CliOutput {
 
     private LangHelper langHelper;
     private static final PrintStream ERROR_STREAM = System.err;
     private static final PrintStream OUTPUT_STREAM = System.out;
+    private static final int MAX_PROGRESS_FILES = 3;
+    private static final int MAX_PROGRESS_NAME_LENGTH = 24;
+
+    // Length of the progress line currently displayed
+    private int progressLength;
 
     public HumanOutput(Locale pLocale) {
         langHelper = new LangHelper(pLocale);
@@ -75,23 +84,30 @@ public class HumanOutput extends CliOutput {
         ERROR_STREAM.println(langHelper.getLocalizedMessage("AvailableCommands") + ":");
         ERROR_STREAM.println("   account (a)");
         ERROR_STREAM.println("   baselinelist (bl)");
+        ERROR_STREAM.println("   bom");
         ERROR_STREAM.println("   checkin (ci)");
         ERROR_STREAM.println("   checkout (co)");
         ERROR_STREAM.println("   conversion (cv)");
         ERROR_STREAM.println("   create (cr)");
+        ERROR_STREAM.println("   effectivity (eff)");
         ERROR_STREAM.println("   folders (f)");
         ERROR_STREAM.println("   get");
         ERROR_STREAM.println("   help (?, h)");
+        ERROR_STREAM.println("   init");
         ERROR_STREAM.println("   list (l)");
+        ERROR_STREAM.println("   placements");
         ERROR_STREAM.println("   put");
         ERROR_STREAM.println("   search (s)");
         ERROR_STREAM.println("   status (stat, st)");
         ERROR_STREAM.println("   undocheckout (uco)");
+        ERROR_STREAM.println("   watch");
+        ERROR_STREAM.println("   whereused (wu)");
         ERROR_STREAM.println("   workspaces (wl)");
     }
 
     @Override
-    public void printInfo(String s) {
+    public synchronized void printInfo(String s) {
+        clearProgress();
         OUTPUT_STREAM.println(s);
     }
 
@@ -176,8 +192,199 @@ public class HumanOutput extends CliOutput {
     }
 
     @Override
-    public FilterInputStream getMonitor(long maximum, InputStream in) {
-        return new ConsoleProgressMonitorInputStream(maximum, in);
+    public void printWhereUsed(String number, List<String> users, List<String> assemblies, List<String> products) {
+        if (assemblies.isEmpty() && products.isEmpty()) {
+            OUTPUT_STREAM.println(number + " : " + langHelper.getLocalizedMessage("NotUsed"));
+            return;
+        }
+        OUTPUT_STREAM.println(langHelper.getLocalizedMessage("UsedBy") + " : " + String.join(", ", users));
+        OUTPUT_STREAM.println(langHelper.getLocalizedMessage("UsedInAssemblies") + " : " + String.join(", ", assemblies));
+        OUTPUT_STREAM.println(langHelper.getLocalizedMessage("UsedInProducts") + " : " + String.join(", ", products));
+    }
+
+    /**
+     * Print the bill of materials as CSV, one line per part
+     */
+    @Override
+    public void printBom(BomRollup bom, int[] nodes) {
+        ProductStructureGraph graph = bom.getGraph();
+        OUTPUT_STREAM.println("number,version,name,quantity,optionalQuantity,unit,substitute");
+        StringBuilder line = new StringBuilder();
+        for (int node : nodes) {
+            line.setLength(0);
+            appendCsv(line, graph.getNumber(node)).append(',');
+            appendCsv(line, graph.getVersion(node)).append(',');
+            appendCsv(line, graph.getName(node)).append(',');
+            line.append(formatQuantity(bom.getQuantity(node))).append(',');
+            line.append(formatQuantity(bom.getOptionalQuantity(node))).append(',');
+            appendCsv(line, bom.getUnit(node)).append(',');
+            line.append(bom.isSubstitute(node));
+            OUTPUT_STREAM.println(line);
+        }
+    }
+
+    /**
+     * Print the placements as CSV, one line per leaf instance with its matrix row by row
+     */
+    @Override
+    public void printPlacements(InstancePlacements placements) {
+        ProductStructureGraph graph = placements.getGraph();
+        OUTPUT_STREAM.println("number,path,m00,m01,m02,m03,m10,m11,m12,m13,m20,m21,m22,m23");
+        double[] transform = new double[InstancePlacements.STRIDE];
+        StringBuilder line = new StringBuilder();
+        for (int leaf = 0; leaf < placements.getLeafCount(); leaf++) {
+            line.setLength(0);
+            appendCsv(line, graph.getNumber(placements.getNode(leaf))).append(',');
+            int[] path = placements.getPath(leaf);
+            for (int i = 0; i < path.length; i++) {
+                line.append(i > 0 ? "-" : "").append(path[i]);
+            }
+            placements.getTransform(leaf, transform, 0);
+            for (double value : transform) {
+                line.append(',').append(value);
+            }
+            OUTPUT_STREAM.println(line);
+        }
+        double[] bounds = placements.getBounds();
+        if (bounds != null) {
+            ERROR_STREAM.println(langHelper.getLocalizedMessage("PlacementBounds") + " : (" + bounds[0] + ", " + bounds[1]
+                    + ", " + bounds[2] + ") - (" + bounds[3] + ", " + bounds[4] + ", " + bounds[5] + ")");
+        }
+    }
+
+    @Override
+    public void printEffectiveParts(Map<List<String>, List<String>> contextsByParts) {
+        for (Map.Entry<List<String>, List<String>> entry : contextsByParts.entrySet()) {
+            String parts = entry.getKey().isEmpty() ? langHelper.getLocalizedMessage("NoEffectivePart") : String.join(", ", entry.getKey());
+            OUTPUT_STREAM.println(String.join(", ", entry.getValue()) + " : " + parts);
+        }
+    }
+
+    private static StringBuilder appendCsv(StringBuilder line, String value) {
+        if (value == null) {
+            return line;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return line.append(value);
+        }
+        return line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private static String formatQuantity(double quantity) {
+        return BigDecimal.valueOf(quantity).stripTrailingZeros().toPlainString();
+    }
+
+    @Override
+    public void printStatusReport(List<FileStatus> statuses) {
+        if (statuses.isEmpty()) {
+            OUTPUT_STREAM.println(langHelper.getLocalizedMessage("NoTrackedFiles"));
+            return;
+        }
+        String workspace = null;
+        for (FileStatus status : statuses) {
+            if (!status.getWorkspace().equals(workspace)) {
+                workspace = status.getWorkspace();
+                OUTPUT_STREAM.println("# " + workspace);
+            }
+            StringBuilder states = new StringBuilder();
+            for (FileStatus.State state : status.getStates()) {
+                if (states.length() > 0) {
+                    states.append(", ");
+                }
+                states.append(getStateLabel(status, state));
+            }
+            if (status.getError() != null) {
+                if (states.length() > 0) {
+                    states.append(", ");
+                }
+                states.append(status.getError());
+            }
+            if (states.length() == 0) {
+                states.append(langHelper.getLocalizedMessage("StatusUpToDate"));
+            }
+            OUTPUT_STREAM.println("   " + status.getFilePath() + " (" + status.getId() + " " + status.getRevision()
+                    + "." + status.getIteration() + ") : " + states);
+        }
+    }
+
+    private String getStateLabel(FileStatus status, FileStatus.State state) {
+        switch (state) {
+            case MODIFIED:
+                return langHelper.getLocalizedMessage("StatusModified");
+            case OUTDATED:
+                return langHelper.getLocalizedMessage("StatusOutdated") + " (" + status.getServerIteration() + ")";
+            case CHECKED_OUT:
+                return langHelper.getLocalizedMessage("StatusCheckedOut");
+            case CHECKED_OUT_BY_OTHER:
+                return langHelper.getLocalizedMessage("CheckedOutBy") + " " + status.getCheckOutUser();
+            case DELETED_LOCALLY:
+                return langHelper.getLocalizedMessage("StatusDeletedLocally");
+            case DELETED_ON_SERVER:
+                return langHelper.getLocalizedMessage("StatusDeletedOnServer");
+            default:
+                return state.name();
+        }
+    }
+
+    @Override
+    public synchronized void printProgress(TransferProgress.Snapshot snapshot) {
+        StringBuilder line = new StringBuilder();
+        int percentage = snapshot.getPercentage();
+        line.append(fillWithEmptySpace(percentage >= 0 ? percentage + "%" : "", 4));
+        line.append(' ').append(FileUtils.byteCountToDisplaySize(snapshot.getBytes()));
+        if (snapshot.getLength() >= 0) {
+            line.append(" / ").append(FileUtils.byteCountToDisplaySize(snapshot.getLength()));
+        }
+        if (!snapshot.isFinished()) {
+            line.append(", ").append(FileUtils.byteCountToDisplaySize((long) snapshot.getRate())).append("/s");
+            if (snapshot.getEta() >= 0) {
+                line.append(", ETA ").append(formatDuration(snapshot.getEta()));
+            }
+        }
+        int total = snapshot.getCompleted() + snapshot.getFailed() + snapshot.getActive();
+        line.append(" [").append(snapshot.getCompleted()).append('/').append(total).append(']');
+
+        List<TransferProgress.FileProgress> files = snapshot.getFiles();
+        for (int i = 0; i < files.size() && i < MAX_PROGRESS_FILES; i++) {
+            TransferProgress.FileProgress file = files.get(i);
+            line.append(i == 0 ? " " : ", ")
+                    .append(abbreviate(file.getName(), MAX_PROGRESS_NAME_LENGTH))
+                    .append(' ').append(FileUtils.byteCountToDisplaySize((long) file.getRate())).append("/s");
+        }
+        if (files.size() > MAX_PROGRESS_FILES) {
+            line.append(", +").append(files.size() - MAX_PROGRESS_FILES);
+        }
+
+        // Erase the remains of a longer previous line
+        String text = line.toString();
+        OUTPUT_STREAM.print("\r" + text + fillWithEmptySpace("", progressLength - text.length()));
+        progressLength = text.length();
+        if (snapshot.isFinished()) {
+            OUTPUT_STREAM.println();
+            progressLength = 0;
+        }
+        OUTPUT_STREAM.flush();
+    }
+
+    private void clearProgress() {
+        if (progressLength > 0) {
+            OUTPUT_STREAM.print("\r" + fillWithEmptySpace("", progressLength) + "\r");
+            progressLength = 0;
+        }
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    private static String abbreviate(String name, int length) {
+        if (name == null || name.length() <= length) {
+            return name;
+        }
+        return name.substring(0, length - 3) + "...";
     }
 
     private String fillWithEmptySpace(String txt, int totalChar) {
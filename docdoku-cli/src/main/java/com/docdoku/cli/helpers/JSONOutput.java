@@ -21,13 +21,17 @@
 package com.docdoku.cli.helpers;
 
 import com.docdoku.api.models.*;
+import com.docdoku.api.models.utils.BomRollup;
+import com.docdoku.api.models.utils.InstancePlacements;
 import com.docdoku.api.models.utils.LastIterationHelper;
+import com.docdoku.api.models.utils.ProductStructureGraph;
 import org.kohsuke.args4j.CmdLineParser;
 
 import javax.json.*;
 import java.io.*;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public class JSONOutput extends CliOutput {
 
@@ -173,8 +177,154 @@ public class JSONOutput extends CliOutput {
     }
 
     @Override
-    public FilterInputStream getMonitor(long maximum, InputStream in) {
-        return new JSONProgressMonitorInputStream(maximum, in);
+    public void printWhereUsed(String number, List<String> users, List<String> assemblies, List<String> products) {
+        JsonObjectBuilder jsonObj = Json.createObjectBuilder()
+                .add("number", number)
+                .add("users", toJsonArray(users))
+                .add("assemblies", toJsonArray(assemblies))
+                .add("products", toJsonArray(products));
+        OUTPUT_STREAM.println(jsonObj.build().toString());
+    }
+
+    /**
+     * Print the bill of materials as a JSON array, written one part at a time
+     */
+    @Override
+    public void printBom(BomRollup bom, int[] nodes) {
+        ProductStructureGraph graph = bom.getGraph();
+        OUTPUT_STREAM.println("[");
+        for (int i = 0; i < nodes.length; i++) {
+            int node = nodes[i];
+            JsonObjectBuilder jsonLine = Json.createObjectBuilder()
+                    .add("number", graph.getNumber(node))
+                    .add("quantity", bom.getQuantity(node))
+                    .add("optionalQuantity", bom.getOptionalQuantity(node))
+                    .add("substitute", bom.isSubstitute(node));
+            if (graph.getVersion(node) != null) {
+                jsonLine.add("version", graph.getVersion(node));
+            }
+            if (graph.getName(node) != null) {
+                jsonLine.add("name", graph.getName(node));
+            }
+            if (bom.getUnit(node) != null) {
+                jsonLine.add("unit", bom.getUnit(node));
+            }
+            OUTPUT_STREAM.println(jsonLine.build().toString() + (i < nodes.length - 1 ? "," : ""));
+        }
+        OUTPUT_STREAM.println("]");
+    }
+
+    /**
+     * Print the placements as a JSON object, its instances being written one at a time
+     */
+    @Override
+    public void printPlacements(InstancePlacements placements) {
+        ProductStructureGraph graph = placements.getGraph();
+        double[] bounds = placements.getBounds();
+        if (bounds != null) {
+            JsonArrayBuilder jsonBounds = Json.createArrayBuilder();
+            for (double value : bounds) {
+                jsonBounds.add(value);
+            }
+            OUTPUT_STREAM.println("{\"bounds\":" + jsonBounds.build().toString() + ",\"instances\":[");
+        } else {
+            OUTPUT_STREAM.println("{\"instances\":[");
+        }
+        double[] transform = new double[InstancePlacements.STRIDE];
+        for (int leaf = 0; leaf < placements.getLeafCount(); leaf++) {
+            JsonArrayBuilder jsonPath = Json.createArrayBuilder();
+            for (int id : placements.getPath(leaf)) {
+                jsonPath.add(id);
+            }
+            JsonArrayBuilder jsonMatrix = Json.createArrayBuilder();
+            placements.getTransform(leaf, transform, 0);
+            for (double value : transform) {
+                jsonMatrix.add(value);
+            }
+            JsonObject jsonInstance = Json.createObjectBuilder()
+                    .add("number", graph.getNumber(placements.getNode(leaf)))
+                    .add("path", jsonPath)
+                    .add("matrix", jsonMatrix)
+                    .build();
+            OUTPUT_STREAM.println(jsonInstance.toString() + (leaf < placements.getLeafCount() - 1 ? "," : ""));
+        }
+        OUTPUT_STREAM.println("]}");
+    }
+
+    @Override
+    public void printEffectiveParts(Map<List<String>, List<String>> contextsByParts) {
+        JsonArrayBuilder jsonArray = Json.createArrayBuilder();
+        for (Map.Entry<List<String>, List<String>> entry : contextsByParts.entrySet()) {
+            jsonArray.add(Json.createObjectBuilder()
+                    .add("contexts", toJsonArray(entry.getValue()))
+                    .add("parts", toJsonArray(entry.getKey())));
+        }
+        OUTPUT_STREAM.println(jsonArray.build().toString());
+    }
+
+    private static JsonArrayBuilder toJsonArray(List<String> values) {
+        JsonArrayBuilder jsonArray = Json.createArrayBuilder();
+        for (String value : values) {
+            jsonArray.add(value);
+        }
+        return jsonArray;
+    }
+
+    @Override
+    public void printStatusReport(List<FileStatus> statuses) {
+        JsonArrayBuilder jsonArray = Json.createArrayBuilder();
+        for (FileStatus status : statuses) {
+            JsonArrayBuilder jsonStates = Json.createArrayBuilder();
+            for (FileStatus.State state : status.getStates()) {
+                jsonStates.add(state.name());
+            }
+            JsonObjectBuilder jsonStatus = Json.createObjectBuilder()
+                    .add("path", status.getFilePath())
+                    .add("workspace", status.getWorkspace())
+                    .add(status.isDocument() ? "id" : "partNumber", status.getId())
+                    .add("version", status.getRevision())
+                    .add("iteration", status.getIteration())
+                    .add("serverIteration", status.getServerIteration())
+                    .add("states", jsonStates);
+            if (status.getCheckOutUser() != null) {
+                jsonStatus.add("checkOutUser", status.getCheckOutUser());
+            }
+            if (status.getError() != null) {
+                jsonStatus.add("error", status.getError());
+            }
+            jsonArray.add(jsonStatus);
+        }
+        OUTPUT_STREAM.println(jsonArray.build().toString());
+    }
+
+    @Override
+    public void printProgress(TransferProgress.Snapshot snapshot) {
+        JsonArrayBuilder jsonFiles = Json.createArrayBuilder();
+        for (TransferProgress.FileProgress file : snapshot.getFiles()) {
+            jsonFiles.add(Json.createObjectBuilder()
+                    .add("name", file.getName())
+                    .add("bytes", file.getBytes())
+                    .add("length", file.getLength())
+                    .add("rate", (long) file.getRate()));
+        }
+        JsonObject jsonObj = Json.createObjectBuilder()
+                .add("progress", snapshot.getPercentage())
+                .add("bytes", snapshot.getBytes())
+                .add("length", snapshot.getLength())
+                .add("rate", (long) snapshot.getRate())
+                .add("eta", snapshot.getEta())
+                .add("active", snapshot.getActive())
+                .add("completed", snapshot.getCompleted())
+                .add("failed", snapshot.getFailed())
+                .add("finished", snapshot.isFinished())
+                .add("files", jsonFiles)
+                .build();
+        OUTPUT_STREAM.println(jsonObj.toString());
+    }
+
+    @Override
+    protected long getProgressRefreshPeriod() {
+        return 1000;
     }
 
     private JsonObject getPartRevision(PartRevisionDTO pr, long lastModified) {
@@ -20,116 +20,330 @@
 
 package com.docdoku.cli.helpers;
 
-import javax.json.*;
+import org.apache.commons.io.FileUtils;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
 import java.io.*;
-import java.util.Enumeration;
-import java.util.Properties;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Metadata of the tracked files of a working directory, stored in its .dplm directory.
+ * <p>
+ * Records are keyed by the path relative to the working directory and kept in memory. Changes are
+ * appended to a binary log, compacted once it grows far beyond the number of tracked files. Each
+ * access to the log is done under a lock on .dplm/index.lock, so that concurrent dplm processes
+ * see each other's changes instead of overwriting them.
+ * <p>
+ * A working tree initialized with {@link #init(File)} has a single index at its root, found by
+ * walking upward from any of its subdirectories. Other directories have their own index.
+ */
 public class MetaDirectoryManager {
 
-    private File metaDirectory;
-    private Properties indexProps;
-
+    private static final Logger LOGGER = Logger.getLogger(MetaDirectoryManager.class.getName());
 
     private static final String META_DIRECTORY_NAME = ".dplm";
-    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String INDEX_FILE_NAME = "index.log";
+    private static final String LOCK_FILE_NAME = "index.lock";
+    private static final String LEGACY_INDEX_FILE_NAME = "index.json";
+    private static final String ROOT_MARKER_NAME = "root";
+
+    private static final int MAGIC = 0x44504C4D;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int COMPACTION_THRESHOLD = 4096;
+
+    private static final Map<Path, MetaDirectoryManager> INSTANCES = new ConcurrentHashMap<>();
+
+    private enum Prop {
+        PART_NUMBER("number"),
+        REVISION("revision"),
+        ITERATION("iteration"),
+        WORKSPACE("workspaceId"),
+        ID("documentMasterId"),
+        LAST_MODIFIED_DATE("lastModifiedDate"),
+        DIGEST("digest"),
+        LENGTH("length"),
+        FINGERPRINT("fingerprint");
+
+        private static final Prop[] VALUES = values();
+
+        private final String legacyName;
+
+        Prop(String legacyName) {
+            this.legacyName = legacyName;
+        }
+    }
+
+    private final Path workingDirectory;
+    private final Path indexFile;
+    private final Path lockFile;
+    private final Map<String, String[]> entries = new HashMap<>();
+
+    private Object indexFileKey;
+    private long position;
+    private int records;
+
+    private MetaDirectoryManager(Path workingDirectory) throws IOException {
+        this.workingDirectory = workingDirectory;
+        Path metaDirectory = workingDirectory.resolve(META_DIRECTORY_NAME);
+        Files.createDirectories(metaDirectory);
+        this.indexFile = metaDirectory.resolve(INDEX_FILE_NAME);
+        this.lockFile = metaDirectory.resolve(LOCK_FILE_NAME);
+        load(metaDirectory.resolve(LEGACY_INDEX_FILE_NAME));
+    }
+
+    /**
+     * Get the manager of a working directory, instances are shared within the process.
+     * <p>
+     * Inside an initialized working tree, this is the manager of the tree root.
+     */
+    public static MetaDirectoryManager getInstance(File workingDirectory) throws IOException {
+        Path directory = workingDirectory.toPath().toAbsolutePath().normalize();
+        MetaDirectoryManager meta = INSTANCES.get(directory);
+        if (meta != null) {
+            meta.refresh();
+            return meta;
+        }
+        Path root = findRoot(directory);
+        meta = open(root != null ? root : directory);
+        MetaDirectoryManager previous = INSTANCES.putIfAbsent(directory, meta);
+        return previous != null ? previous : meta;
+    }
+
+    /**
+     * Make a directory the root of a working tree, the indexes of its subdirectories are merged
+     * into the root index and removed.
+     *
+     * @return the manager of the tree root
+     */
+    public static MetaDirectoryManager init(File rootDirectory) throws IOException {
+        Path root = rootDirectory.toPath().toAbsolutePath().normalize();
+        Path marker = root.resolve(META_DIRECTORY_NAME).resolve(ROOT_MARKER_NAME);
+        Files.createDirectories(marker.getParent());
+        if (!Files.exists(marker)) {
+            Files.createFile(marker);
+        }
 
-    private static final String PART_NUMBER_PROP = "number";
-    private static final String REVISION_PROP = "revision";
-    private static final String ITERATION_PROP = "iteration";
-    private static final String WORKSPACE_PROP = "workspaceId";
-    private static final String ID_PROP = "documentMasterId";
-    private static final String LAST_MODIFIED_DATE_PROP = "lastModifiedDate";
-    private static final String DIGEST_PROP = "digest";
+        MetaDirectoryManager meta = open(root);
+        List<Path> indexDirectories = findIndexDirectories(root, false);
+        for (Path directory : indexDirectories) {
+            MetaDirectoryManager nested = new MetaDirectoryManager(directory);
+            meta.importEntries(directory, nested.entries);
+            INSTANCES.remove(directory);
+            FileUtils.deleteDirectory(directory.resolve(META_DIRECTORY_NAME).toFile());
+        }
+        INSTANCES.keySet().removeIf(directory -> directory.startsWith(root));
+        INSTANCES.put(root, meta);
+        return meta;
+    }
+
+    /**
+     * The directory holding this index, the root of the working tree if any
+     */
+    public File getWorkingDirectory() {
+        return workingDirectory.toFile();
+    }
+
+    public boolean isWorkingTreeRoot() {
+        return Files.exists(workingDirectory.resolve(META_DIRECTORY_NAME).resolve(ROOT_MARKER_NAME));
+    }
 
-    public MetaDirectoryManager(File workingDirectory) throws IOException {
-        this.metaDirectory = new File(workingDirectory, META_DIRECTORY_NAME);
-        if (!metaDirectory.exists()) {
-            metaDirectory.mkdir();
+    /**
+     * Get all tracked files, as absolute paths
+     */
+    public synchronized List<String> getTrackedFiles() {
+        List<String> files = new ArrayList<>(entries.size());
+        for (String key : entries.keySet()) {
+            files.add(workingDirectory.resolve(key).toString());
         }
-        File indexFile = new File(metaDirectory, INDEX_FILE_NAME);
-        indexProps = loadPropertiesFromIndexFile(indexFile);
+        return files;
     }
 
-    private void saveIndex() throws IOException {
-        File indexFile = new File(metaDirectory, INDEX_FILE_NAME);
-        if (!indexFile.exists()) {
-            indexFile.createNewFile();
+    private static MetaDirectoryManager open(Path directory) throws IOException {
+        MetaDirectoryManager meta = INSTANCES.get(directory);
+        if (meta != null) {
+            meta.refresh();
+            return meta;
+        }
+        meta = new MetaDirectoryManager(directory);
+        MetaDirectoryManager previous = INSTANCES.putIfAbsent(directory, meta);
+        return previous != null ? previous : meta;
+    }
+
+    private static Path findRoot(Path directory) {
+        for (Path current = directory; current != null; current = current.getParent()) {
+            if (Files.exists(current.resolve(META_DIRECTORY_NAME).resolve(ROOT_MARKER_NAME))) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the managers of all the indexes covering a directory and its subdirectories
+     */
+    public static Collection<MetaDirectoryManager> findIndexes(File directory) throws IOException {
+        Path start = directory.toPath().toAbsolutePath().normalize();
+        Set<MetaDirectoryManager> managers = new LinkedHashSet<>();
+        Path root = findRoot(start);
+        if (root != null) {
+            managers.add(open(root));
+        } else if (hasIndex(start)) {
+            managers.add(open(start));
+        }
+        for (Path indexDirectory : findIndexDirectories(start, true)) {
+            managers.add(getInstance(indexDirectory.toFile()));
         }
-        JsonWriter writer = Json.createWriter(new FileOutputStream(indexFile));
-        writer.write(getPropertiesAsJsonObject());
-        writer.close();
+        return managers;
+    }
+
+    private static boolean hasIndex(Path directory) {
+        Path metaDirectory = directory.resolve(META_DIRECTORY_NAME);
+        return Files.exists(metaDirectory.resolve(INDEX_FILE_NAME)) || Files.exists(metaDirectory.resolve(LEGACY_INDEX_FILE_NAME));
+    }
+
+    /**
+     * Find the subdirectories having their own index
+     *
+     * @param nestedRoots whether to include the roots of nested working trees
+     */
+    private static List<Path> findIndexDirectories(Path start, boolean nestedRoots) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) {
+                if (directory.equals(start)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (META_DIRECTORY_NAME.equals(directory.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (Files.exists(directory.resolve(META_DIRECTORY_NAME).resolve(ROOT_MARKER_NAME))) {
+                    if (nestedRoots) {
+                        directories.add(directory);
+                    }
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (hasIndex(directory)) {
+                    directories.add(directory);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                LOGGER.log(Level.FINE, "Cannot visit " + file, exc);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return directories;
     }
 
     public void setPartNumber(String filePath, String partNumber) throws IOException {
-        indexProps.setProperty(filePath + "." + PART_NUMBER_PROP, partNumber);
-        saveIndex();
+        put(filePath, Prop.PART_NUMBER, partNumber);
     }
 
     public void setDocumentId(String filePath, String id) throws IOException {
-        indexProps.setProperty(filePath + "." + ID_PROP, id);
-        saveIndex();
+        put(filePath, Prop.ID, id);
     }
 
     public void setRevision(String filePath, String revision) throws IOException {
-        indexProps.setProperty(filePath + "." + REVISION_PROP, revision);
-        saveIndex();
+        put(filePath, Prop.REVISION, revision);
     }
 
     public void setIteration(String filePath, int iteration) throws IOException {
-        indexProps.setProperty(filePath + "." + ITERATION_PROP, iteration + "");
-        saveIndex();
+        put(filePath, Prop.ITERATION, iteration + "");
     }
 
     public void setLastModifiedDate(String filePath, long lastModifiedDate) throws IOException {
-        indexProps.setProperty(filePath + "." + LAST_MODIFIED_DATE_PROP, lastModifiedDate + "");
-        saveIndex();
+        put(filePath, Prop.LAST_MODIFIED_DATE, lastModifiedDate + "");
     }
 
     public void setWorkspace(String filePath, String workspaceId) throws IOException {
-        indexProps.setProperty(filePath + "." + WORKSPACE_PROP, workspaceId + "");
-        saveIndex();
+        put(filePath, Prop.WORKSPACE, workspaceId + "");
     }
 
     public void setDigest(String filePath, String digest) throws IOException {
-        indexProps.setProperty(filePath + "." + DIGEST_PROP, digest);
-        saveIndex();
+        put(filePath, Prop.DIGEST, digest);
+    }
+
+    public void setLength(String filePath, long length) throws IOException {
+        put(filePath, Prop.LENGTH, length + "");
+    }
+
+    /**
+     * Record the fingerprint, length and modification date of a file at once, any previous MD5
+     * digest is discarded
+     */
+    public void setFileState(String filePath, String fingerprint, long length, long lastModifiedDate) throws IOException {
+        Map<Prop, String> values = new EnumMap<>(Prop.class);
+        values.put(Prop.FINGERPRINT, fingerprint);
+        values.put(Prop.DIGEST, null);
+        values.put(Prop.LENGTH, length + "");
+        values.put(Prop.LAST_MODIFIED_DATE, lastModifiedDate + "");
+        append(encodePut(key(filePath), values));
     }
 
     public long getLastModifiedDate(String filePath) {
-        return Long.parseLong(indexProps.getProperty(filePath + "." + LAST_MODIFIED_DATE_PROP, "0"));
+        return Long.parseLong(get(filePath, Prop.LAST_MODIFIED_DATE, "0"));
+    }
+
+    public String getDigest(String filePath) {
+        return get(filePath, Prop.DIGEST, null);
+    }
+
+    public String getFingerprint(String filePath) {
+        return get(filePath, Prop.FINGERPRINT, null);
+    }
+
+    public long getLength(String filePath) {
+        return Long.parseLong(get(filePath, Prop.LENGTH, "-1"));
     }
 
     public String getPartNumber(String filePath) {
-        return indexProps.getProperty(filePath + "." + PART_NUMBER_PROP);
+        return get(filePath, Prop.PART_NUMBER, null);
     }
 
     public String getWorkspace(String filePath) {
-        return indexProps.getProperty(filePath + "." + WORKSPACE_PROP);
+        return get(filePath, Prop.WORKSPACE, null);
     }
 
     public String getRevision(String filePath) {
-        return indexProps.getProperty(filePath + "." + REVISION_PROP);
+        return get(filePath, Prop.REVISION, null);
     }
 
     public int getIteration(String filePath) {
-        return Integer.parseInt(indexProps.getProperty(filePath + "." + ITERATION_PROP, "0"));
+        return Integer.parseInt(get(filePath, Prop.ITERATION, "0"));
     }
 
     public void deleteEntryInfo(String filePath) throws IOException {
-        indexProps.remove(filePath + "." + ID_PROP);
-        indexProps.remove(filePath + "." + PART_NUMBER_PROP);
-        indexProps.remove(filePath + "." + REVISION_PROP);
-        indexProps.remove(filePath + "." + ITERATION_PROP);
-        indexProps.remove(filePath + "." + LAST_MODIFIED_DATE_PROP);
-        indexProps.remove(filePath + "." + DIGEST_PROP);
-        indexProps.remove(filePath + "." + WORKSPACE_PROP);
-        saveIndex();
+        append(encodeDelete(key(filePath)));
+    }
+
+    /**
+     * Start a batch of changes, appended to the log at once by {@link Batch#commit()}
+     */
+    public Batch newBatch() {
+        return new Batch();
     }
 
     public String getDocumentId(String filePath) {
-        return indexProps.getProperty(filePath + "." + ID_PROP);
+        return get(filePath, Prop.ID, null);
+    }
+
+    public synchronized boolean isTracked(String filePath) {
+        return entries.containsKey(key(filePath));
     }
 
     public boolean isDocumentRelated(String filePath) {
@@ -140,42 +354,335 @@ public class MetaDirectoryManager {
         return getPartNumber(filePath) != null;
     }
 
-    private JsonObject getPropertiesAsJsonObject() {
-        JsonObjectBuilder json = Json.createObjectBuilder();
-        Enumeration keys = indexProps.keys();
-        while (keys.hasMoreElements()) {
-            String key = (String) keys.nextElement();
-            String value = (String) indexProps.get(key);
-            json.add(key, value);
+    /**
+     * Reload the changes made by other processes since the last access
+     */
+    public synchronized void refresh() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        try (FileChannel lockChannel = openLock()) {
+            // Released when the channel is closed
+            lockChannel.lock();
+            try (FileChannel log = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                sync(log);
+            }
         }
-        return json.build();
     }
 
-    private Properties loadPropertiesFromIndexFile(File file) {
+    private synchronized String get(String filePath, Prop prop, String defaultValue) {
+        String[] values = entries.get(key(filePath));
+        String value = values != null ? values[prop.ordinal()] : null;
+        return value != null ? value : defaultValue;
+    }
 
-        Properties props = new Properties();
+    private void put(String filePath, Prop prop, String value) throws IOException {
+        append(encodePut(key(filePath), Collections.singletonMap(prop, value)));
+    }
 
-        if (!file.exists()) {
-            return props;
+    private String key(String filePath) {
+        Path path = Paths.get(filePath).toAbsolutePath().normalize();
+        if (!path.startsWith(workingDirectory)) {
+            return path.toString();
         }
-        JsonReader reader = null;
-        try (FileInputStream fis = new FileInputStream(file)) {
-            reader = Json.createReader(fis);
-            JsonObject json = reader.readObject();
-            Set<String> keys = json.keySet();
-            for (String key : keys) {
-                props.setProperty(key, json.getString(key));
+        return workingDirectory.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private synchronized void load(Path legacyIndexFile) throws IOException {
+        try (FileChannel lockChannel = openLock()) {
+            lockChannel.lock();
+            try (FileChannel log = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                sync(log);
+                if (records == 0 && Files.exists(legacyIndexFile)) {
+                    migrate(legacyIndexFile);
+                    compact();
+                    Files.delete(legacyIndexFile);
+                } else if (isBloated()) {
+                    compact();
+                }
             }
-            return props;
+        }
+    }
 
-        } catch (IOException ex) {
-            file.delete();
-            return props;
+    /**
+     * Append one or more records to the log, and apply them
+     */
+    private synchronized void append(byte[] records) throws IOException {
+        try (FileChannel lockChannel = openLock()) {
+            lockChannel.lock();
+            try (FileChannel log = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                sync(log);
+                write(log, ByteBuffer.wrap(records), position);
+                position += records.length;
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+                int offset = 0;
+                while (offset < records.length) {
+                    int length = in.readInt();
+                    apply(in);
+                    offset += length;
+                }
+            }
+            // Also compacted here, still under the lock: a long running watcher never reopens the index
+            if (isBloated()) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Tell whether most records of the log are overwritten or deleted ones
+     */
+    private boolean isBloated() {
+        return records > COMPACTION_THRESHOLD && records > 2 * entries.size();
+    }
+
+    /**
+     * Append the entries of the index of a subdirectory, rebased on this directory, under a single lock
+     */
+    private synchronized void importEntries(Path directory, Map<String, String[]> imported) throws IOException {
+        if (imported.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        for (Map.Entry<String, String[]> entry : imported.entrySet()) {
+            batch.write(encodePut(key(directory.resolve(entry.getKey()).toString()), toMap(entry.getValue())));
+        }
+        append(batch.toByteArray());
+    }
+
+    /**
+     * Replay the records appended since the last access, or the whole log if it has been replaced
+     */
+    private void sync(FileChannel log) throws IOException {
+        Object fileKey = Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey();
+        long size = log.size();
+        if (position == 0 || size < position || !Objects.equals(fileKey, indexFileKey)) {
+            entries.clear();
+            records = 0;
+            position = readHeader(log);
+            indexFileKey = fileKey;
+        }
+        if (size <= position) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - position));
+        while (buffer.hasRemaining() && log.read(buffer, position + buffer.position()) >= 0) {
+            // read the whole tail
+        }
+        int limit = buffer.position();
+        ByteArrayInputStream bytes = new ByteArrayInputStream(buffer.array(), 0, limit);
+        DataInputStream in = new DataInputStream(bytes);
+        int offset = 0;
+        while (limit - offset >= 4) {
+            int length = in.readInt();
+            if (length < 4 || length > limit - offset) {
+                break;
+            }
+            apply(in);
+            offset += length;
+        }
+        position += offset;
+        if (position < size) {
+            // Record torn by an interrupted process
+            LOGGER.log(Level.WARNING, "Truncating corrupted index " + indexFile + " at " + position);
+            log.truncate(position);
+        }
+    }
+
+    private long readHeader(FileChannel log) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (log.size() >= HEADER_SIZE) {
+            log.read(header, 0);
+            header.flip();
+            if (header.getInt() == MAGIC && header.get() == FORMAT_VERSION) {
+                return HEADER_SIZE;
+            }
+            LOGGER.log(Level.WARNING, "Resetting unreadable index " + indexFile);
+        }
+        log.truncate(0);
+        write(log, newHeader(), 0);
+        return HEADER_SIZE;
+    }
+
+    private static ByteBuffer newHeader() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(FORMAT_VERSION).flip();
+        return header;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        String key = in.readUTF();
+        records++;
+        if (op == DELETE) {
+            entries.remove(key);
+            return;
+        }
+        String[] values = entries.get(key);
+        if (values == null) {
+            values = new String[Prop.VALUES.length];
+            entries.put(key, values);
+        }
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            int prop = in.readUnsignedByte();
+            String value = in.readBoolean() ? in.readUTF() : null;
+            if (prop < values.length) {
+                values[prop] = value;
+            }
+        }
+    }
+
+    private static byte[] encodePut(String key, Map<Prop, String> values) throws IOException {
+        RecordOutputStream record = new RecordOutputStream();
+        record.data.writeByte(PUT);
+        record.data.writeUTF(key);
+        record.data.writeByte(values.size());
+        for (Map.Entry<Prop, String> value : values.entrySet()) {
+            record.data.writeByte(value.getKey().ordinal());
+            record.data.writeBoolean(value.getValue() != null);
+            if (value.getValue() != null) {
+                record.data.writeUTF(value.getValue());
+            }
+        }
+        return record.toRecord();
+    }
+
+    private static Map<Prop, String> toMap(String[] values) {
+        Map<Prop, String> map = new EnumMap<>(Prop.class);
+        for (Prop prop : Prop.VALUES) {
+            if (values[prop.ordinal()] != null) {
+                map.put(prop, values[prop.ordinal()]);
+            }
+        }
+        return map;
+    }
+
+    private static byte[] encodeDelete(String key) throws IOException {
+        RecordOutputStream record = new RecordOutputStream();
+        record.data.writeByte(DELETE);
+        record.data.writeUTF(key);
+        return record.toRecord();
+    }
+
+    /**
+     * Rewrite the log with a single record per tracked file
+     */
+    private void compact() throws IOException {
+        Path temp = Files.createTempFile(indexFile.getParent(), INDEX_FILE_NAME, ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                out.write(newHeader().array());
+                for (Map.Entry<String, String[]> entry : entries.entrySet()) {
+                    out.write(encodePut(entry.getKey(), toMap(entry.getValue())));
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } finally {
-            if (null != reader) {
-                reader.close();
+            Files.deleteIfExists(temp);
+        }
+        indexFileKey = Files.readAttributes(indexFile, BasicFileAttributes.class).fileKey();
+        position = Files.size(indexFile);
+        records = entries.size();
+    }
+
+    /**
+     * Import the index.json file of previous versions, keyed by absolute path and property name
+     */
+    private void migrate(Path legacyIndexFile) {
+        try (InputStream in = Files.newInputStream(legacyIndexFile); JsonReader reader = Json.createReader(in)) {
+            JsonObject json = reader.readObject();
+            for (String key : json.keySet()) {
+                for (Prop prop : Prop.VALUES) {
+                    String suffix = "." + prop.legacyName;
+                    if (key.endsWith(suffix)) {
+                        String path = key(key.substring(0, key.length() - suffix.length()));
+                        entries.computeIfAbsent(path, k -> new String[Prop.VALUES.length])[prop.ordinal()] = json.getString(key);
+                        break;
+                    }
+                }
             }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Cannot migrate " + legacyIndexFile, e);
         }
+    }
+
+    /**
+     * Changes of many tracked files, written under a single lock. Changes can be added by concurrent
+     * threads.
+     */
+    public class Batch {
+
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
 
+        private Batch() {
+        }
+
+        /**
+         * Track a file as the given iteration of a part, in its current state
+         */
+        public synchronized void putPartFile(String filePath, String workspaceId, String partNumber, String revision, int iteration,
+                                             String fingerprint, long length, long lastModifiedDate) throws IOException {
+            Map<Prop, String> values = new EnumMap<>(Prop.class);
+            values.put(Prop.PART_NUMBER, partNumber);
+            values.put(Prop.ID, null);
+            values.put(Prop.WORKSPACE, workspaceId);
+            values.put(Prop.REVISION, revision);
+            values.put(Prop.ITERATION, iteration + "");
+            values.put(Prop.FINGERPRINT, fingerprint);
+            values.put(Prop.DIGEST, null);
+            values.put(Prop.LENGTH, length + "");
+            values.put(Prop.LAST_MODIFIED_DATE, lastModifiedDate + "");
+            records.write(encodePut(key(filePath), values));
+        }
+
+        public synchronized void delete(String filePath) throws IOException {
+            records.write(encodeDelete(key(filePath)));
+        }
+
+        /**
+         * Append the changes of the batch, which is then empty
+         */
+        public void commit() throws IOException {
+            byte[] changes;
+            synchronized (this) {
+                changes = records.toByteArray();
+                records.reset();
+            }
+            if (changes.length > 0) {
+                append(changes);
+            }
+        }
+    }
+
+    private static class RecordOutputStream extends ByteArrayOutputStream {
+
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        RecordOutputStream() {
+            super(64);
+            // Length placeholder
+            write(0);
+            write(0);
+            write(0);
+            write(0);
+        }
+
+        byte[] toRecord() {
+            byte[] record = toByteArray();
+            ByteBuffer.wrap(record).putInt(record.length);
+            return record;
+        }
     }
 }
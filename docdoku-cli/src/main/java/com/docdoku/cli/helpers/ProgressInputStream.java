@@ -23,33 +23,47 @@ package com.docdoku.cli.helpers;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
 
-public class JSONProgressMonitorInputStream extends FilterInputStream {
+/**
+ * Stream counting the bytes read into a {@link TransferProgress.Transfer}
+ */
+public class ProgressInputStream extends FilterInputStream {
 
-    private long maximum;
-    private long totalRead;
-    private int oldPercentage=-1;
-    private PrintStream outputStream = System.out;
+    private final TransferProgress.Transfer transfer;
 
-    public JSONProgressMonitorInputStream(long maximum, InputStream in){
+    public ProgressInputStream(InputStream in, TransferProgress.Transfer transfer) {
         super(in);
-        this.maximum=maximum;
+        this.transfer = transfer;
     }
 
     @Override
-    public int read(byte[] b) throws IOException {
-        int length =  super.read(b, 0, b.length);
-        totalRead += length;
-        int percentage = (int)((totalRead * 100.0f) / maximum);
-
-        if(percentage > oldPercentage) {
-            outputStream.println("{\"progress\":" + percentage + "}");
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            transfer.add(1);
         }
+        return b;
+    }
 
-        oldPercentage = percentage ;
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int length = super.read(b, off, len);
+        if (length > 0) {
+            transfer.add(length);
+        }
         return length;
     }
 
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        transfer.add(skipped);
+        return skipped;
+    }
 
+    @Override
+    public void close() throws IOException {
+        super.close();
+        transfer.done();
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import com.docdoku.api.client.ApiClient;
+import com.docdoku.api.client.ApiException;
+import com.docdoku.api.models.ComponentDTO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Product structures fetched recently, stored as JSON under ~/.dplm/structures so that commands
+ * walking the structures of a whole workspace only fetch the stale ones.
+ */
+public class StructureCache {
+
+    private static final Logger LOGGER = Logger.getLogger(StructureCache.class.getName());
+
+    private static final String CACHE_DIRECTORY = ".dplm" + File.separator + "structures";
+    private static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Fetch of a structure from the server
+     */
+    @FunctionalInterface
+    public interface Fetch {
+        ComponentDTO call() throws ApiException;
+    }
+
+    private final Path root;
+    private final ApiClient client;
+    private final long maxAge;
+
+    public StructureCache(Path root, ApiClient client, long maxAge) {
+        this.root = root;
+        this.client = client;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * The user cache, structures being fetched again after 15 minutes
+     */
+    public static StructureCache getDefault(ApiClient client) {
+        return new StructureCache(Paths.get(System.getProperty("user.home")).resolve(CACHE_DIRECTORY), client, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Get a structure from the cache, or fetch it if missing, stale or refreshed
+     *
+     * @param key identifies the product and the configuration of the structure on the server
+     */
+    public ComponentDTO get(String key, boolean refresh, Fetch fetch) throws ApiException {
+        Path file = root.resolve(BlobCache.sha256(client.getBasePath() + "|" + key) + ".json");
+        if (!refresh && file.toFile().lastModified() > System.currentTimeMillis() - maxAge) {
+            try {
+                String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                return client.getJSON().deserialize(json, ComponentDTO.class);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Cannot read cached structure " + file, e);
+            }
+        }
+        ComponentDTO structure = fetch.call();
+        try {
+            store(file, client.getJSON().serialize(structure));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot cache structure " + file, e);
+        }
+        return structure;
+    }
+
+    private void store(Path file, String json) throws IOException {
+        Files.createDirectories(root);
+        Path temp = Files.createTempFile(root, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, json.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
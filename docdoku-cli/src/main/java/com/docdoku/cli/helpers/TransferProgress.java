@@ -0,0 +1,386 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import com.docdoku.api.client.ProgressRequestBody;
+import com.docdoku.api.client.ProgressResponseBody;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Aggregated progress of concurrent uploads and downloads.
+ * <p>
+ * Transfers only update atomic counters, a single renderer thread samples them at a fixed rate to
+ * compute throughputs and prints them through the {@link CliOutput}, so that slow console output
+ * never holds a transfer back.
+ */
+public class TransferProgress implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(TransferProgress.class.getName());
+
+    // Weight of the last sample in the smoothed throughputs
+    private static final double SMOOTHING = 0.3;
+
+    private final CliOutput output;
+    private final long refreshPeriod;
+
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder knownLength = new LongAdder();
+    private final AtomicInteger unknownLengths = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final Queue<Transfer> active = new ConcurrentLinkedQueue<>();
+
+    private ScheduledExecutorService renderer;
+    private boolean closed;
+
+    // Sampling state, only used by the renderer
+    private long lastSampleTime;
+    private long lastSampleBytes;
+    private double rate;
+
+    /**
+     * @param refreshPeriod period of the rendering in milliseconds
+     */
+    public TransferProgress(CliOutput output, long refreshPeriod) {
+        this.output = output;
+        this.refreshPeriod = refreshPeriod;
+    }
+
+    /**
+     * Start following a transfer, the renderer is started with the first one
+     *
+     * @param length expected size in bytes, or -1 when it is learnt from the transfer itself
+     */
+    public Transfer start(String name, long length) {
+        Transfer transfer = new Transfer(name);
+        unknownLengths.incrementAndGet();
+        transfer.setLength(length);
+        active.add(transfer);
+        startRenderer();
+        return transfer;
+    }
+
+    private synchronized void startRenderer() {
+        if (renderer != null || closed) {
+            return;
+        }
+        lastSampleTime = System.nanoTime();
+        renderer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dplm-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renderer.scheduleAtFixedRate(() -> render(false), refreshPeriod, refreshPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    private void render(boolean finished) {
+        try {
+            long previousBytes = lastSampleBytes;
+            Snapshot snapshot = snapshot(finished);
+            if (finished || !snapshot.getFiles().isEmpty() || snapshot.getBytes() != previousBytes) {
+                output.printProgress(snapshot);
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the next renderings
+            LOGGER.log(Level.FINE, "Cannot render progress", e);
+        }
+    }
+
+    /**
+     * Sample the counters, updating the throughputs
+     */
+    Snapshot snapshot(boolean finished) {
+        long now = System.nanoTime();
+        double elapsed = Math.max(now - lastSampleTime, 1) / 1e9;
+        lastSampleTime = now;
+
+        List<FileProgress> files = new ArrayList<>();
+        for (Transfer transfer : active) {
+            long transferred = transfer.bytes.get();
+            transfer.rate = smooth(transfer.rate, (transferred - transfer.sampleBytes) / elapsed, transfer.sampleBytes == 0);
+            transfer.sampleBytes = transferred;
+            files.add(new FileProgress(transfer.name, transferred, transfer.length, transfer.rate));
+        }
+
+        long transferred = bytes.sum();
+        rate = smooth(rate, (transferred - lastSampleBytes) / elapsed, lastSampleBytes == 0);
+        lastSampleBytes = transferred;
+
+        long length = unknownLengths.get() == 0 ? knownLength.sum() : -1;
+        long eta = length >= 0 && rate > 0 ? (long) Math.ceil(Math.max(length - transferred, 0) / rate) : -1;
+        return new Snapshot(transferred, length, rate, eta, files.size(), completed.get(), failed.get(), finished,
+                Collections.unmodifiableList(files));
+    }
+
+    private static double smooth(double previous, double sample, boolean first) {
+        return first ? sample : SMOOTHING * sample + (1 - SMOOTHING) * previous;
+    }
+
+    /**
+     * Stop the renderer, printing the final state of the transfers if any
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            closed = true;
+            running = renderer;
+            renderer = null;
+        }
+        if (running == null) {
+            return;
+        }
+        running.shutdown();
+        try {
+            running.awaitTermination(refreshPeriod * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        render(true);
+    }
+
+    /**
+     * A followed transfer, which can be given as listener to the generated client
+     */
+    public final class Transfer implements ProgressResponseBody.ProgressListener, ProgressRequestBody.ProgressRequestListener {
+
+        private final String name;
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long length = -1;
+        private final AtomicInteger state = new AtomicInteger();
+
+        // Sampling state, only used by the renderer
+        private long sampleBytes;
+        private double rate;
+
+        private Transfer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Count bytes transferred since the last call
+         */
+        public void add(long count) {
+            bytes.addAndGet(count);
+            TransferProgress.this.bytes.add(count);
+        }
+
+        /**
+         * Set the total count of bytes transferred, which may go back if the transfer is restarted
+         */
+        public void setTransferred(long total) {
+            long previous = bytes.getAndSet(total);
+            TransferProgress.this.bytes.add(total - previous);
+        }
+
+        /**
+         * Set the expected size, if it was still unknown
+         */
+        public synchronized void setLength(long expected) {
+            if (length >= 0 || expected < 0) {
+                return;
+            }
+            if (state.get() == 0) {
+                knownLength.add(expected);
+                unknownLengths.decrementAndGet();
+            }
+            length = expected;
+        }
+
+        @Override
+        public void update(long bytesRead, long contentLength, boolean done) {
+            setLength(contentLength);
+            setTransferred(bytesRead);
+        }
+
+        @Override
+        public void onRequestProgress(long bytesWritten, long contentLength, boolean done) {
+            setLength(contentLength);
+            setTransferred(bytesWritten);
+        }
+
+        public void done() {
+            end(completed);
+        }
+
+        /**
+         * Count the transfer as failed, unless it is already done: this can be called from a finally block
+         */
+        public void failed() {
+            end(failed);
+        }
+
+        private synchronized void end(AtomicInteger counter) {
+            if (!state.compareAndSet(0, 1)) {
+                return;
+            }
+            // The expected size becomes what was actually transferred
+            long transferred = bytes.get();
+            knownLength.add(length >= 0 ? transferred - length : transferred);
+            if (length < 0) {
+                unknownLengths.decrementAndGet();
+            }
+            active.remove(this);
+            counter.incrementAndGet();
+        }
+    }
+
+    /**
+     * State of all transfers at a given time
+     */
+    public static final class Snapshot {
+
+        private final long bytes;
+        private final long length;
+        private final double rate;
+        private final long eta;
+        private final int active;
+        private final int completed;
+        private final int failed;
+        private final boolean finished;
+        private final List<FileProgress> files;
+
+        Snapshot(long bytes, long length, double rate, long eta, int active, int completed, int failed, boolean finished,
+                 List<FileProgress> files) {
+            this.bytes = bytes;
+            this.length = length;
+            this.rate = rate;
+            this.eta = eta;
+            this.active = active;
+            this.completed = completed;
+            this.failed = failed;
+            this.finished = finished;
+            this.files = files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the expected size of the transfers, or -1 if some of them have an unknown size
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the percentage done, or -1 if unknown
+         */
+        public int getPercentage() {
+            if (length <= 0) {
+                return finished ? 100 : -1;
+            }
+            return (int) Math.min(100, bytes * 100 / length);
+        }
+
+        /**
+         * @return the throughput in bytes per second
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        /**
+         * @return the estimated remaining time in seconds, or -1 if unknown
+         */
+        public long getEta() {
+            return eta;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getCompleted() {
+            return completed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return whether this is the last snapshot, taken once all transfers are over
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * @return the transfers in progress
+         */
+        public List<FileProgress> getFiles() {
+            return files;
+        }
+    }
+
+    /**
+     * State of a transfer in progress
+     */
+    public static final class FileProgress {
+
+        private final String name;
+        private final long bytes;
+        private final long length;
+        private final double rate;
+
+        FileProgress(String name, long bytes, long length, double rate) {
+            this.name = name;
+            this.bytes = bytes;
+            this.length = length;
+            this.rate = rate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the expected size, or -1 if unknown
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+
+@RunWith(JUnit4.class)
+public class BlobCacheTest {
+
+    private Path root;
+
+    @Before
+    public void createRoot() throws IOException {
+        root = Files.createTempDirectory("dplm-cache");
+    }
+
+    @After
+    public void deleteRoot() throws IOException {
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedTest() throws IOException {
+        BlobCache cache = new BlobCache(root.resolve("cache"), 100);
+        Path first = put(cache, "first", 1000);
+        Path second = put(cache, "second", 2000);
+        put(cache, "third", 3000);
+
+        Assert.assertFalse(Files.exists(first));
+        Assert.assertTrue(Files.exists(second));
+        Assert.assertNotNull(cache.get("third"));
+    }
+
+    @Test
+    public void keepLinkedBlobsTest() throws IOException {
+        BlobCache cache = new BlobCache(root.resolve("cache"), 100);
+        Path first = put(cache, "first", 1000);
+        Path working = root.resolve("working.bin");
+        cache.link(first, working, false);
+        Path second = put(cache, "second", 2000);
+        Path third = put(cache, "third", 3000);
+
+        // The linked blob frees nothing and is neither counted nor evicted
+        Assert.assertTrue(Files.exists(first));
+        Assert.assertTrue(Files.exists(second));
+        Assert.assertTrue(Files.exists(third));
+
+        put(cache, "fourth", 4000);
+        Assert.assertTrue(Files.exists(first));
+        Assert.assertFalse(Files.exists(second));
+    }
+
+    @Test
+    public void unlinkKeepsBlobReadOnlyTest() throws IOException {
+        BlobCache cache = new BlobCache(root.resolve("cache"), 1000);
+        Path blob = put(cache, "first", 1000);
+        Path working = root.resolve("working.bin");
+        cache.link(blob, working, false);
+        cache.unlink("first", working);
+
+        Assert.assertFalse(Files.exists(working));
+        Assert.assertTrue(Files.exists(blob));
+        if (blob.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Assert.assertFalse(Files.getPosixFilePermissions(blob).contains(PosixFilePermission.OWNER_WRITE));
+        }
+    }
+
+    private Path put(BlobCache cache, String key, long lastAccess) throws IOException {
+        Path file = Files.write(root.resolve(key + ".download"), new byte[40]);
+        Path blob = cache.put(key, file);
+        Files.setAttribute(blob, "lastAccessTime", FileTime.fromMillis(lastAccess));
+        return blob;
+    }
+}
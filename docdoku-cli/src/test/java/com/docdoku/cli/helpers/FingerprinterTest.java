@@ -0,0 +1,87 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class FingerprinterTest {
+
+    @Test
+    public void xxh64ReferenceTest() {
+        Assert.assertEquals(0xEF46DB3751D8E999L, xxh64(""));
+        Assert.assertEquals(0x44BC2CF5AD770999L, xxh64("abc"));
+        Assert.assertEquals(0xFBCEA83C8A378BF1L, xxh64("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void fingerprintFilesTest() throws IOException {
+        File first = File.createTempFile("fingerprint", ".txt");
+        File second = File.createTempFile("fingerprint", ".txt");
+        try {
+            Files.write(first.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+            Files.write(second.toPath(), "abd".getBytes(StandardCharsets.UTF_8));
+
+            Map<File, String> fingerprints = Fingerprinter.fingerprintAll(Arrays.asList(first, second));
+            Assert.assertEquals("44bc2cf5ad770999", fingerprints.get(first));
+            Assert.assertFalse(fingerprints.get(first).equals(fingerprints.get(second)));
+            Assert.assertEquals(fingerprints.get(second), Fingerprinter.fingerprint(second));
+        } finally {
+            Files.delete(first.toPath());
+            Files.delete(second.toPath());
+        }
+    }
+
+    @Test
+    public void bufferedLargeFileTest() throws IOException {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        File file = File.createTempFile("fingerprint", ".bin");
+        try {
+            Files.write(file.toPath(), content);
+            long expected = Fingerprinter.xxh64(ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN), 0);
+            Assert.assertEquals(String.format("%016x", expected), Fingerprinter.fingerprint(file));
+
+            // Not mapped: the file can be replaced right away
+            Files.write(file.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals("44bc2cf5ad770999", Fingerprinter.fingerprint(file));
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    private static long xxh64(String value) {
+        return Fingerprinter.xxh64(ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)).order(ByteOrder.LITTLE_ENDIAN), 0);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Times the load of the index of a large working directory by a new process.
+ * <p>
+ * Wall clock timings depend on the machine load, this harness is thus not run by surefire:
+ * run its main method from the test classpath, the number of tracked files being the optional
+ * argument.
+ */
+public class MetaDirectoryManagerBenchmark {
+
+    private static final int DEFAULT_TRACKED_FILES = 100000;
+
+    public static void main(String[] args) throws IOException {
+        int trackedFiles = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TRACKED_FILES;
+        File root = Files.createTempDirectory("dplm-meta").toFile();
+        try {
+            File workingDirectory = new File(root, "large");
+            MetaDirectoryManager.Batch batch = MetaDirectoryManager.getInstance(workingDirectory).newBatch();
+            for (int i = 0; i < trackedFiles; i++) {
+                batch.putPartFile(MetaDirectoryManagerTest.trackedFile(workingDirectory, i), "workspace",
+                        "PART-" + i, "A", 1, "fingerprint" + i, i, i);
+            }
+            batch.commit();
+
+            // A copy is not shared with the instance which wrote the index
+            File copyDirectory = new File(root, "large-copy");
+            FileUtils.copyDirectory(workingDirectory, copyDirectory);
+            long start = System.nanoTime();
+            MetaDirectoryManager copy = MetaDirectoryManager.getInstance(copyDirectory);
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            if (copy.getTrackedFiles().size() != trackedFiles) {
+                throw new IllegalStateException("Loaded " + copy.getTrackedFiles().size() + " tracked files instead of " + trackedFiles);
+            }
+            System.out.println(trackedFiles + " tracked files loaded in " + elapsed + " ms");
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+}
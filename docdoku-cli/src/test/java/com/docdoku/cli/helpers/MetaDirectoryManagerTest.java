@@ -0,0 +1,199 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.Json;
+import javax.json.JsonWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+@RunWith(JUnit4.class)
+public class MetaDirectoryManagerTest {
+
+    private static final int TRACKED_FILES = 2000;
+    private static final int UPDATES = 4;
+
+    private File root;
+
+    @Before
+    public void createRoot() throws IOException {
+        root = Files.createTempDirectory("dplm-meta").toFile();
+    }
+
+    @After
+    public void deleteRoot() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Test
+    public void storeAndReloadTest() throws IOException {
+        File workingDirectory = new File(root, "first");
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(workingDirectory);
+        String filePath = new File(workingDirectory, "part.step").getAbsolutePath();
+        String deletedPath = new File(workingDirectory, "deleted.txt").getAbsolutePath();
+
+        meta.setPartNumber(filePath, "PART-001");
+        meta.setWorkspace(filePath, "workspace");
+        meta.setRevision(filePath, "A");
+        meta.setIteration(filePath, 2);
+        meta.setFileState(filePath, "fingerprint", 42, 1000);
+        meta.setDocumentId(deletedPath, "DOC-001");
+        meta.deleteEntryInfo(deletedPath);
+
+        Assert.assertSame(meta, MetaDirectoryManager.getInstance(workingDirectory));
+
+        // Keys are relative: a moved working directory keeps its metadata
+        File movedDirectory = new File(root, "moved");
+        FileUtils.copyDirectory(workingDirectory, movedDirectory);
+        MetaDirectoryManager moved = MetaDirectoryManager.getInstance(movedDirectory);
+        String movedPath = new File(movedDirectory, "part.step").getAbsolutePath();
+
+        Assert.assertEquals("PART-001", moved.getPartNumber(movedPath));
+        Assert.assertEquals("workspace", moved.getWorkspace(movedPath));
+        Assert.assertEquals("A", moved.getRevision(movedPath));
+        Assert.assertEquals(2, moved.getIteration(movedPath));
+        Assert.assertEquals("fingerprint", moved.getFingerprint(movedPath));
+        Assert.assertEquals(42, moved.getLength(movedPath));
+        Assert.assertEquals(1000, moved.getLastModifiedDate(movedPath));
+        Assert.assertFalse(moved.isDocumentRelated(new File(movedDirectory, "deleted.txt").getAbsolutePath()));
+    }
+
+    @Test
+    public void batchTest() throws IOException {
+        File workingDirectory = new File(root, "batch");
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(workingDirectory);
+        String replacedPath = new File(workingDirectory, "replaced.step").getAbsolutePath();
+        String deletedPath = new File(workingDirectory, "deleted.step").getAbsolutePath();
+        meta.setDocumentId(replacedPath, "DOC-001");
+        meta.setPartNumber(deletedPath, "PART-002");
+
+        MetaDirectoryManager.Batch batch = meta.newBatch();
+        batch.putPartFile(replacedPath, "workspace", "PART-001", "B", 3, "fingerprint", 42, 1000);
+        batch.delete(deletedPath);
+        // Nothing is written before the commit
+        Assert.assertEquals("DOC-001", meta.getDocumentId(replacedPath));
+        Assert.assertTrue(meta.isTracked(deletedPath));
+        batch.commit();
+
+        File movedDirectory = new File(root, "batch-moved");
+        FileUtils.copyDirectory(workingDirectory, movedDirectory);
+        MetaDirectoryManager moved = MetaDirectoryManager.getInstance(movedDirectory);
+        String movedPath = new File(movedDirectory, "replaced.step").getAbsolutePath();
+        Assert.assertEquals("PART-001", moved.getPartNumber(movedPath));
+        Assert.assertFalse(moved.isDocumentRelated(movedPath));
+        Assert.assertEquals("B", moved.getRevision(movedPath));
+        Assert.assertEquals(3, moved.getIteration(movedPath));
+        Assert.assertEquals("fingerprint", moved.getFingerprint(movedPath));
+        Assert.assertEquals(42, moved.getLength(movedPath));
+        Assert.assertFalse(moved.isTracked(new File(movedDirectory, "deleted.step").getAbsolutePath()));
+    }
+
+    @Test
+    public void legacyIndexMigrationTest() throws IOException {
+        File workingDirectory = new File(root, "legacy");
+        File metaDirectory = new File(workingDirectory, ".dplm");
+        Assert.assertTrue(metaDirectory.mkdirs());
+        String filePath = new File(workingDirectory, "my.document.txt").getAbsolutePath();
+
+        File legacyIndex = new File(metaDirectory, "index.json");
+        try (JsonWriter writer = Json.createWriter(new FileOutputStream(legacyIndex))) {
+            writer.write(Json.createObjectBuilder()
+                    .add(filePath + ".documentMasterId", "DOC-001")
+                    .add(filePath + ".revision", "B")
+                    .add(filePath + ".lastModifiedDate", "1234")
+                    .build());
+        }
+
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(workingDirectory);
+        Assert.assertEquals("DOC-001", meta.getDocumentId(filePath));
+        Assert.assertEquals("B", meta.getRevision(filePath));
+        Assert.assertEquals(1234, meta.getLastModifiedDate(filePath));
+        Assert.assertFalse(legacyIndex.exists());
+    }
+
+    @Test
+    public void workingTreeInitTest() throws IOException {
+        File treeRoot = new File(root, "tree");
+        File subDirectory = new File(treeRoot, "assembly/parts");
+        String filePath = new File(subDirectory, "part.step").getAbsolutePath();
+        MetaDirectoryManager.getInstance(subDirectory).setPartNumber(filePath, "PART-001");
+
+        MetaDirectoryManager meta = MetaDirectoryManager.init(treeRoot);
+        Assert.assertTrue(meta.isWorkingTreeRoot());
+        Assert.assertFalse(new File(subDirectory, ".dplm").exists());
+        Assert.assertEquals(1, meta.getTrackedFiles().size());
+        Assert.assertEquals(filePath, meta.getTrackedFiles().get(0));
+
+        MetaDirectoryManager fromSubDirectory = MetaDirectoryManager.getInstance(subDirectory);
+        Assert.assertSame(meta, fromSubDirectory);
+        Assert.assertEquals("PART-001", fromSubDirectory.getPartNumber(filePath));
+
+        File otherDirectory = new File(treeRoot, "documents");
+        String otherPath = new File(otherDirectory, "doc.txt").getAbsolutePath();
+        MetaDirectoryManager.getInstance(otherDirectory).setDocumentId(otherPath, "DOC-001");
+        Assert.assertFalse(new File(otherDirectory, ".dplm").exists());
+        Assert.assertEquals("DOC-001", meta.getDocumentId(otherPath));
+    }
+
+    @Test
+    public void compactionOnAppendTest() throws IOException {
+        File workingDirectory = new File(root, "compacted");
+        MetaDirectoryManager meta = MetaDirectoryManager.getInstance(workingDirectory);
+        File indexFile = new File(workingDirectory, ".dplm/index.log");
+        for (int i = 0; i < TRACKED_FILES; i++) {
+            meta.setFileState(trackedFile(workingDirectory, i), "fingerprint" + i, i, 0);
+        }
+        long size = indexFile.length();
+
+        // Overwritten records are dropped without reopening the index
+        for (int update = 1; update <= UPDATES; update++) {
+            for (int i = 0; i < TRACKED_FILES; i++) {
+                meta.setFileState(trackedFile(workingDirectory, i), "fingerprint" + i, i, update);
+            }
+        }
+        Assert.assertTrue("Index of " + indexFile.length() + " bytes", indexFile.length() < 3 * size);
+
+        File copyDirectory = new File(root, "compacted-copy");
+        FileUtils.copyDirectory(workingDirectory, copyDirectory);
+        MetaDirectoryManager copy = MetaDirectoryManager.getInstance(copyDirectory);
+        Assert.assertEquals(TRACKED_FILES, copy.getTrackedFiles().size());
+        for (int i = 0; i < TRACKED_FILES; i++) {
+            String filePath = trackedFile(copyDirectory, i);
+            Assert.assertEquals("fingerprint" + i, copy.getFingerprint(filePath));
+            Assert.assertEquals(i, copy.getLength(filePath));
+            Assert.assertEquals(UPDATES, copy.getLastModifiedDate(filePath));
+        }
+    }
+
+    static String trackedFile(File workingDirectory, int i) {
+        return new File(workingDirectory, "dir" + (i % 100) + "/file" + i + ".step").getAbsolutePath();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * DocDoku, Professional Open Source
+ * Copyright 2006 - 2017 DocDoku SARL
+ *
+ * This file is part of DocDokuPLM.
+ *
+ * DocDokuPLM is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DocDokuPLM is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with DocDokuPLM.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.docdoku.cli.helpers;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+@RunWith(JUnit4.class)
+public class TransferProgressTest {
+
+    @Test
+    public void aggregateTransfersTest() {
+        TransferProgress progress = new TransferProgress(null, 1000);
+        TransferProgress.Transfer upload = progress.start("upload", 100);
+        TransferProgress.Transfer download = progress.start("download", -1);
+
+        upload.onRequestProgress(40, 100, false);
+        download.add(10);
+        TransferProgress.Snapshot snapshot = progress.snapshot(false);
+        Assert.assertEquals(50, snapshot.getBytes());
+        Assert.assertEquals(-1, snapshot.getLength());
+        Assert.assertEquals(2, snapshot.getActive());
+
+        download.update(30, 50, false);
+        snapshot = progress.snapshot(false);
+        Assert.assertEquals(70, snapshot.getBytes());
+        Assert.assertEquals(150, snapshot.getLength());
+        Assert.assertEquals(46, snapshot.getPercentage());
+
+        // A restarted upload goes back
+        upload.onRequestProgress(0, 100, false);
+        Assert.assertEquals(30, progress.snapshot(false).getBytes());
+
+        upload.onRequestProgress(100, 100, true);
+        upload.done();
+        download.failed();
+        download.done();
+        snapshot = progress.snapshot(true);
+        Assert.assertEquals(0, snapshot.getActive());
+        Assert.assertEquals(1, snapshot.getCompleted());
+        Assert.assertEquals(1, snapshot.getFailed());
+        Assert.assertEquals(130, snapshot.getLength());
+        Assert.assertEquals(100, snapshot.getPercentage());
+    }
+
+    @Test
+    public void countStreamReadsTest() throws IOException {
+        TransferProgress progress = new TransferProgress(null, 1000);
+        TransferProgress.Transfer transfer = progress.start("file", 10);
+        try (InputStream in = new ProgressInputStream(new ByteArrayInputStream(new byte[10]), transfer)) {
+            in.read();
+            in.read(new byte[4], 1, 3);
+            in.read(new byte[8]);
+        }
+        TransferProgress.Snapshot snapshot = progress.snapshot(true);
+        Assert.assertEquals(10, snapshot.getBytes());
+        Assert.assertEquals(1, snapshot.getCompleted());
+    }
+}